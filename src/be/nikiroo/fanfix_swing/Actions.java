@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -15,10 +16,13 @@ import javax.swing.SwingWorker;
 import be.nikiroo.fanfix.Instance;
 import be.nikiroo.fanfix.bundles.StringIdGui;
 import be.nikiroo.fanfix.bundles.UiConfig;
+import be.nikiroo.fanfix.data.Chapter;
 import be.nikiroo.fanfix.data.MetaData;
 import be.nikiroo.fanfix.data.Story;
 import be.nikiroo.fanfix.library.BasicLibrary;
 import be.nikiroo.fanfix.library.LocalLibrary;
+import be.nikiroo.fanfix_swing.gui.utils.FacetCounts;
+import be.nikiroo.fanfix_swing.gui.utils.StoryCache;
 import be.nikiroo.fanfix_swing.gui.utils.UiHelper;
 import be.nikiroo.fanfix_swing.gui.utils.WaitingDialogMeta;
 import be.nikiroo.fanfix_swing.gui.viewer.ViewerImages;
@@ -28,16 +32,26 @@ import be.nikiroo.utils.StringUtils;
 import be.nikiroo.utils.ui.WaitingDialog;
 
 public class Actions {
+	/**
+	 * Open the given book with the configured reader.
+	 * <p>
+	 * Only what the reader needs is fetched: the {@link Story} for the
+	 * internal readers, the file for the external ones.
+	 * <p>
+	 * Asynchronous.
+	 * 
+	 * @param lib
+	 *            the library the book is in
+	 * @param meta
+	 *            the book to open
+	 * @param parent
+	 *            a container we can use to show error messages if any
+	 * @param onDone
+	 *            action to execute when the book is fully loaded (can be
+	 *            NULL)
+	 */
 	static public void openBook(final BasicLibrary lib, MetaData meta,
 			final Container parent, final Runnable onDone) {
-		Container parentWindow = parent;
-		while (!(parentWindow instanceof Window) && parentWindow != null) {
-			parentWindow = parentWindow.getParent();
-		}
-
-		final WaitingDialog wait = new WaitingDialogMeta((Window) parentWindow,
-				lib, meta);
-
 		boolean internalImg = Instance.getInstance().getUiConfig()
 				.getBoolean(UiConfig.IMAGES_DOCUMENT_USE_INTERNAL_READER, true);
 		boolean internalNonImg = Instance.getInstance().getUiConfig()
@@ -49,26 +63,29 @@ public class Actions {
 				|| !isImageDocument && internalNonImg);
 		final String luid = meta.getLuid();
 
-		new SwingWorker<File, Void>() {
-			private File target;
-			private Story story;
+		if (internalReader) {
+			openInternal(lib, meta, parent, onDone);
+			return;
+		}
+
+		Container parentWindow = parent;
+		while (!(parentWindow instanceof Window) && parentWindow != null) {
+			parentWindow = parentWindow.getParent();
+		}
+
+		final WaitingDialog wait = new WaitingDialogMeta((Window) parentWindow,
+				lib, meta);
 
+		new SwingWorker<File, Void>() {
 			@Override
 			protected File doInBackground() throws Exception {
-				target = lib.getFile(luid, null);
-				story = lib.getStory(luid, null);
-				return null;
+				return lib.getFile(luid, null);
 			}
 
 			@Override
 			protected void done() {
 				try {
-					get();
-					if (internalReader) {
-						openInternal(story);
-					} else {
-						openExternal(target, isImageDocument);
-					}
+					openExternal(get(), isImageDocument);
 				} catch (Exception e) {
 					// TODO: i18n
 					UiHelper.error(parent, e.getLocalizedMessage(),
@@ -85,6 +102,93 @@ public class Actions {
 		}.execute();
 	}
 
+	/**
+	 * Open the given book with an internal reader, without waiting for the
+	 * {@link Story} to be loaded.
+	 * <p>
+	 * The reader is shown at once with what the {@link MetaData} already
+	 * knows (the description, or the cover for images documents), and receives
+	 * the chapters when they are loaded.
+	 * <p>
+	 * A recently opened {@link Story} is shown directly (see
+	 * {@link StoryCache}).
+	 * <p>
+	 * Asynchronous.
+	 * 
+	 * @param lib
+	 *            the library the book is in
+	 * @param meta
+	 *            the book to open
+	 * @param parent
+	 *            a container we can use to show error messages if any
+	 * @param onDone
+	 *            action to execute when the book is fully loaded (can be
+	 *            NULL)
+	 */
+	static private void openInternal(final BasicLibrary lib, MetaData meta,
+			final Container parent, final Runnable onDone) {
+		final String luid = meta.getLuid();
+
+		Story recent = StoryCache.getInstance().peek(luid);
+		if (recent != null) {
+			openInternal(recent);
+			if (onDone != null) {
+				onDone.run();
+			}
+			return;
+		}
+
+		Story preview = new Story();
+		preview.setMeta(meta);
+		preview.setChapters(new ArrayList<Chapter>());
+
+		final ViewerImages viewerImages;
+		final ViewerNonImages viewerNonImages;
+		if (meta.isImageDocument()) {
+			viewerImages = new ViewerImages(preview);
+			viewerImages.setVisible(true);
+			viewerNonImages = null;
+		} else {
+			viewerNonImages = new ViewerNonImages(lib, preview);
+			viewerNonImages.setVisible(true);
+			viewerImages = null;
+		}
+
+		new SwingWorker<Story, Void>() {
+			@Override
+			protected Story doInBackground() throws Exception {
+				return StoryCache.getInstance().get(lib, luid);
+			}
+
+			@Override
+			protected void done() {
+				try {
+					Story story = get();
+					if (viewerImages != null && viewerImages.isDisplayable()) {
+						viewerImages.setStory(story);
+					} else if (viewerNonImages != null
+							&& viewerNonImages.isDisplayable()) {
+						viewerNonImages.setStory(story);
+					}
+				} catch (Exception e) {
+					if (viewerImages != null) {
+						viewerImages.dispose();
+					} else {
+						viewerNonImages.dispose();
+					}
+
+					// TODO: i18n
+					UiHelper.error(parent, e.getLocalizedMessage(),
+							"Cannot open the story", e);
+				}
+
+				if (onDone != null) {
+					onDone.run();
+				}
+			}
+		}.execute();
+	}
+
 	/**
 	 * Open the {@link Story} with an internal reader.
 	 * <p>
@@ -204,43 +308,18 @@ public class Actions {
 	 *            Action to execute on failure
 	 */
 	static public void imprt(final Container parent, final String url,
-			Progress pg, final Runnable onSuccess, final Runnable onFailure) {
-		final Progress fpg = pg;
+			final Progress pg, final Runnable onSuccess,
+			final Runnable onFailure) {
 		new SwingWorker<Void, Void>() {
 			@Override
 			protected Void doInBackground() throws Exception {
-				Progress pg = fpg;
-				if (pg == null)
-					pg = new Progress();
-
 				try {
-					Instance.getInstance().getLibrary().imprt(getUrl(url), pg);
-					pg.done();
-
+					imprtNow(url, pg);
 					if (onSuccess != null) {
 						onSuccess.run();
 					}
 				} catch (IOException e) {
-					pg.done();
-
-					if (e instanceof UnknownHostException) {
-						UiHelper.error(parent,
-								Instance.getInstance().getTransGui().getString(
-										StringIdGui.ERROR_URL_NOT_SUPPORTED,
-										url),
-								Instance.getInstance().getTransGui().getString(
-										StringIdGui.TITLE_ERROR),
-								null);
-					} else {
-						UiHelper.error(parent,
-								Instance.getInstance().getTransGui().getString(
-										StringIdGui.ERROR_URL_IMPORT_FAILED,
-										url, e.getMessage()),
-								Instance.getInstance().getTransGui()
-										.getString(StringIdGui.TITLE_ERROR),
-								e);
-					}
-
+					showImportError(parent, url, e);
 					if (onFailure != null) {
 						onFailure.run();
 					}
@@ -251,6 +330,69 @@ public class Actions {
 		}.execute();
 	}
 
+	/**
+	 * Actually import the {@link Story} into the main {@link LocalLibrary}, in
+	 * the current thread.
+	 * <p>
+	 * Do <b>NOT</b> use this method from the UI thread.
+	 * 
+	 * @param url
+	 *            the {@link Story} to import by {@link URL}
+	 * @param pg
+	 *            the optional progress reporter (it will be marked as done
+	 *            even in case of error)
+	 * 
+	 * @return the {@link MetaData} of the imported {@link Story}
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error
+	 */
+	static public MetaData imprtNow(String url, Progress pg)
+			throws IOException {
+		if (pg == null)
+			pg = new Progress();
+
+		try {
+			MetaData meta = Instance.getInstance().getLibrary()
+					.imprt(getUrl(url), pg);
+			StoryCache.getInstance().invalidate(meta.getLuid());
+			FacetCounts.storyAdded(meta);
+			return meta;
+		} finally {
+			pg.done();
+		}
+	}
+
+	/**
+	 * Show the error which happened when importing the given {@link URL}.
+	 * 
+	 * @param parent
+	 *            a container we can use to show the error
+	 * @param url
+	 *            the {@link URL} which could not be imported
+	 * @param e
+	 *            the error
+	 */
+	static public void showImportError(Container parent, String url,
+			IOException e) {
+		if (e instanceof UnknownHostException) {
+			UiHelper.error(parent,
+					Instance.getInstance().getTransGui().getString(
+							StringIdGui.ERROR_URL_NOT_SUPPORTED, url),
+					Instance.getInstance().getTransGui()
+							.getString(StringIdGui.TITLE_ERROR),
+					null);
+		} else {
+			UiHelper.error(parent,
+					Instance.getInstance().getTransGui().getString(
+							StringIdGui.ERROR_URL_IMPORT_FAILED, url,
+							e.getMessage()),
+					Instance.getInstance().getTransGui()
+							.getString(StringIdGui.TITLE_ERROR),
+					e);
+		}
+	}
+
 	/**
 	 * Return an {@link URL} from this {@link String}, be it a file path or an
 	 * actual {@link URL}.
@@ -4,22 +4,34 @@ import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.Window;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 import javax.swing.JPopupMenu;
+import javax.swing.JScrollPane;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import be.nikiroo.fanfix.Instance;
 import be.nikiroo.fanfix.data.MetaData;
@@ -28,9 +40,16 @@ import be.nikiroo.fanfix_swing.gui.book.BookBlock;
 import be.nikiroo.fanfix_swing.gui.book.BookInfo;
 import be.nikiroo.fanfix_swing.gui.book.BookInfo.Type;
 import be.nikiroo.fanfix_swing.gui.book.BookLine;
+import be.nikiroo.fanfix_swing.gui.book.BookPool;
 import be.nikiroo.fanfix_swing.gui.book.BookPopup;
 import be.nikiroo.fanfix_swing.gui.book.BookPopup.Informer;
-import be.nikiroo.utils.ui.DelayWorker;
+import be.nikiroo.fanfix_swing.gui.utils.BookQuery;
+import be.nikiroo.fanfix_swing.gui.utils.BookSearchIndex;
+import be.nikiroo.fanfix_swing.gui.utils.CoverScheduler;
+import be.nikiroo.fanfix_swing.gui.utils.CoverScheduler.CoverListener;
+import be.nikiroo.fanfix_swing.gui.utils.LibraryService;
+import be.nikiroo.fanfix_swing.gui.utils.LibraryService.SnapshotListener;
+import be.nikiroo.fanfix_swing.gui.utils.LibrarySnapshot;
 import be.nikiroo.utils.ui.ListModel;
 import be.nikiroo.utils.ui.ListModel.Predicate;
 import be.nikiroo.utils.ui.ListSnapshot;
@@ -81,14 +100,53 @@ public class BooksPanel extends ListenerPanel {
 		}
 	}
 
-	private Map<BookInfo, BookLine> books = new HashMap<BookInfo, BookLine>();
+	/**
+	 * The difference between the books currently loaded and the books that
+	 * should be loaded now, by LUID.
+	 * 
+	 * @author niki
+	 */
+	private class LoadDiff {
+		/** All the books to show, in order (new or reused). */
+		public List<BookInfo> books = new ArrayList<BookInfo>();
+		/** The new books. */
+		public List<BookInfo> added = new ArrayList<BookInfo>();
+		/** The books to update (current version, new version). */
+		public Map<BookInfo, BookInfo> updated = new LinkedHashMap<BookInfo, BookInfo>();
+		/** The books which entered or left the cache (book, new state). */
+		public Map<BookInfo, Boolean> cached = new LinkedHashMap<BookInfo, Boolean>();
+		/** The LUIDs of all the books to show. */
+		public Set<String> luids = new HashSet<String>();
+		/** The search index of all the books to show. */
+		public BookSearchIndex index;
+	}
+
+	/** Extra items kept in the {@link BookPool} above the visible ones. */
+	static private final int POOL_MARGIN = 20;
+	/** Above this number of books, the filter is computed in the background. */
+	static private final int ASYNC_FILTER_SIZE = 20000;
+	/** The number of books in the first chunk of a new selection. */
+	static private final int FIRST_CHUNK = 50;
+	/** The maximum number of books in one chunk of a new selection. */
+	static private final int MAX_CHUNK = 5000;
+
+	private BookPool books;
+	private Map<String, BookInfo> booksByLuid = new LinkedHashMap<String, BookInfo>();
 	private boolean seeWordCount;
 	private boolean showThumbnails;
 
 	private JList6<BookInfo> list;
 	private ListModel<BookInfo> data;
-	private DelayWorker bookCoverUpdater;
+	private JScrollPane scroll;
+	private CoverScheduler coverScheduler;
+	private boolean coverRequestPending;
+	private int lastViewY;
 	private String filter = "";
+	private BookSearchIndex index;
+	private BookQuery lastQuery;
+	private BitSet lastResult;
+	private int filterGeneration;
+	private SwingWorker<LoadDiff, ?> loader;
 
 	private Informer informer;
 	private BooksPanelActions actions;
@@ -109,6 +167,7 @@ public class BooksPanel extends ListenerPanel {
 	public BooksPanel(boolean showThumbnails, boolean seeWordCount) {
 		setLayout(new BorderLayout());
 		this.seeWordCount = seeWordCount;
+		this.books = new BookPool(showThumbnails, seeWordCount);
 
 		final SearchBar search = new SearchBar();
 		add(search, BorderLayout.NORTH);
@@ -121,12 +180,42 @@ public class BooksPanel extends ListenerPanel {
 			}
 		});
 
-		bookCoverUpdater = new DelayWorker(20);
-		bookCoverUpdater.start();
+		coverScheduler = new CoverScheduler(new CoverListener() {
+			@Override
+			public void coversReady(Map<BookInfo, Image> covers) {
+				for (Entry<BookInfo, Image> cover : covers.entrySet()) {
+					books.setCover(cover.getKey(), cover.getValue());
+				}
+
+				list.repaint();
+			}
+		});
 
 		list = initList();
+		scroll = UIUtils.scroll(list, false);
 		setShowThumbnails(showThumbnails);
-		add(UIUtils.scroll(list, false), BorderLayout.CENTER);
+
+		scroll.getViewport().addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				updatePoolCapacity();
+			}
+		});
+		scroll.getViewport().addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				requestCovers();
+			}
+		});
+		add(scroll, BorderLayout.CENTER);
+
+		LibraryService.getInstance()
+				.addSnapshotListener(new SnapshotListener() {
+					@Override
+					public void snapshotChanged(LibrarySnapshot snapshot) {
+						reloadData();
+					}
+				});
 	}
 
 	// null or empty -> all sources
@@ -138,31 +227,7 @@ public class BooksPanel extends ListenerPanel {
 			lastLoad = new ReloadData(sources, authors, tags);
 		}
 
-		new SwingWorker<List<BookInfo>, Void>() {
-			@Override
-			protected List<BookInfo> doInBackground() throws Exception {
-				List<BookInfo> bookInfos = new ArrayList<BookInfo>();
-				BasicLibrary lib = Instance.getInstance().getLibrary();
-				for (MetaData meta : lib.getList().filter(sources, authors,
-						tags)) {
-					bookInfos.add(BookInfo.fromMeta(lib, meta));
-				}
-
-				return bookInfos;
-			}
-
-			@Override
-			protected void done() {
-				try {
-					doLoadData(get());
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				} catch (ExecutionException e) {
-					e.printStackTrace();
-				}
-				// TODO: error
-			}
-		}.execute();
+		load(sources, authors, tags, false);
 	}
 
 	// loadData by Book.Type + value
@@ -171,6 +236,22 @@ public class BooksPanel extends ListenerPanel {
 			lastLoad = new ReloadData(type, value);
 		}
 
+		load(type, value, false);
+	}
+
+	/**
+	 * Load the books with the given {@link Type} and value.
+	 * 
+	 * @param type
+	 *            the type of value (NULL for all the books)
+	 * @param value
+	 *            the value (NULL for all the books)
+	 * @param update
+	 *            TRUE to only update the books currently loaded (same
+	 *            selection), FALSE to stream a new selection (see
+	 *            {@link BooksPanel#load(List, List, List, boolean)})
+	 */
+	private void load(Type type, String value, boolean update) {
 		final List<String> sources = new ArrayList<String>();
 		final List<String> authors = new ArrayList<String>();
 		final List<String> tags = new ArrayList<String>();
@@ -192,21 +273,117 @@ public class BooksPanel extends ListenerPanel {
 			}
 		}
 
-		new SwingWorker<List<BookInfo>, Void>() {
+		load(sources, authors, tags, update);
+	}
+
+	/**
+	 * Load the books with the given sources, authors and tags.
+	 * <p>
+	 * Any load still running is cancelled, since its result would be replaced
+	 * by this one anyway.
+	 * <p>
+	 * A new selection is streamed: the books are sent to the list by chunks as
+	 * soon as they are ready (the first chunk is just enough to fill the
+	 * screen), so the user does not have to wait for the whole selection.
+	 * <p>
+	 * An update of the same selection (when the library changed) is compared
+	 * by LUID with the books already loaded, so only the books that actually
+	 * changed need to be recreated; the others (and their cover) are kept as
+	 * is.
+	 * <p>
+	 * Must be called in the UI thread.
+	 * 
+	 * @param sources
+	 *            the sources to load (NULL or empty for all)
+	 * @param authors
+	 *            the authors to load (NULL or empty for all)
+	 * @param tags
+	 *            the tags to load (NULL or empty for all)
+	 * @param update
+	 *            TRUE to update the current selection, FALSE to stream a new
+	 *            one
+	 */
+	private void load(final List<String> sources, final List<String> authors,
+			final List<String> tags, boolean update) {
+		if (loader != null) {
+			loader.cancel(false);
+		}
+
+		if (update) {
+			loader = update(sources, authors, tags);
+		} else {
+			loader = stream(sources, authors, tags);
+		}
+
+		loader.execute();
+	}
+
+	/**
+	 * Create a worker that will compare the books with the given sources,
+	 * authors and tags with the books already loaded, and then apply the
+	 * differences.
+	 * 
+	 * @param sources
+	 *            the sources to load (NULL or empty for all)
+	 * @param authors
+	 *            the authors to load (NULL or empty for all)
+	 * @param tags
+	 *            the tags to load (NULL or empty for all)
+	 * 
+	 * @return the worker, not yet started
+	 */
+	private SwingWorker<LoadDiff, Void> update(final List<String> sources,
+			final List<String> authors, final List<String> tags) {
+		return new SwingWorker<LoadDiff, Void>() {
 			@Override
-			protected List<BookInfo> doInBackground() throws Exception {
-				List<BookInfo> bookInfos = new ArrayList<BookInfo>();
+			protected LoadDiff doInBackground() throws Exception {
+				LoadDiff diff = new LoadDiff();
 				BasicLibrary lib = Instance.getInstance().getLibrary();
-				for (MetaData meta : lib.getList().filter(sources, authors,
-						tags)) {
-					bookInfos.add(BookInfo.fromMeta(lib, meta));
+				LibrarySnapshot snapshot = LibraryService.getInstance()
+						.getSnapshot();
+				for (MetaData meta : snapshot.getList().filter(sources,
+						authors, tags)) {
+					if (isCancelled()) {
+						return null;
+					}
+
+					BookInfo current;
+					synchronized (booksByLuid) {
+						current = booksByLuid.get(meta.getLuid());
+					}
+
+					// Only the new or changed books are created again
+					if (current == null) {
+						BookInfo info = BookInfo.fromMeta(lib, meta);
+						diff.added.add(info);
+						diff.books.add(info);
+					} else {
+						if (!current.isUpToDate(meta)) {
+							diff.updated.put(current,
+									BookInfo.fromMeta(lib, meta));
+						} else {
+							boolean cached = current.isCached(lib);
+							if (cached != current.isCached()) {
+								diff.cached.put(current, cached);
+							}
+						}
+						diff.books.add(current);
+					}
+
+					diff.luids.add(meta.getLuid());
 				}
 
-				return bookInfos;
+				// The updates are only applied later, in the UI thread
+				diff.index = new BookSearchIndex(diff.books, diff.updated);
+				return diff;
 			}
 
 			@Override
 			protected void done() {
+				if (isCancelled()) {
+					return;
+				}
+
 				try {
 					doLoadData(get());
 				} catch (InterruptedException e) {
@@ -216,17 +393,264 @@ public class BooksPanel extends ListenerPanel {
 				}
 				// TODO: error
 			}
-		}.execute();
+		};
+	}
+
+	/**
+	 * Create a worker that will replace the books currently loaded by the
+	 * books with the given sources, authors and tags, by chunks.
+	 * <p>
+	 * The books already loaded are reused when they did not change, so their
+	 * covers are kept.
+	 * 
+	 * @param sources
+	 *            the sources to load (NULL or empty for all)
+	 * @param authors
+	 *            the authors to load (NULL or empty for all)
+	 * @param tags
+	 *            the tags to load (NULL or empty for all)
+	 * 
+	 * @return the worker, not yet started
+	 */
+	private SwingWorker<LoadDiff, BookInfo> stream(final List<String> sources,
+			final List<String> authors, final List<String> tags) {
+		return new SwingWorker<LoadDiff, BookInfo>() {
+			private boolean cleared;
+			private List<BookInfo> shown = new ArrayList<BookInfo>();
+			private Map<BookInfo, Boolean> recached = new HashMap<BookInfo, Boolean>();
+
+			@Override
+			protected LoadDiff doInBackground() throws Exception {
+				LoadDiff diff = new LoadDiff();
+				BasicLibrary lib = Instance.getInstance().getLibrary();
+				LibrarySnapshot snapshot = LibraryService.getInstance()
+						.getSnapshot();
+
+				int chunk = FIRST_CHUNK;
+				List<BookInfo> pending = new ArrayList<BookInfo>();
+				for (MetaData meta : snapshot.getList().filter(sources,
+						authors, tags)) {
+					if (isCancelled()) {
+						return null;
+					}
+
+					BookInfo info;
+					synchronized (booksByLuid) {
+						info = booksByLuid.get(meta.getLuid());
+					}
+
+					if (info == null || !info.isUpToDate(meta)) {
+						info = BookInfo.fromMeta(lib, meta);
+					} else {
+						boolean cached = info.isCached(lib);
+						if (cached != info.isCached()) {
+							// Applied in the UI thread, when shown
+							synchronized (recached) {
+								recached.put(info, cached);
+							}
+						}
+					}
+
+					diff.books.add(info);
+					diff.luids.add(meta.getLuid());
+
+					pending.add(info);
+					if (pending.size() >= chunk) {
+						publish(pending.toArray(new BookInfo[0]));
+						pending.clear();
+						chunk = Math.min(chunk * 2, MAX_CHUNK);
+					}
+				}
+
+				if (!pending.isEmpty()) {
+					publish(pending.toArray(new BookInfo[0]));
+				}
+
+				diff.index = new BookSearchIndex(diff.books);
+				return diff;
+			}
+
+			@Override
+			protected void process(List<BookInfo> chunks) {
+				if (isCancelled()) {
+					return;
+				}
+
+				clear();
+				synchronized (recached) {
+					for (BookInfo book : chunks) {
+						Boolean cached = recached.remove(book);
+						if (cached != null) {
+							book.setCached(cached);
+						}
+					}
+				}
+
+				data.addAllItems(chunks);
+				shown.addAll(chunks);
+				filter();
+			}
+
+			@Override
+			protected void done() {
+				if (isCancelled()) {
+					// The previous books may already be replaced by some of
+					// ours: keep the map in sync with what is really shown
+					if (cleared) {
+						synchronized (booksByLuid) {
+							booksByLuid.clear();
+							for (BookInfo book : shown) {
+								booksByLuid.put(book.getMeta().getLuid(),
+										book);
+							}
+						}
+					}
+
+					return;
+				}
+
+				try {
+					LoadDiff diff = get();
+					clear();
+
+					synchronized (booksByLuid) {
+						booksByLuid.clear();
+						for (BookInfo book : diff.books) {
+							booksByLuid.put(book.getMeta().getLuid(), book);
+						}
+					}
+
+					index = diff.index;
+					lastQuery = null;
+					lastResult = null;
+					filter();
+				} catch (InterruptedException e) {
+					Instance.getInstance().getTraceHandler().error(e);
+				} catch (ExecutionException e) {
+					Instance.getInstance().getTraceHandler().error(e);
+				}
+			}
+
+			/**
+			 * Remove the previous books the first time we get new ones.
+			 * <p>
+			 * Until the whole selection is loaded, there is no search index:
+			 * the books are filtered one by one.
+			 */
+			private void clear() {
+				if (!cleared) {
+					cleared = true;
+					data.clearItems();
+					coverScheduler.clear();
+					index = null;
+					lastQuery = null;
+					lastResult = null;
+				}
+			}
+		};
 	}
 
-	private void doLoadData(List<BookInfo> bookInfos) {
-		data.clearItems();
-		data.addAllItems(bookInfos);
-		bookCoverUpdater.clear();
+	/**
+	 * Apply the given changes to the books currently loaded.
+	 * <p>
+	 * The removed books are removed and the updated ones are refreshed in
+	 * place; when books are added (or moved), the list takes the new order in
+	 * one go, still with the existing books, so their covers are kept. If most
+	 * of the books changed, the list is simply refilled.
+	 * 
+	 * @param diff
+	 *            the changes to apply
+	 */
+	private void doLoadData(LoadDiff diff) {
+		List<BookInfo> removed = new ArrayList<BookInfo>();
+		List<BookInfo> kept = new ArrayList<BookInfo>();
+		synchronized (booksByLuid) {
+			for (BookInfo book : booksByLuid.values()) {
+				if (!diff.luids.contains(book.getMeta().getLuid())) {
+					removed.add(book);
+				} else {
+					kept.add(book);
+				}
+			}
+
+			booksByLuid.clear();
+			for (BookInfo book : diff.books) {
+				booksByLuid.put(book.getMeta().getLuid(), book);
+			}
+		}
+
+		for (Entry<BookInfo, BookInfo> update : diff.updated.entrySet()) {
+			update.getKey().update(update.getValue());
+		}
+		for (Entry<BookInfo, Boolean> cached : diff.cached.entrySet()) {
+			cached.getKey().setCached(cached.getValue());
+		}
+
+		index = diff.index;
+		lastQuery = null;
+		lastResult = null;
+
+		int changes = removed.size() + diff.added.size();
+		if (changes > diff.books.size() / 2) {
+			data.clearItems();
+			data.addAllItems(diff.books);
+			coverScheduler.clear();
+		} else {
+			if (diff.added.isEmpty() && sameOrder(kept, diff.books)) {
+				if (!removed.isEmpty()) {
+					final Set<BookInfo> removedSet = new HashSet<BookInfo>(
+							removed);
+					data.removeItemIf(new Predicate<BookInfo>() {
+						@Override
+						public boolean test(BookInfo item) {
+							return removedSet.contains(item);
+						}
+					});
+				}
+			} else {
+				// The ListModel can only append: the same books are given
+				// back in their new order (a copy of references, nothing is
+				// created again)
+				data.clearItems();
+				data.addAllItems(diff.books);
+			}
+
+			for (BookInfo book : diff.updated.keySet()) {
+				data.fireElementChanged(book);
+			}
+			for (BookInfo book : diff.cached.keySet()) {
+				data.fireElementChanged(book);
+			}
+		}
 
 		filter();
 	}
 
+	/**
+	 * Check if these two lists contain the same books in the same order.
+	 * 
+	 * @param books
+	 *            the books
+	 * @param others
+	 *            the other books
+	 * 
+	 * @return TRUE if they do
+	 */
+	static private boolean sameOrder(List<BookInfo> books,
+			List<BookInfo> others) {
+		if (books.size() != others.size()) {
+			return false;
+		}
+
+		for (int i = 0; i < books.size(); i++) {
+			if (books.get(i) != others.get(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	public void reloadData() {
 		ReloadData lastLoad;
 		synchronized (this.lastLoad) {
@@ -247,10 +671,10 @@ public class BooksPanel extends ListenerPanel {
 
 		switch (lastLoad.mode) {
 		case STA:
-			loadData(lastLoad.sources, lastLoad.authors, lastLoad.tags);
+			load(lastLoad.sources, lastLoad.authors, lastLoad.tags, true);
 			break;
 		case TYPE_VALUE:
-			loadData(lastLoad.type, lastLoad.value);
+			load(lastLoad.type, lastLoad.value, true);
 			break;
 		default:
 			Instance.getInstance().getTraceHandler()
@@ -334,14 +758,88 @@ public class BooksPanel extends ListenerPanel {
 		}
 	}
 
-	// is UI!
+	/**
+	 * Filter the books with the current search query (see {@link BookQuery}).
+	 * <p>
+	 * The search index is used, and the previous result is narrowed down if
+	 * the user only typed more characters; for large lists, the search is done
+	 * in the background and only the latest one is applied.
+	 * <p>
+	 * Must be called in the UI thread.
+	 */
 	private void filter() {
+		final BookSearchIndex index = this.index;
+		final BookQuery query = BookQuery.parse(filter);
+		final int generation = ++filterGeneration;
+
+		if (index == null || query.isEmpty()) {
+			applyFilter(index, query, null);
+			return;
+		}
+
+		final BitSet within = (lastResult != null && query
+				.isNarrowing(lastQuery)) ? lastResult : null;
+
+		if (index.size() < ASYNC_FILTER_SIZE) {
+			applyFilter(index, query, query.evaluate(index, within));
+			return;
+		}
+
+		new SwingWorker<BitSet, Void>() {
+			@Override
+			protected BitSet doInBackground() throws Exception {
+				return query.evaluate(index, within);
+			}
+
+			@Override
+			protected void done() {
+				// Only apply the latest search on the latest books
+				if (generation != filterGeneration
+						|| index != BooksPanel.this.index) {
+					return;
+				}
+
+				try {
+					applyFilter(index, query, get());
+				} catch (InterruptedException e) {
+					Instance.getInstance().getTraceHandler().error(e);
+				} catch (ExecutionException e) {
+					Instance.getInstance().getTraceHandler().error(e);
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	 * Show only the books matching the given search result.
+	 * 
+	 * @param index
+	 *            the index used for the search (can be NULL if no books were
+	 *            loaded yet)
+	 * @param query
+	 *            the query
+	 * @param result
+	 *            the search result, or NULL if we have no index or an empty
+	 *            query
+	 */
+	private void applyFilter(final BookSearchIndex index,
+			final BookQuery query, final BitSet result) {
+		lastQuery = result == null ? null : query;
+		lastResult = result;
+
 		data.filter(new Predicate<BookInfo>() {
 			@Override
 			public boolean test(BookInfo item) {
-				return item.getMainInfo() == null || filter.isEmpty()
-						|| item.getMainInfo().toLowerCase()
-								.contains(filter.toLowerCase());
+				if (query.isEmpty()) {
+					return true;
+				}
+
+				int position = index == null ? -1 : index.indexOf(item);
+				if (result != null && position >= 0) {
+					return result.get(position);
+				}
+
+				return query.test(item.getMeta(), item.isCached());
 			}
 		});
 	}
@@ -365,13 +863,8 @@ public class BooksPanel extends ListenerPanel {
 		if (this.seeWordCount != seeWordCount) {
 			this.seeWordCount = seeWordCount;
 
-			if (books != null) {
-				for (BookLine book : books.values()) {
-					book.setSeeWordCount(seeWordCount);
-				}
-
-				list.repaint();
-			}
+			books.setSeeWordCount(seeWordCount);
+			list.repaint();
 		}
 	}
 
@@ -454,7 +947,7 @@ public class BooksPanel extends ListenerPanel {
 			@Override
 			public void invalidateCache() {
 				fireActionPerformed(INVALIDATE_CACHE);
-				reloadData();
+				LibraryService.getInstance().reload();
 			}
 		};
 	}
@@ -470,14 +963,8 @@ public class BooksPanel extends ListenerPanel {
 					BookInfo value, int index, boolean isSelected,
 					boolean cellHasFocus) {
 				BookLine book = books.get(value);
-				if (book == null) {
-					if (!showThumbnails) {
-						book = new BookLine(value, seeWordCount);
-					} else {
-						book = new BookBlock(value, seeWordCount);
-						startUpdateBookCover((BookBlock) book);
-					}
-					books.put(value, book);
+				if (showThumbnails && !books.hasCover(value)) {
+					requestCovers();
 				}
 
 				book.setSelected(isSelected);
@@ -487,26 +974,89 @@ public class BooksPanel extends ListenerPanel {
 		};
 	}
 
-	private void startUpdateBookCover(final BookBlock book) {
-		bookCoverUpdater.delay(book.getInfo().getId(),
-				new SwingWorker<Image, Void>() {
-					@Override
-					protected Image doInBackground() throws Exception {
-						BasicLibrary lib = Instance.getInstance().getLibrary();
-						return BookBlock.generateCoverImage(lib,
-								book.getInfo());
-					}
+	/**
+	 * Ask the {@link CoverScheduler} for the missing covers of the visible
+	 * items (first), then of the next screen in the scroll direction.
+	 * <p>
+	 * The requests are coalesced: it is safe to call this method multiple
+	 * times in a row, the queue will be computed only once, later in the UI
+	 * thread.
+	 */
+	private void requestCovers() {
+		if (coverRequestPending) {
+			return;
+		}
 
-					@Override
-					protected void done() {
-						try {
-							book.setCoverImage(get());
-							data.fireElementChanged(book.getInfo());
-						} catch (Exception e) {
-							// TODO ? probably just log
-						}
-					}
-				});
+		coverRequestPending = true;
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				coverRequestPending = false;
+				updateCoverQueue();
+			}
+		});
+	}
+
+	/**
+	 * Compute the list of covers we need (the visible ones first, then the
+	 * next screen in the scroll direction) and send it to the
+	 * {@link CoverScheduler}, which will cancel the others.
+	 */
+	private void updateCoverQueue() {
+		int first = list.getFirstVisibleIndex();
+		int last = list.getLastVisibleIndex();
+		if (!showThumbnails || first < 0 || last < 0) {
+			coverScheduler.clear();
+			return;
+		}
+
+		int viewY = scroll.getViewport().getViewPosition().y;
+		boolean down = viewY >= lastViewY;
+		lastViewY = viewY;
+
+		int size = data.getSize();
+		int page = last - first + 1;
+		List<BookInfo> wanted = new ArrayList<BookInfo>();
+		for (int i = first; i <= last && i < size; i++) {
+			addIfNoCover(wanted, data.getElementAt(i));
+		}
+		for (int i = 1; i <= page; i++) {
+			int index = down ? last + i : first - i;
+			if (index >= 0 && index < size) {
+				addIfNoCover(wanted, data.getElementAt(index));
+			}
+		}
+
+		coverScheduler.setQueue(wanted);
+	}
+
+	/**
+	 * Add this book to the list if we do not already know its cover.
+	 * 
+	 * @param list
+	 *            the list to add to
+	 * @param book
+	 *            the book to add
+	 */
+	private void addIfNoCover(List<BookInfo> list, BookInfo book) {
+		if (book != null && !books.hasCover(book)) {
+			list.add(book);
+		}
+	}
+
+	/**
+	 * Resize the {@link BookPool} so it can hold all the visible items plus a
+	 * small margin, but not much more.
+	 */
+	private void updatePoolCapacity() {
+		Rectangle view = list.getVisibleRect();
+		int cellWidth = Math.max(1, list.getFixedCellWidth());
+		int cellHeight = Math.max(1, list.getFixedCellHeight());
+
+		int cols = showThumbnails ? Math.max(1, view.width / cellWidth) : 1;
+		int rows = (view.height / cellHeight) + 2;
+
+		books.setCapacity((cols * rows) + POOL_MARGIN);
 	}
 
 	public boolean isShowThumbnails() {
@@ -515,7 +1065,7 @@ public class BooksPanel extends ListenerPanel {
 
 	public void setShowThumbnails(boolean showThumbnails) {
 		this.showThumbnails = showThumbnails;
-		books.clear();
+		books.setThumbnails(showThumbnails);
 		list.setLayoutOrientation(
 				showThumbnails ? JList6.HORIZONTAL_WRAP : JList6.VERTICAL);
 
@@ -525,7 +1075,7 @@ public class BooksPanel extends ListenerPanel {
 					"Some long string, which is 50 chars long itself...");
 		}
 		if (!showThumbnails) {
-			bookCoverUpdater.clear();
+			coverScheduler.clear();
 			Dimension sz = new BookLine(
 					BookInfo.fromSource(null, longString.toString()), true)
 							.getPreferredSize();
@@ -538,5 +1088,7 @@ public class BooksPanel extends ListenerPanel {
 			list.setFixedCellHeight((int) sz.getHeight());
 			list.setFixedCellWidth((int) sz.getWidth());
 		}
+
+		updatePoolCapacity();
 	}
 }
@@ -21,8 +21,12 @@ import be.nikiroo.fanfix.library.BasicLibrary;
 import be.nikiroo.fanfix.output.BasicOutput.OutputType;
 import be.nikiroo.fanfix_swing.Actions;
 import be.nikiroo.fanfix_swing.gui.book.BookInfo;
+import be.nikiroo.fanfix_swing.gui.book.BookInfo.Type;
 import be.nikiroo.fanfix_swing.gui.book.BookPopup.Informer;
 import be.nikiroo.fanfix_swing.gui.utils.CoverImager;
+import be.nikiroo.fanfix_swing.gui.utils.FacetCounts;
+import be.nikiroo.fanfix_swing.gui.utils.LibraryService;
+import be.nikiroo.fanfix_swing.gui.utils.StoryCache;
 import be.nikiroo.fanfix_swing.gui.utils.UiHelper;
 import be.nikiroo.utils.Progress;
 
@@ -104,6 +108,9 @@ public class BooksPanelActions {
 
 						for (BookInfo info : selected) {
 							lib.delete(info.getMeta().getLuid());
+							StoryCache.getInstance()
+									.invalidate(info.getMeta().getLuid());
+							FacetCounts.storyRemoved(info.getMeta());
 							publish(info);
 						}
 
@@ -119,6 +126,9 @@ public class BooksPanelActions {
 
 					@Override
 					protected void done() {
+						// Even if not all of them were deleted
+						LibraryService.getInstance().reload();
+
 						try {
 							get();
 						} catch (Exception e) {
@@ -135,6 +145,7 @@ public class BooksPanelActions {
 		MainFrame.getImporter().setVisible(true);
 		final List<BookInfo> selected = informer.getSelected();
 		for (BookInfo book : selected) {
+			StoryCache.getInstance().invalidate(book.getMeta().getLuid());
 			MainFrame.getImporter().imprt(owner, book.getMeta().getUrl());
 		}
 	}
@@ -226,6 +237,8 @@ public class BooksPanelActions {
 					BasicLibrary lib = Instance.getInstance().getLibrary();
 					for (BookInfo book : selected) {
 						lib.clearFromCache(book.getMeta().getLuid());
+						StoryCache.getInstance()
+								.invalidate(book.getMeta().getLuid());
 						CoverImager.clearIcon(book);
 					}
 					return null;
@@ -286,11 +299,18 @@ public class BooksPanelActions {
 						String luid = book.getMeta().getLuid();
 						if (what == ChangeAction.SOURCE) {
 							lib.changeSource(luid, fChangeTo, null);
+							FacetCounts.storyMoved(book.getMeta(),
+									Type.SOURCE, fChangeTo);
 						} else if (what == ChangeAction.TITLE) {
 							lib.changeTitle(luid, fChangeTo, null);
 						} else if (what == ChangeAction.AUTHOR) {
 							lib.changeAuthor(luid, fChangeTo, null);
+							FacetCounts.storyMoved(book.getMeta(),
+									Type.AUTHOR, fChangeTo);
 						}
+
+						// Also drops the old version if it is being loaded
+						StoryCache.getInstance().invalidate(luid);
 					}
 
 					return null;
@@ -4,6 +4,8 @@ import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.List;
 
 import javax.swing.JButton;
@@ -17,6 +19,9 @@ import be.nikiroo.fanfix.Instance;
 import be.nikiroo.fanfix.library.BasicLibrary;
 import be.nikiroo.fanfix_swing.gui.book.BookInfo;
 import be.nikiroo.fanfix_swing.gui.utils.DataTreeBooks;
+import be.nikiroo.fanfix_swing.gui.utils.LibraryService;
+import be.nikiroo.fanfix_swing.gui.utils.LibraryService.SnapshotListener;
+import be.nikiroo.fanfix_swing.gui.utils.LibrarySnapshot;
 import be.nikiroo.fanfix_swing.gui.utils.UiHelper;
 import be.nikiroo.utils.ui.ListenerPanel;
 
@@ -78,12 +83,12 @@ public class BrowserPanel extends ListenerPanel {
 
 		int index = 0;
 		dataTreeBooks = new DataTreeBooks(false, true, true);
-		tabs.add(sourceTab = new BrowserTab(dataTreeBooks.getSources(), index++,
-				SOURCE_SELECTION));
-		tabs.add(authorTab = new BrowserTab(dataTreeBooks.getAuthors(), index++,
-				AUTHOR_SELECTION));
-		tabs.add(tagsTab = new BrowserTab(dataTreeBooks.getTags(), index++,
-				TAGS_SELECTION));
+		tabs.add(sourceTab = new BrowserTab(dataTreeBooks,
+				dataTreeBooks.getSources(), index++, SOURCE_SELECTION));
+		tabs.add(authorTab = new BrowserTab(dataTreeBooks,
+				dataTreeBooks.getAuthors(), index++, AUTHOR_SELECTION));
+		tabs.add(tagsTab = new BrowserTab(dataTreeBooks,
+				dataTreeBooks.getTags(), index++, TAGS_SELECTION));
 
 		configureTab(tabs, sourceTab, "Sources", "Tooltip for Sources");
 		configureTab(tabs, authorTab, "Authors", "Tooltip for Authors");
@@ -122,6 +127,14 @@ public class BrowserPanel extends ListenerPanel {
 			}
 		});
 
+		LibraryService.getInstance()
+				.addSnapshotListener(new SnapshotListener() {
+					@Override
+					public void snapshotChanged(LibrarySnapshot snapshot) {
+						reloadData(snapshot, false);
+					}
+				});
+
 		reloadData(true);
 	}
 
@@ -151,6 +164,13 @@ public class BrowserPanel extends ListenerPanel {
 				fireActionPerformed(e.getActionCommand());
 			}
 		});
+		tab.addPropertyChangeListener(BrowserTab.TOTAL_COUNT,
+				new PropertyChangeListener() {
+					@Override
+					public void propertyChange(PropertyChangeEvent evt) {
+						tabs.setTitleAt(tab.getIndex(), tab.getTitle());
+					}
+				});
 	}
 
 	/**
@@ -213,18 +233,36 @@ public class BrowserPanel extends ListenerPanel {
 	}
 
 	public void reloadData(final boolean fireActionPerformed) {
+		reloadData(null, fireActionPerformed);
+	}
+
+	/**
+	 * Reload all the data from the 3 tabs.
+	 * 
+	 * @param snapshot
+	 *            the snapshot of the library to use, or NULL to use the
+	 *            current one (see {@link LibraryService})
+	 * @param fireActionPerformed
+	 *            TRUE to fire an action when the tabs are reloaded
+	 */
+	private void reloadData(final LibrarySnapshot snapshot,
+			final boolean fireActionPerformed) {
 		new SwingWorker<Void, Void>() {
 			@Override
 			protected Void doInBackground() throws Exception {
-				dataTreeBooks.loadData();
+				if (snapshot != null) {
+					dataTreeBooks.loadData(snapshot);
+				} else {
+					dataTreeBooks.loadData();
+				}
 				return null;
 			}
 
 			@Override
 			protected void done() {
-				sourceTab.filter(fireActionPerformed);
-				authorTab.filter(fireActionPerformed);
-				tagsTab.filter(fireActionPerformed);
+				sourceTab.reloadData(fireActionPerformed);
+				authorTab.reloadData(fireActionPerformed);
+				tagsTab.reloadData(fireActionPerformed);
 
 			}
 		}.execute();
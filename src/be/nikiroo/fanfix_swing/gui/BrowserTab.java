@@ -9,18 +9,19 @@ import java.util.Collections;
 import java.util.List;
 
 import javax.swing.JTree;
+import javax.swing.SwingWorker;
 import javax.swing.UIManager;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
 import javax.swing.plaf.basic.BasicTreeUI;
-import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeCellRenderer;
-import javax.swing.tree.DefaultTreeModel;
-import javax.swing.tree.MutableTreeNode;
 import javax.swing.tree.TreeCellRenderer;
 import javax.swing.tree.TreePath;
 
+import be.nikiroo.fanfix.Instance;
+import be.nikiroo.fanfix_swing.gui.utils.BookTreeModel;
 import be.nikiroo.fanfix_swing.gui.utils.DataNodeBook;
+import be.nikiroo.fanfix_swing.gui.utils.DataTreeBooks;
 import be.nikiroo.fanfix_swing.images.IconGenerator;
 import be.nikiroo.fanfix_swing.images.IconGenerator.Icon;
 import be.nikiroo.fanfix_swing.images.IconGenerator.Size;
@@ -28,11 +29,18 @@ import be.nikiroo.utils.ui.DataNode;
 import be.nikiroo.utils.ui.DataTree;
 import be.nikiroo.utils.ui.ListenerPanel;
 import be.nikiroo.utils.ui.TreeCellSpanner;
-import be.nikiroo.utils.ui.TreeSnapshot;
 import be.nikiroo.utils.ui.UIUtils;
 
 public class BrowserTab extends ListenerPanel {
+	/**
+	 * The name of the property change fired when the total count (see
+	 * {@link BrowserTab#getTotalCount()}) changes.
+	 */
+	static public final String TOTAL_COUNT = "total_count";
+
 	private int totalCount = 0;
+	private int countRequest = 0;
+	private DataNode<DataNodeBook> currentData;
 	private List<String> selectedElements = new ArrayList<String>();
 	private String baseTitle;
 	private String listenerCommand;
@@ -40,23 +48,26 @@ public class BrowserTab extends ListenerPanel {
 
 	private JTree tree;
 	private TreeSelectionListener treeListener;
-	private DefaultMutableTreeNode root;
+	private BookTreeModel model;
 	private DataTree<DataNodeBook> data;
+	private DataTreeBooks books;
 	private SearchBar searchBar;
 
-	public BrowserTab(DataTree<DataNodeBook> data, int index,
-			String listenerCommand) {
+	// books: used to filter the data
+	public BrowserTab(DataTreeBooks books, DataTree<DataNodeBook> data,
+			int index, String listenerCommand) {
 		setLayout(new BorderLayout());
 
 		this.data = data;
+		this.books = books;
 
 		this.index = index;
 		this.listenerCommand = listenerCommand;
 
 		totalCount = 0;
 
-		root = new DefaultMutableTreeNode();
-		tree = new JTree(root);
+		model = new BookTreeModel(books);
+		tree = new JTree(model);
 
 		treeListener = new TreeSelectionListener() {
 			@Override
@@ -69,14 +80,10 @@ public class BrowserTab extends ListenerPanel {
 				TreePath[] paths = tree.getSelectionPaths();
 				if (paths != null) {
 					for (TreePath path : paths) {
-						if (path.getLastPathComponent() instanceof DefaultMutableTreeNode) {
-							DefaultMutableTreeNode node = (DefaultMutableTreeNode) path
-									.getLastPathComponent();
-							if (node.getUserObject() instanceof DataNodeBook) {
-								DataNodeBook book = (DataNodeBook) node
-										.getUserObject();
-								elements.add(book.getPath());
-							}
+						DataNodeBook book = model
+								.getBook(path.getLastPathComponent());
+						if (book != null) {
+							elements.add(book.getPath());
 						}
 					}
 				}
@@ -128,34 +135,39 @@ public class BrowserTab extends ListenerPanel {
 		searchBar.setEnabled(false);
 	}
 
-	public void filter(final boolean fireActionPerformed) {
-		final TreeSnapshot snapshot = new TreeSnapshot(tree) {
-			@Override
-			protected boolean isSamePath(TreePath oldPath, TreePath newPath) {
-				String oldString = oldPath.toString();
-				if (oldString.endsWith("/]"))
-					oldString = oldString.substring(0, oldString.length() - 2)
-							+ "]";
-
-				String newString = newPath.toString();
-				if (newString.endsWith("/]"))
-					newString = newString.substring(0, newString.length() - 2)
-							+ "]";
-
-				return oldString.equals(newString);
-			}
-		};
-
-		DataNode<DataNodeBook> filtered = data.getRoot(searchBar.getText());
+	// data changed
+	public void reloadData(boolean fireActionPerformed) {
+		update(data.getRoot(""), fireActionPerformed);
+	}
 
-		node2node(root, filtered);
-		totalCount = filtered.count() - 1; // root is counted
+	// filter changed
+	public void filter(boolean fireActionPerformed) {
+		update(null, fireActionPerformed);
+	}
 
+	/**
+	 * Update the tree with the new data (if any) and the current filter.
+	 * <p>
+	 * Only the differences are sent to the tree, so the expanded and selected
+	 * nodes that are still there stay as they are.
+	 * 
+	 * @param newData
+	 *            the new, unfiltered data, or NULL to keep the current one
+	 * @param fireActionPerformed
+	 *            fire the listener command after the update
+	 */
+	private void update(DataNode<DataNodeBook> newData,
+			boolean fireActionPerformed) {
 		tree.removeTreeSelectionListener(treeListener);
-		((DefaultTreeModel) tree.getModel()).reload();
-		snapshot.apply();
+		if (newData != null) {
+			model.setData(newData);
+			currentData = newData;
+		}
+		model.setFilter(searchBar.getText());
 		tree.addTreeSelectionListener(treeListener);
 
+		updateTotalCount();
+
 		// Try to fire it (it will not do anything if no selection changed)
 		treeListener.valueChanged(
 				new TreeSelectionEvent(this, null, false, null, null));
@@ -165,6 +177,45 @@ public class BrowserTab extends ListenerPanel {
 		}
 	}
 
+	/**
+	 * Count the nodes shown with the current data and filter in the
+	 * background, since it must check the whole tree.
+	 * <p>
+	 * A {@link BrowserTab#TOTAL_COUNT} property change is fired when the new
+	 * count is known.
+	 */
+	private void updateTotalCount() {
+		final DataNode<DataNodeBook> data = currentData;
+		final String filter = model.getFilter();
+		final int request = ++countRequest;
+		if (data == null) {
+			return;
+		}
+
+		new SwingWorker<Integer, Void>() {
+			@Override
+			protected Integer doInBackground() throws Exception {
+				return BookTreeModel.count(books, data, filter);
+			}
+
+			@Override
+			protected void done() {
+				// Only the last one is still valid
+				if (request != countRequest) {
+					return;
+				}
+
+				try {
+					int old = totalCount;
+					totalCount = get();
+					firePropertyChange(TOTAL_COUNT, old, totalCount);
+				} catch (Exception e) {
+					Instance.getInstance().getTraceHandler().error(e);
+				}
+			}
+		}.execute();
+	}
+
 	/**
 	 * The currently selected elements, or an empty list.
 	 * 
@@ -229,18 +280,18 @@ public class BrowserTab extends ListenerPanel {
 					boolean leaf, int row, boolean hasFocus) {
 
 				String display = value == null ? "" : value.toString();
-				if (value instanceof DefaultMutableTreeNode) {
-					DefaultMutableTreeNode node = (DefaultMutableTreeNode) value;
-					if (node.getLevel() > 1) {
+				DataNodeBook book = model.getBook(value);
+				if (book != null) {
+					if (model.getLevel(value) > 1) {
 						setLeafIcon(null);
 						setLeafIcon(IconGenerator.get(Icon.empty, Size.x4));
 					} else {
 						setLeafIcon(IconGenerator.get(Icon.empty, Size.x16));
 					}
 
-					if (node.getUserObject() instanceof DataNodeBook) {
-						DataNodeBook book = (DataNodeBook) node.getUserObject();
-						display = book.getDisplay();
+					display = book.getDisplay();
+					if (book.getCount() >= 0) {
+						display += " (" + book.getCount() + ")";
 					}
 				}
 
@@ -255,19 +306,4 @@ public class BrowserTab extends ListenerPanel {
 
 		return renderer;
 	}
-
-	private MutableTreeNode node2node(DefaultMutableTreeNode root,
-			DataNode<DataNodeBook> node) {
-		if (root == null) {
-			root = new DefaultMutableTreeNode(node.getUserData());
-		}
-
-		root.removeAllChildren();
-
-		for (DataNode<DataNodeBook> child : node.getChildren()) {
-			root.add(node2node(null, child));
-		}
-
-		return root;
-	}
 }
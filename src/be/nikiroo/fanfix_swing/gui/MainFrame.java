@@ -30,6 +30,7 @@ import be.nikiroo.fanfix.bundles.UiConfigBundle;
 import be.nikiroo.fanfix_swing.gui.book.BookInfo;
 import be.nikiroo.fanfix_swing.gui.importer.ImporterFrame;
 import be.nikiroo.fanfix_swing.gui.search.SearchFrame;
+import be.nikiroo.fanfix_swing.gui.utils.LibraryService;
 import be.nikiroo.fanfix_swing.gui.utils.UiHelper;
 import be.nikiroo.utils.Version;
 import be.nikiroo.utils.ui.BreadCrumbsBar;
@@ -72,8 +73,7 @@ public class MainFrame extends JFrame {
 			public void actionPerformed(ActionEvent e) {
 				if (e != null && ImporterFrame.IMPORTED_SUCCESS
 						.equals(e.getActionCommand())) {
-					browser.reloadData();
-					books.reloadData();
+					LibraryService.getInstance().reload();
 					details.setBook(browser.getHighlight());
 				}
 			}
@@ -117,14 +117,6 @@ public class MainFrame extends JFrame {
 				}
 			}
 		});
-		books.addActionListener(new ActionListener() {
-			@Override
-			public void actionPerformed(ActionEvent e) {
-				if (BooksPanel.INVALIDATE_CACHE.equals(e.getActionCommand())) {
-					browser.reloadData();
-				}
-			}
-		});
 
 		// Check config
 		boolean sidePanel = Instance.getInstance().getUiConfig()
@@ -236,6 +228,22 @@ public class MainFrame extends JFrame {
 			}
 		});
 
+		JMenuItem mnuImprtBulk = new JMenuItem("Bulk import", KeyEvent.VK_B);
+		mnuImprtBulk.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				importer.imprtBulk(MainFrame.this);
+			}
+		});
+
+		JMenuItem mnuWatch = new JMenuItem("Watch a folder", KeyEvent.VK_W);
+		mnuWatch.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				importer.watchFolder(MainFrame.this);
+			}
+		});
+
 		// TODO: un-beta it
 		JMenuItem mnuSearch = new JMenuItem("Find a book (EARLY BETA)",
 				KeyEvent.VK_F);
@@ -258,6 +266,8 @@ public class MainFrame extends JFrame {
 
 		file.add(mnuDownload);
 		file.add(mnuImprtFile);
+		file.add(mnuImprtBulk);
+		file.add(mnuWatch);
 		file.add(mnuSearch);
 		file.add(new JSeparator());
 		file.add(mnuExit);
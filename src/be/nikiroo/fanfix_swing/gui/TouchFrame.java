@@ -21,6 +21,7 @@ import be.nikiroo.fanfix.data.Story;
 import be.nikiroo.fanfix.library.BasicLibrary;
 import be.nikiroo.fanfix_swing.gui.book.BookInfo;
 import be.nikiroo.fanfix_swing.gui.book.BookPopup.Informer;
+import be.nikiroo.fanfix_swing.gui.utils.StoryCache;
 import be.nikiroo.fanfix_swing.gui.utils.UiHelper;
 import be.nikiroo.fanfix_swing.gui.viewer.ViewerImages;
 import be.nikiroo.fanfix_swing.gui.viewer.ViewerNonImages;
@@ -120,7 +121,8 @@ public class TouchFrame extends JFrame {
 			@Override
 			protected Story doInBackground() throws Exception {
 				BasicLibrary lib = Instance.getInstance().getLibrary();
-				return lib.getStory(book.getMeta().getLuid(), null);
+				return StoryCache.getInstance().get(lib,
+						book.getMeta().getLuid());
 			}
 
 			@Override
@@ -61,10 +61,19 @@ public class BookBlock extends BookLine {
 	 * {@link BookBlock#generateCoverImage(BasicLibrary, BookInfo)})
 	 * 
 	 * @param coverImage
-	 *            the image
+	 *            the image, or NULL for the default empty cover
 	 */
 	public void setCoverImage(Image coverImage) {
-		this.coverImage = coverImage;
+		this.coverImage = coverImage == null ? empty : coverImage;
+	}
+
+	@Override
+	public void setInfo(BookInfo info) {
+		if (getInfo() != info) {
+			coverImage = empty;
+		}
+
+		super.setInfo(info);
 	}
 
 	@Override
@@ -9,6 +9,7 @@ import be.nikiroo.fanfix.data.MetaData;
 import be.nikiroo.fanfix.data.Story;
 import be.nikiroo.fanfix.library.BasicLibrary;
 import be.nikiroo.fanfix.library.CacheLibrary;
+import be.nikiroo.fanfix_swing.gui.utils.FacetCounts;
 import be.nikiroo.utils.Image;
 import be.nikiroo.utils.StringUtils;
 
@@ -154,6 +155,70 @@ public class BookInfo {
 		return meta;
 	}
 
+	/**
+	 * Check the cache state of this book in the given library again (see
+	 * {@link BookInfo#isCached()}), without changing it.
+	 * 
+	 * @param lib
+	 *            the {@link BasicLibrary} the book is from
+	 * 
+	 * @return TRUE if it is now present in the {@link CacheLibrary} cache
+	 */
+	public boolean isCached(BasicLibrary lib) {
+		if (meta == null) {
+			return cached;
+		}
+
+		return isCached(lib, meta);
+	}
+
+	/**
+	 * Check if this book is still up to date with the given {@link MetaData},
+	 * that is, if all the information we show about it would stay the same
+	 * (the cache state is checked apart, see
+	 * {@link BookInfo#isCached(BasicLibrary)}).
+	 * 
+	 * @param meta
+	 *            the (possibly more recent) {@link MetaData} of this book
+	 * 
+	 * @return TRUE if nothing visible changed
+	 */
+	public boolean isUpToDate(MetaData meta) {
+		if (this.meta == meta) {
+			return true;
+		}
+
+		if (this.meta == null || meta == null) {
+			return false;
+		}
+
+		return same(this.meta.getTitle(), meta.getTitle())
+				&& same(this.meta.getAuthor(), meta.getAuthor())
+				&& same(this.meta.getSource(), meta.getSource())
+				&& same(this.meta.getTags(), meta.getTags())
+				&& same(this.meta.getDate(), meta.getDate())
+				&& same(this.meta.getUuid(), meta.getUuid())
+				&& this.meta.getWords() == meta.getWords()
+				&& this.meta.isImageDocument() == meta.isImageDocument();
+	}
+
+	/**
+	 * Update this book with the information of the given, more recent
+	 * {@link BookInfo} of the same book.
+	 * <p>
+	 * This allows to keep the same object (and so, its place in the lists and
+	 * its cover) when the book changes.
+	 * 
+	 * @param info
+	 *            the more recent information
+	 */
+	public void update(BookInfo info) {
+		this.value = info.value;
+		this.count = info.count;
+		this.cached = info.cached;
+		this.meta = info.meta;
+	}
+
 	/**
 	 * Get the base image to use to represent this book.
 	 * <p>
@@ -236,13 +301,28 @@ public class BookInfo {
 					new Object[] { info.count });
 		}
 
+		info.setCached(isCached(lib, meta));
+
+		return info;
+	}
+
+	/**
+	 * Check if the given {@link Story} is present in the library cache.
+	 * 
+	 * @param lib
+	 *            the {@link BasicLibrary} the story is from
+	 * @param meta
+	 *            the {@link MetaData} representing the {@link Story}
+	 * 
+	 * @return TRUE if it is present in the {@link CacheLibrary} cache (or if
+	 *         the library is not a {@link CacheLibrary})
+	 */
+	static private boolean isCached(BasicLibrary lib, MetaData meta) {
 		if (lib instanceof CacheLibrary) {
-			info.setCached(((CacheLibrary) lib).isCached(meta.getLuid()));
-		} else {
-			info.setCached(true);
+			return ((CacheLibrary) lib).isCached(meta.getLuid());
 		}
 
-		return info;
+		return true;
 	}
 
 	/**
@@ -262,10 +342,7 @@ public class BookInfo {
 
 		int size = 0;
 		if (lib != null) {
-			try {
-				size = lib.getList().filter(source, null, null).size();
-			} catch (IOException e) {
-			}
+			size = FacetCounts.getInstance().getSourceCount(source);
 		}
 
 		info.count = StringUtils.formatNumber(size);
@@ -295,10 +372,7 @@ public class BookInfo {
 
 		int size = 0;
 		if (lib != null) {
-			try {
-				size = lib.getList().filter(null, author, null).size();
-			} catch (IOException e) {
-			}
+			size = FacetCounts.getInstance().getAuthorCount(author);
 		}
 
 		info.count = StringUtils.formatNumber(size);
@@ -327,9 +401,8 @@ public class BookInfo {
 				"tag_" + (tag == null ? "" : tag), tag);
 
 		int size = 0;
-		try {
-			size = lib.getList().filter(null, null, tag).size();
-		} catch (IOException e) {
+		if (lib != null) {
+			size = FacetCounts.getInstance().getTagCount(tag);
 		}
 
 		info.count = StringUtils.formatNumber(size);
@@ -342,6 +415,20 @@ public class BookInfo {
 		return info;
 	}
 	
+	/**
+	 * Check that both objects are equals (or both NULL).
+	 * 
+	 * @param o1
+	 *            the first object
+	 * @param o2
+	 *            the second object
+	 * 
+	 * @return TRUE if they are equals
+	 */
+	static private boolean same(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
 	@Override
 	public String toString() {
 		return "BookInfo: " + type + " " + id;
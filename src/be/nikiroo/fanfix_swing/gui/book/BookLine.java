@@ -35,6 +35,7 @@ public class BookLine extends JPanel {
 	private BookInfo info;
 	private boolean seeWordCount;
 
+	private JLabel id;
 	private JLabel title;
 	private JLabel secondary;
 	private JLabel iconCached;
@@ -100,11 +101,7 @@ public class BookLine extends JPanel {
 		secondary = new JLabel();
 		secondary.setForeground(AUTHOR_COLOR);
 
-		String luid = null;
-		if (info.getMeta() != null) {
-			luid = info.getMeta().getLuid();
-		}
-		JLabel id = new JLabel(luid);
+		id = new JLabel();
 		id.setPreferredSize(new JLabel(" 999 ").getPreferredSize());
 		id.setForeground(Color.gray);
 		id.setHorizontalAlignment(SwingConstants.CENTER);
@@ -196,6 +193,23 @@ public class BookLine extends JPanel {
 		return info;
 	}
 
+	/**
+	 * Bind this item to another book.
+	 * <p>
+	 * This allows to recycle the same graphical component for different books
+	 * (see {@link BookPool}).
+	 * 
+	 * @param info
+	 *            the information about the story to represent
+	 */
+	public void setInfo(BookInfo info) {
+		if (this.info != info) {
+			this.info = info;
+			updateMeta();
+			repaint();
+		}
+	}
+
 	/**
 	 * Update the title, paint the item.
 	 */
@@ -239,6 +253,12 @@ public class BookLine extends JPanel {
 		String main = getMainInfoDisplay(false);
 		String optSecondary = getSecondaryInfoDisplay(isSeeWordCount(), false);
 
+		String luid = null;
+		if (getInfo().getMeta() != null) {
+			luid = getInfo().getMeta().getLuid();
+		}
+
+		id.setText(luid);
 		title.setText(main);
 		secondary.setText(optSecondary + " ");
 
@@ -0,0 +1,205 @@
+package be.nikiroo.fanfix_swing.gui.book;
+
+import java.awt.Image;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import be.nikiroo.fanfix_swing.gui.BooksPanel;
+
+/**
+ * A bounded pool of {@link BookLine} (or {@link BookBlock}) items used to
+ * render the books of a {@link BooksPanel}.
+ * <p>
+ * Only enough items to cover the visible part of the list (plus a margin) are
+ * kept alive: when a new item is needed and the pool is full, the least
+ * recently used one is recycled and bound to the new {@link BookInfo}.
+ * <p>
+ * The only per-book state kept outside of the items is a reference to their
+ * cover image (also bounded), so the memory used stays flat no matter how many
+ * books are in the list.
+ * <p>
+ * Not thread-safe, it should only be used from the UI thread.
+ *
+ * @author niki
+ */
+public class BookPool {
+	/** The number of items kept when the pool has not been sized yet. */
+	static private final int DEFAULT_CAPACITY = 50;
+	/** How many more covers than items we keep in memory. */
+	static private final int COVER_FACTOR = 4;
+
+	private boolean thumbnails;
+	private boolean seeWordCount;
+	private int capacity = DEFAULT_CAPACITY;
+
+	private Map<BookInfo, BookLine> books = new LinkedHashMap<BookInfo, BookLine>(
+			16, 0.75f, true);
+	private Map<String, Image> covers = new LinkedHashMap<String, Image>(16,
+			0.75f, true);
+
+	/**
+	 * Create a new, empty {@link BookPool}.
+	 *
+	 * @param thumbnails
+	 *            generate {@link BookBlock}s instead of {@link BookLine}s
+	 * @param seeWordCount
+	 *            TRUE to see word counts, FALSE to see authors
+	 */
+	public BookPool(boolean thumbnails, boolean seeWordCount) {
+		this.thumbnails = thumbnails;
+		this.seeWordCount = seeWordCount;
+	}
+
+	/**
+	 * Get an item bound to the given {@link BookInfo}, recycling an old item if
+	 * the pool is full.
+	 *
+	 * @param info
+	 *            the book to represent
+	 *
+	 * @return the item, never NULL
+	 */
+	public BookLine get(BookInfo info) {
+		BookLine book = books.get(info);
+		if (book == null) {
+			if (books.size() >= capacity) {
+				Iterator<Entry<BookInfo, BookLine>> it = books.entrySet()
+						.iterator();
+				book = it.next().getValue();
+				it.remove();
+				book.setInfo(info);
+			} else if (thumbnails) {
+				book = new BookBlock(info, seeWordCount);
+			} else {
+				book = new BookLine(info, seeWordCount);
+			}
+
+			if (book instanceof BookBlock) {
+				((BookBlock) book).setCoverImage(covers.get(info.getId()));
+			}
+
+			books.put(info, book);
+		}
+
+		return book;
+	}
+
+	/**
+	 * Check if we already know the cover image of this book.
+	 *
+	 * @param info
+	 *            the book
+	 *
+	 * @return TRUE if it is known
+	 */
+	public boolean hasCover(BookInfo info) {
+		return covers.containsKey(info.getId());
+	}
+
+	/**
+	 * Set the cover image of this book (it will be used by the item bound to
+	 * it, now or later).
+	 *
+	 * @param info
+	 *            the book
+	 * @param cover
+	 *            the cover image (see
+	 *            {@link BookBlock#generateCoverImage})
+	 */
+	public void setCover(BookInfo info, Image cover) {
+		covers.put(info.getId(), cover);
+		trim();
+
+		BookLine book = books.get(info);
+		if (book instanceof BookBlock) {
+			((BookBlock) book).setCoverImage(cover);
+		}
+	}
+
+	/**
+	 * The maximum number of items this pool will keep alive.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * The maximum number of items this pool will keep alive.
+	 * <p>
+	 * It should be large enough to cover the visible part of the list, plus a
+	 * small margin.
+	 *
+	 * @param capacity
+	 *            the new capacity (at least 1)
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		trim();
+	}
+
+	/**
+	 * The secondary value content: word count or author.
+	 *
+	 * @param seeWordCount
+	 *            TRUE to see word counts, FALSE to see authors
+	 */
+	public void setSeeWordCount(boolean seeWordCount) {
+		this.seeWordCount = seeWordCount;
+		for (BookLine book : books.values()) {
+			book.setSeeWordCount(seeWordCount);
+		}
+	}
+
+	/**
+	 * Generate {@link BookBlock}s instead of {@link BookLine}s.
+	 * <p>
+	 * Will clear the pool if it changes.
+	 *
+	 * @param thumbnails
+	 *            TRUE for {@link BookBlock}s
+	 */
+	public void setThumbnails(boolean thumbnails) {
+		if (this.thumbnails != thumbnails) {
+			this.thumbnails = thumbnails;
+			books.clear();
+		}
+	}
+
+	/**
+	 * Forget all the items and covers.
+	 */
+	public void clear() {
+		books.clear();
+		covers.clear();
+	}
+
+	/**
+	 * Remove the least recently used items and covers until we are back
+	 * within the capacity of the pool.
+	 */
+	private void trim() {
+		trim(books, capacity);
+		trim(covers, capacity * COVER_FACTOR);
+	}
+
+	/**
+	 * Remove the least recently used elements of the map until it contains no
+	 * more than the given number of elements.
+	 *
+	 * @param map
+	 *            the access-ordered map to trim
+	 * @param max
+	 *            the maximum number of elements to keep
+	 */
+	static private void trim(Map<?, ?> map, int max) {
+		Iterator<?> it = map.keySet().iterator();
+		while (map.size() > max && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+}
@@ -15,10 +15,11 @@ import javax.swing.SwingWorker;
 import be.nikiroo.fanfix.bundles.StringIdGui;
 import be.nikiroo.fanfix.library.BasicLibrary;
 import be.nikiroo.fanfix.library.BasicLibrary.Status;
-import be.nikiroo.fanfix.library.MetaResultList;
 import be.nikiroo.fanfix_swing.Main;
 import be.nikiroo.fanfix_swing.gui.BooksPanelActions;
 import be.nikiroo.fanfix_swing.gui.BooksPanelActions.ChangeAction;
+import be.nikiroo.fanfix_swing.gui.utils.LibraryService;
+import be.nikiroo.fanfix_swing.gui.utils.LibrarySnapshot;
 import be.nikiroo.fanfix_swing.gui.utils.UiHelper;
 
 public class BookPopup extends JPopupMenu {
@@ -83,18 +84,18 @@ public class BookPopup extends JPopupMenu {
 	}
 
 	public void reloadData() {
-		new SwingWorker<MetaResultList, Void>() {
+		new SwingWorker<LibrarySnapshot, Void>() {
 			@Override
-			protected MetaResultList doInBackground() throws Exception {
-				return lib.getList();
+			protected LibrarySnapshot doInBackground() throws Exception {
+				return LibraryService.getInstance().getSnapshot();
 			}
 
 			@Override
 			protected void done() {
 				try {
-					MetaResultList list = get();
-					groupedSources = list.getSourcesGrouped();
-					groupedAuthors = list.getAuthorsGrouped();
+					LibrarySnapshot snapshot = get();
+					groupedSources = snapshot.getSourcesGrouped();
+					groupedAuthors = snapshot.getAuthorsGrouped();
 					initMenus();
 				} catch (Exception e) {
 					UiHelper.error(BookPopup.this.getParent(),
@@ -0,0 +1,151 @@
+package be.nikiroo.fanfix_swing.gui.importer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The sources of a bulk import: all the stories of a directory tree, or a list
+ * of URLs (one per line) from a text file or from the clipboard.
+ * 
+ * @author niki
+ */
+public class BulkSources {
+	/** The extensions of the files we import from a directory. */
+	static private final List<String> EXTENSIONS = Arrays.asList("epub",
+			"cbz", "txt", "html", "htm");
+
+	/**
+	 * All the files of this directory tree we can import (see
+	 * {@link BulkSources#isStory(File)}), sorted by path.
+	 * <p>
+	 * Hidden files and directories are skipped.
+	 * 
+	 * @param dir
+	 *            the directory
+	 * 
+	 * @return the absolute paths of the files
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error
+	 */
+	static public List<String> fromDirectory(File dir) throws IOException {
+		List<String> files = new ArrayList<String>();
+		fromDirectory(dir, files, new HashSet<String>());
+		return files;
+	}
+
+	/**
+	 * The URLs (or file paths) of this text, one per line.
+	 * <p>
+	 * Empty lines and lines starting with <tt>#</tt> are skipped.
+	 * 
+	 * @param text
+	 *            the text (can be NULL)
+	 * 
+	 * @return the URLs
+	 */
+	static public List<String> fromText(String text) {
+		List<String> urls = new ArrayList<String>();
+		if (text == null) {
+			return urls;
+		}
+
+		for (String line : text.split("[\r\n]+")) {
+			line = line.trim();
+			if (!line.isEmpty() && !line.startsWith("#")) {
+				urls.add(line);
+			}
+		}
+
+		return urls;
+	}
+
+	/**
+	 * The URLs (or file paths) of this text file, one per line (see
+	 * {@link BulkSources#fromText(String)}).
+	 * 
+	 * @param file
+	 *            the text file, in UTF-8
+	 * 
+	 * @return the URLs
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error
+	 */
+	static public List<String> fromFile(File file) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				builder.append(line).append('\n');
+			}
+		} finally {
+			reader.close();
+		}
+
+		return fromText(builder.toString());
+	}
+
+	/**
+	 * This file can be imported (it has one of the supported extensions and
+	 * is not hidden).
+	 * 
+	 * @param file
+	 *            the file
+	 * 
+	 * @return TRUE if it can
+	 */
+	static public boolean isStory(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return file.isFile() && !file.isHidden() && dot > 0
+				&& EXTENSIONS.contains(name.substring(dot + 1).toLowerCase());
+	}
+
+	/**
+	 * Add the files of this directory tree we can import to the list.
+	 * 
+	 * @param dir
+	 *            the directory
+	 * @param files
+	 *            the list to fill
+	 * @param visited
+	 *            the canonical paths of the directories already visited (in
+	 *            case of symbolic links loops)
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error
+	 */
+	static private void fromDirectory(File dir, List<String> files,
+			Set<String> visited) throws IOException {
+		if (!visited.add(dir.getCanonicalPath())) {
+			return;
+		}
+
+		File[] children = dir.listFiles();
+		if (children == null) {
+			return;
+		}
+
+		Arrays.sort(children);
+		for (File child : children) {
+			if (child.isDirectory()) {
+				if (!child.isHidden()) {
+					fromDirectory(child, files, visited);
+				}
+			} else if (isStory(child)) {
+				files.add(child.getAbsolutePath());
+			}
+		}
+	}
+}
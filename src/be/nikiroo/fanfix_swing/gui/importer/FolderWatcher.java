@@ -0,0 +1,159 @@
+package be.nikiroo.fanfix_swing.gui.importer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.swing.SwingUtilities;
+
+import be.nikiroo.fanfix.Instance;
+
+/**
+ * Watch a folder, and report the new stories which land in it (see
+ * {@link BulkSources#isStory(File)}).
+ * <p>
+ * The folder is scanned at a fixed interval; a new file is only reported when
+ * it did not change between two scans, so the files being copied are not
+ * reported too soon. The files already in the folder when the watch starts
+ * are not reported.
+ * 
+ * @author niki
+ */
+public class FolderWatcher {
+	/**
+	 * Receive the new files.
+	 * 
+	 * @author niki
+	 */
+	public interface FilesListener {
+		/**
+		 * New files landed in the watched folder.
+		 * <p>
+		 * Called in the UI thread.
+		 * 
+		 * @param paths
+		 *            the absolute paths of the new files
+		 */
+		public void filesAdded(List<String> paths);
+	}
+
+	private File dir;
+	private long interval;
+	private FilesListener listener;
+	private Timer timer;
+
+	// Scanning thread only
+	private Map<String, Long> known;
+	private Map<String, Long> landing = new HashMap<String, Long>();
+
+	/**
+	 * Create a new {@link FolderWatcher}.
+	 * 
+	 * @param dir
+	 *            the folder to watch (with its sub-folders)
+	 * @param interval
+	 *            the interval between two scans, in milliseconds
+	 * @param listener
+	 *            the listener that will receive the new files
+	 */
+	public FolderWatcher(File dir, long interval, FilesListener listener) {
+		this.dir = dir;
+		this.interval = interval;
+		this.listener = listener;
+	}
+
+	/**
+	 * The watched folder.
+	 * 
+	 * @return the folder
+	 */
+	public File getDir() {
+		return dir;
+	}
+
+	/**
+	 * Start watching the folder.
+	 */
+	public synchronized void start() {
+		if (timer != null) {
+			return;
+		}
+
+		timer = new Timer("Folder watcher", true);
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				scan();
+			}
+		}, 0, interval);
+	}
+
+	/**
+	 * Stop watching the folder.
+	 */
+	public synchronized void stop() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+	/**
+	 * Scan the folder and report the new files which did not change since the
+	 * previous scan.
+	 */
+	private void scan() {
+		Map<String, Long> current = new HashMap<String, Long>();
+		try {
+			for (String path : BulkSources.fromDirectory(dir)) {
+				File file = new File(path);
+				current.put(path, file.length() * 31 + file.lastModified());
+			}
+		} catch (Exception e) {
+			Instance.getInstance().getTraceHandler().error(e);
+			return;
+		}
+
+		// First scan: what is already there is not new
+		if (known == null) {
+			known = current;
+			return;
+		}
+
+		final List<String> added = new ArrayList<String>();
+		Map<String, Long> stillLanding = new HashMap<String, Long>();
+		for (Map.Entry<String, Long> file : current.entrySet()) {
+			String path = file.getKey();
+			if (known.containsKey(path)) {
+				continue;
+			}
+
+			if (file.getValue().equals(landing.get(path))) {
+				added.add(path);
+			} else {
+				stillLanding.put(path, file.getValue());
+			}
+		}
+
+		landing = stillLanding;
+		for (String path : added) {
+			known.put(path, current.get(path));
+		}
+
+		// Forget the files which were removed
+		known.keySet().retainAll(current.keySet());
+
+		if (!added.isEmpty()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					listener.filesAdded(added);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package be.nikiroo.fanfix_swing.gui.importer;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import be.nikiroo.fanfix.supported.BasicSupport;
+import be.nikiroo.fanfix_swing.Actions;
+
+/**
+ * The kind of error which made an import fail, and if it is worth trying
+ * again.
+ * 
+ * @author niki
+ */
+public enum ImportFailure {
+	/** The host of the URL cannot be resolved. */
+	UNKNOWN_HOST(false),
+	/** The URL is not supported by any of the known web sites. */
+	UNSUPPORTED(false),
+	/**
+	 * The server refused the request (HTTP 4xx, except 408 and 429), or the
+	 * story does not exist.
+	 */
+	REJECTED(false),
+	/**
+	 * A temporary error: time-out, connection reset, server error (HTTP 5xx),
+	 * too many requests...
+	 */
+	TRANSIENT(true),
+	/** The content was received, but could not be processed. */
+	PARSE(false);
+
+	/** The HTTP status code in the messages of the URL connections. */
+	static private final Pattern HTTP_CODE = Pattern
+			.compile("response code: ([0-9]{3})");
+
+	private boolean retry;
+
+	private ImportFailure(boolean retry) {
+		this.retry = retry;
+	}
+
+	/**
+	 * Trying again later may work.
+	 * 
+	 * @return TRUE if it may
+	 */
+	public boolean isTransient() {
+		return retry;
+	}
+
+	/**
+	 * Classify the error which made the import of this URL fail.
+	 * 
+	 * @param url
+	 *            the URL (or file path) which was imported
+	 * @param e
+	 *            the error
+	 * 
+	 * @return the kind of error
+	 */
+	static public ImportFailure classify(String url, IOException e) {
+		if (e instanceof UnknownHostException) {
+			// The library also uses it for the URLs it does not support
+			try {
+				if (BasicSupport.getSupport(Actions.getUrl(url)) == null) {
+					return UNSUPPORTED;
+				}
+			} catch (MalformedURLException notUrl) {
+				return UNSUPPORTED;
+			}
+
+			return UNKNOWN_HOST;
+		}
+
+		if (e instanceof MalformedURLException) {
+			return UNSUPPORTED;
+		}
+
+		// Also what the URL connections throw for HTTP 404 and 410
+		if (e instanceof FileNotFoundException) {
+			return REJECTED;
+		}
+
+		// Time-outs, connections refused or reset...
+		if (e instanceof InterruptedIOException
+				|| e instanceof SocketException) {
+			return TRANSIENT;
+		}
+
+		Matcher matcher = HTTP_CODE.matcher("" + e.getMessage());
+		if (matcher.find()) {
+			int code = Integer.parseInt(matcher.group(1));
+			if (code >= 500 || code == 408 || code == 429) {
+				return TRANSIENT;
+			}
+			if (code >= 400) {
+				return REJECTED;
+			}
+		}
+
+		return PARSE;
+	}
+}
@@ -0,0 +1,508 @@
+package be.nikiroo.fanfix_swing.gui.importer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import be.nikiroo.fanfix.Instance;
+
+/**
+ * A journal of the imports, so the imports not yet done when the program is
+ * closed (or crashes) can be resumed when it starts again.
+ * <p>
+ * Each change of state of an import is appended to the journal as one line
+ * (and synchronised to the disk), so the journal is never rewritten while in
+ * use; an incomplete last line (a crash while writing it) is ignored. The
+ * lines are written in order by a background thread, so recording a change
+ * never waits for the disk.
+ * <p>
+ * The journal is compacted when it is read back (see
+ * {@link ImportJournal#replay()}): only the imports not yet done are kept. The
+ * compaction is done by the same background thread, so the changes recorded
+ * in the meantime are never lost.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author niki
+ */
+public class ImportJournal {
+	/**
+	 * The state of an import.
+	 * 
+	 * @author niki
+	 */
+	public enum State {
+		/** Waiting to be started. */
+		QUEUED,
+		/** Being imported. */
+		RUNNING,
+		/** Imported. */
+		DONE,
+		/** Failed to be imported. */
+		FAILED,
+		/** Cancelled by the user. */
+		CANCELLED;
+
+		/**
+		 * The import is not finished (it must be resumed if the program is
+		 * restarted).
+		 * 
+		 * @return TRUE if it is not
+		 */
+		public boolean isPending() {
+			return this == QUEUED || this == RUNNING;
+		}
+	}
+
+	/**
+	 * An import, as recorded in the journal.
+	 * 
+	 * @author niki
+	 */
+	static public class Entry {
+		private String id;
+		private String url;
+		private State state = State.QUEUED;
+		private int attempts;
+		private String lastError = "";
+		private int priority;
+
+		/**
+		 * Create a new {@link Entry}.
+		 * 
+		 * @param id
+		 *            the unique ID of the import
+		 * @param url
+		 *            the URL (or file path) to import
+		 * @param priority
+		 *            the priority of the import
+		 */
+		public Entry(String id, String url, int priority) {
+			this.id = id;
+			this.url = url;
+			this.priority = priority;
+		}
+
+		/**
+		 * The unique ID of the import.
+		 * 
+		 * @return the ID
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * The URL (or file path) to import.
+		 * 
+		 * @return the URL
+		 */
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * The current state of the import.
+		 * 
+		 * @return the state
+		 */
+		public State getState() {
+			return state;
+		}
+
+		/**
+		 * The number of times the import was started.
+		 * 
+		 * @return the number of attempts
+		 */
+		public int getAttempts() {
+			return attempts;
+		}
+
+		/**
+		 * The error of the last failed attempt.
+		 * 
+		 * @return the error, or an empty {@link String} if none
+		 */
+		public String getLastError() {
+			return lastError;
+		}
+
+		/**
+		 * The priority of the import, so it is queued again the same way when
+		 * resumed.
+		 * 
+		 * @return the priority (0 by default)
+		 */
+		public int getPriority() {
+			return priority;
+		}
+	}
+
+	private File file;
+	private long count;
+	private ExecutorService writer;
+	private Set<String> added = new HashSet<String>();
+
+	/**
+	 * Create a new {@link ImportJournal}.
+	 * 
+	 * @param file
+	 *            the file to write the journal into (it will be created if
+	 *            needed)
+	 */
+	public ImportJournal(File file) {
+		this.file = file;
+
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Import journal");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Create a new {@link Entry} (QUEUED) for this URL, and record it.
+	 * 
+	 * @param url
+	 *            the URL (or file path) to import
+	 * 
+	 * @return the new entry, with the default priority
+	 */
+	public Entry add(String url) {
+		return add(Arrays.asList(url), 0).get(0);
+	}
+
+	/**
+	 * Create a new {@link Entry} (QUEUED) for each of these URLs, and record
+	 * them all at once.
+	 * 
+	 * @param urls
+	 *            the URLs (or file paths) to import
+	 * @param priority
+	 *            the priority of the imports
+	 * 
+	 * @return the new entries, in the same order
+	 */
+	public List<Entry> add(List<String> urls, int priority) {
+		List<Entry> added = new ArrayList<Entry>(urls.size());
+		synchronized (this) {
+			String prefix = Long.toString(System.currentTimeMillis(), 36);
+			for (String url : urls) {
+				Entry entry = new Entry(prefix + "-" + (count++), url,
+						priority);
+				this.added.add(entry.id);
+				added.add(entry);
+			}
+		}
+
+		write(added);
+		return added;
+	}
+
+	/**
+	 * The import was started: record a new attempt.
+	 * 
+	 * @param entry
+	 *            the import
+	 */
+	public void started(Entry entry) {
+		synchronized (this) {
+			entry.state = State.RUNNING;
+			entry.attempts++;
+		}
+		write(Arrays.asList(entry));
+	}
+
+	/**
+	 * The import is finished, cancelled or queued again to be retried later:
+	 * record its new state.
+	 * 
+	 * @param entry
+	 *            the import
+	 * @param state
+	 *            the new state
+	 * @param error
+	 *            the error if the import failed (can be NULL)
+	 */
+	public void finished(Entry entry, State state, String error) {
+		synchronized (this) {
+			entry.state = state;
+			if (error != null) {
+				entry.lastError = error;
+			}
+		}
+		write(Arrays.asList(entry));
+	}
+
+	/**
+	 * Read the journal, and return the imports which were not finished.
+	 * <p>
+	 * The imports which were running are considered as waiting again (they
+	 * were interrupted); the imports already done are not returned, so they
+	 * are not imported again.
+	 * <p>
+	 * The journal is then compacted to contain only the imports not finished.
+	 * <p>
+	 * This method can be called while imports are recorded: the journal is
+	 * read after all the changes already recorded are written, and the
+	 * imports added by this {@link ImportJournal} are kept in the journal but
+	 * not returned (they are already known).
+	 * 
+	 * @return the pending imports, in the order they were added
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error
+	 */
+	public List<Entry> replay() throws IOException {
+		try {
+			return writer.submit(new Callable<List<Entry>>() {
+				@Override
+				public List<Entry> call() throws Exception {
+					return replayNow();
+				}
+			}).get();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Read and compact the journal (see {@link ImportJournal#replay()}).
+	 * <p>
+	 * Must be called by the writer thread, so nothing is written to the
+	 * journal in the meantime.
+	 * 
+	 * @return the pending imports not added by this {@link ImportJournal}
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error
+	 */
+	private List<Entry> replayNow() throws IOException {
+		// A crash during the last compaction
+		File tmp = new File(file.getPath() + ".tmp");
+		if (!file.exists() && tmp.exists()) {
+			tmp.renameTo(file);
+		}
+
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		if (file.exists()) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(file), "UTF-8"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					Entry entry = parse(line);
+					if (entry != null) {
+						entries.remove(entry.id);
+						entries.put(entry.id, entry);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+
+		List<Entry> pending = new ArrayList<Entry>();
+		List<Entry> resumed = new ArrayList<Entry>();
+		synchronized (this) {
+			for (Entry entry : entries.values()) {
+				if (entry.state.isPending()) {
+					pending.add(entry);
+					if (!added.contains(entry.id)) {
+						entry.state = State.QUEUED;
+						resumed.add(entry);
+					}
+				}
+			}
+		}
+
+		compact(pending);
+		return resumed;
+	}
+
+	/**
+	 * Append the current state of these {@link Entry}s to the journal (in the
+	 * background, and synchronised to the disk once for all of them).
+	 * <p>
+	 * Errors are only logged: the import is not stopped because of the
+	 * journal.
+	 * 
+	 * @param entries
+	 *            the imports
+	 */
+	private synchronized void write(List<Entry> entries) {
+		StringBuilder builder = new StringBuilder();
+		for (Entry entry : entries) {
+			builder.append(format(entry));
+		}
+
+		final String lines = builder.toString();
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					file.getParentFile().mkdirs();
+					FileOutputStream out = new FileOutputStream(file, true);
+					try {
+						out.write(lines.getBytes("UTF-8"));
+						out.flush();
+						out.getFD().sync();
+					} finally {
+						out.close();
+					}
+				} catch (IOException e) {
+					Instance.getInstance().getTraceHandler().error(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Rewrite the journal with only these entries (in a temporary file which
+	 * then replaces the journal, so a crash here does not lose it).
+	 * <p>
+	 * Must be called by the writer thread.
+	 * 
+	 * @param entries
+	 *            the entries to keep
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error
+	 */
+	private void compact(List<Entry> entries) throws IOException {
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			for (Entry entry : entries) {
+				out.write(format(entry).getBytes("UTF-8"));
+			}
+			out.flush();
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		file.delete();
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Cannot replace the import journal: "
+					+ file);
+		}
+	}
+
+	/**
+	 * The line representing this {@link Entry} in the journal.
+	 * 
+	 * @param entry
+	 *            the entry
+	 * 
+	 * @return the line, with its line feed
+	 */
+	private String format(Entry entry) {
+		synchronized (this) {
+			return escape(entry.id) + "\t" + entry.state + "\t"
+					+ entry.attempts + "\t" + escape(entry.url) + "\t"
+					+ escape(entry.lastError) + "\t" + entry.priority
+					+ "\t.\n";
+		}
+	}
+
+	/**
+	 * Read an {@link Entry} from its line in the journal.
+	 * 
+	 * @param line
+	 *            the line
+	 * 
+	 * @return the entry, or NULL if the line is invalid (or incomplete)
+	 */
+	private Entry parse(String line) {
+		String[] fields = line.split("\t", -1);
+		// The final "." marks a complete line
+		if (fields.length != 7 || !".".equals(fields[6])) {
+			return null;
+		}
+
+		try {
+			Entry entry = new Entry(unescape(fields[0]), unescape(fields[3]),
+					Integer.parseInt(fields[5]));
+			entry.state = State.valueOf(fields[1]);
+			entry.attempts = Integer.parseInt(fields[2]);
+			entry.lastError = unescape(fields[4]);
+			return entry;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Escape the tabulations, line feeds and backslashes of a field.
+	 * 
+	 * @param value
+	 *            the value (can be NULL)
+	 * 
+	 * @return the escaped value
+	 */
+	static private String escape(String value) {
+		if (value == null) {
+			return "";
+		}
+
+		return value.replace("\\", "\\\\").replace("\t", "\\t")
+				.replace("\r", "\\r").replace("\n", "\\n");
+	}
+
+	/**
+	 * Reverse {@link ImportJournal#escape(String)}.
+	 * 
+	 * @param value
+	 *            the escaped value
+	 * 
+	 * @return the value
+	 */
+	static private String unescape(String value) {
+		StringBuilder builder = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char car = value.charAt(i);
+			if (car == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				if (next == 't') {
+					car = '\t';
+				} else if (next == 'r') {
+					car = '\r';
+				} else if (next == 'n') {
+					car = '\n';
+				} else {
+					car = next;
+				}
+			}
+			builder.append(car);
+		}
+
+		return builder.toString();
+	}
+}
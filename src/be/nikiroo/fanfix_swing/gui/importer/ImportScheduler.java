@@ -0,0 +1,513 @@
+package be.nikiroo.fanfix_swing.gui.importer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import be.nikiroo.fanfix.Instance;
+
+/**
+ * A queue of imports, processed in the background with a bounded concurrency.
+ * <p>
+ * The imports are started by priority (and in the order they were added for
+ * the same priority), with at most a given number of imports at the same time
+ * in total, and at most a given number of imports at the same time from the
+ * same host (usually, the same web site); two imports from the same host are
+ * also started with a minimum delay between them, so we do not hammer the web
+ * sites.
+ * <p>
+ * The queue can be paused: the running imports continue, but no new import is
+ * started until it is resumed.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author niki
+ */
+public class ImportScheduler {
+	/**
+	 * Receive the changes of the queue.
+	 * 
+	 * @author niki
+	 */
+	public interface QueueListener {
+		/**
+		 * An import was added, started, finished or cancelled, or the queue
+		 * was paused or resumed.
+		 * <p>
+		 * Called in the UI thread.
+		 * 
+		 * @param running
+		 *            the number of imports running
+		 * @param queued
+		 *            the number of imports waiting to be started
+		 */
+		public void queueChanged(int running, int queued);
+	}
+
+	/**
+	 * An import in the queue.
+	 * 
+	 * @author niki
+	 */
+	static public class Job {
+		private String host;
+		private int priority;
+		private long order;
+		private long notBefore;
+		private Runnable task;
+
+		/**
+		 * Create a new {@link Job}.
+		 * 
+		 * @param host
+		 *            the host the job connects to, or NULL if none (local
+		 *            files)
+		 * @param priority
+		 *            the priority (the highest priorities are started first)
+		 * @param order
+		 *            the order in which the job was added
+		 * @param notBefore
+		 *            the job must not be started before this time
+		 * @param task
+		 *            the actual import
+		 */
+		private Job(String host, int priority, long order, long notBefore,
+				Runnable task) {
+			this.host = host;
+			this.priority = priority;
+			this.order = order;
+			this.notBefore = notBefore;
+			this.task = task;
+		}
+
+		/**
+		 * The host the job connects to.
+		 * 
+		 * @return the host, or NULL if none (local files)
+		 */
+		public String getHost() {
+			return host;
+		}
+
+		/**
+		 * The priority of this job (the highest priorities are started
+		 * first).
+		 * 
+		 * @return the priority
+		 */
+		public int getPriority() {
+			return priority;
+		}
+
+		/**
+		 * This job must be started before the other one.
+		 * 
+		 * @param other
+		 *            the other job
+		 * 
+		 * @return TRUE if it must
+		 */
+		private boolean before(Job other) {
+			if (priority != other.priority) {
+				return priority > other.priority;
+			}
+
+			return order < other.order;
+		}
+	}
+
+	private ThreadPoolExecutor executor;
+	private ScheduledThreadPoolExecutor timer;
+	private QueueListener listener;
+
+	private Object lock = new Object();
+	private int maxRunning;
+	private int maxPerHost;
+	private long delay;
+	private boolean paused;
+	private long count;
+	private List<Job> queue = new ArrayList<Job>();
+	private int running;
+	private Map<String, Integer> runningPerHost = new HashMap<String, Integer>();
+	private Map<String, Long> nextStartPerHost = new HashMap<String, Long>();
+	private long wakeUpAt = -1;
+	private boolean notifyPending;
+
+	/**
+	 * Create a new {@link ImportScheduler}.
+	 * 
+	 * @param maxRunning
+	 *            the maximum number of imports at the same time
+	 * @param maxPerHost
+	 *            the maximum number of imports at the same time from the same
+	 *            host
+	 * @param delay
+	 *            the minimum delay between the start of two imports from the
+	 *            same host, in milliseconds
+	 * @param listener
+	 *            the listener that will be notified of the changes of the
+	 *            queue (can be NULL)
+	 */
+	public ImportScheduler(int maxRunning, int maxPerHost, long delay,
+			QueueListener listener) {
+		this.maxRunning = maxRunning;
+		this.maxPerHost = maxPerHost;
+		this.delay = delay;
+		this.listener = listener;
+
+		executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10,
+				TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				new ThreadFactory() {
+					private int count = 0;
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r,
+								"Importer #" + (++count));
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+		timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Import scheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Change the concurrency limits.
+	 * <p>
+	 * The imports already running are not affected.
+	 * 
+	 * @param maxRunning
+	 *            the maximum number of imports at the same time
+	 * @param maxPerHost
+	 *            the maximum number of imports at the same time from the same
+	 *            host
+	 * @param delay
+	 *            the minimum delay between the start of two imports from the
+	 *            same host, in milliseconds
+	 */
+	public void setLimits(int maxRunning, int maxPerHost, long delay) {
+		synchronized (lock) {
+			this.maxRunning = maxRunning;
+			this.maxPerHost = maxPerHost;
+			this.delay = delay;
+		}
+
+		dispatch();
+	}
+
+	/**
+	 * Add an import to the queue.
+	 * 
+	 * @param host
+	 *            the host the import connects to, or NULL if none (local
+	 *            files are not limited per host)
+	 * @param priority
+	 *            the priority (the highest priorities are started first, in
+	 *            the order they were added for the same priority)
+	 * @param task
+	 *            the actual import, which will be run in a background thread
+	 * 
+	 * @return the corresponding {@link Job}
+	 */
+	public Job add(String host, int priority, Runnable task) {
+		return add(host, priority, 0, task);
+	}
+
+	/**
+	 * Add an import to the queue, which must not be started before the given
+	 * delay (for instance, to try again a failed import later).
+	 * 
+	 * @param host
+	 *            the host the import connects to, or NULL if none (local
+	 *            files are not limited per host)
+	 * @param priority
+	 *            the priority (the highest priorities are started first, in
+	 *            the order they were added for the same priority)
+	 * @param delay
+	 *            the minimum delay before the import is started, in
+	 *            milliseconds
+	 * @param task
+	 *            the actual import, which will be run in a background thread
+	 * 
+	 * @return the corresponding {@link Job}
+	 */
+	public Job add(String host, int priority, long delay, Runnable task) {
+		Job job;
+		synchronized (lock) {
+			job = new Job(host, priority, count++,
+					System.currentTimeMillis() + delay, task);
+			queue.add(job);
+		}
+
+		dispatch();
+		return job;
+	}
+
+	/**
+	 * Start this job before all the others, if it is still waiting.
+	 * 
+	 * @param job
+	 *            the job
+	 * 
+	 * @return TRUE if the job was still waiting
+	 */
+	public boolean prioritize(Job job) {
+		synchronized (lock) {
+			if (!queue.contains(job)) {
+				return false;
+			}
+
+			for (Job other : queue) {
+				if (other != job) {
+					job.priority = Math.max(job.priority,
+							other.priority + 1);
+				}
+			}
+		}
+
+		dispatch();
+		return true;
+	}
+
+	/**
+	 * Remove this job from the queue, if it is still waiting.
+	 * 
+	 * @param job
+	 *            the job
+	 * 
+	 * @return TRUE if the job was still waiting (it will not be started)
+	 */
+	public boolean cancel(Job job) {
+		boolean removed;
+		synchronized (lock) {
+			removed = queue.remove(job);
+		}
+
+		if (removed) {
+			fireQueueChanged();
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Check if this job is still waiting to be started.
+	 * 
+	 * @param job
+	 *            the job
+	 * 
+	 * @return TRUE if it is
+	 */
+	public boolean isQueued(Job job) {
+		synchronized (lock) {
+			return queue.contains(job);
+		}
+	}
+
+	/**
+	 * Pause or resume the queue: when paused, the running imports continue,
+	 * but no new import is started.
+	 * 
+	 * @param paused
+	 *            TRUE to pause, FALSE to resume
+	 */
+	public void setPaused(boolean paused) {
+		synchronized (lock) {
+			this.paused = paused;
+		}
+
+		dispatch();
+		fireQueueChanged();
+	}
+
+	/**
+	 * The queue is paused.
+	 * 
+	 * @return TRUE if it is
+	 */
+	public boolean isPaused() {
+		synchronized (lock) {
+			return paused;
+		}
+	}
+
+	/**
+	 * Start all the jobs that can be started now, and plan a new dispatch for
+	 * the jobs only waiting for a delay (of their host, or their own).
+	 */
+	private void dispatch() {
+		boolean changed = false;
+		synchronized (lock) {
+			long now = System.currentTimeMillis();
+			long wakeUp = -1;
+
+			while (!paused && running < maxRunning) {
+				Job next = null;
+				for (Job job : queue) {
+					if (job.notBefore > now) {
+						if (wakeUp < 0 || job.notBefore < wakeUp) {
+							wakeUp = job.notBefore;
+						}
+						continue;
+					}
+
+					if (job.host != null) {
+						Integer hostRunning = runningPerHost.get(job.host);
+						if (hostRunning != null && hostRunning >= maxPerHost) {
+							continue;
+						}
+
+						Long nextStart = nextStartPerHost.get(job.host);
+						if (nextStart != null && nextStart > now) {
+							if (wakeUp < 0 || nextStart < wakeUp) {
+								wakeUp = nextStart;
+							}
+							continue;
+						}
+					}
+
+					if (next == null || job.before(next)) {
+						next = job;
+					}
+				}
+
+				if (next == null) {
+					break;
+				}
+
+				start(next, now);
+				changed = true;
+			}
+
+			// Only if no dispatch is planned before that
+			if (wakeUp >= 0 && (wakeUpAt <= now || wakeUp < wakeUpAt)) {
+				wakeUpAt = wakeUp;
+				timer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						dispatch();
+					}
+				}, wakeUp - now, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		if (changed) {
+			fireQueueChanged();
+		}
+	}
+
+	/**
+	 * Start this job now.
+	 * <p>
+	 * Must be called with the lock.
+	 * 
+	 * @param job
+	 *            the job
+	 * @param now
+	 *            the current time
+	 */
+	private void start(final Job job, long now) {
+		queue.remove(job);
+		running++;
+		if (job.host != null) {
+			Integer hostRunning = runningPerHost.get(job.host);
+			runningPerHost.put(job.host,
+					hostRunning == null ? 1 : hostRunning + 1);
+			nextStartPerHost.put(job.host, now + delay);
+		}
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					job.task.run();
+				} catch (Exception e) {
+					Instance.getInstance().getTraceHandler().error(e);
+				} finally {
+					finished(job);
+				}
+			}
+		});
+	}
+
+	/**
+	 * This job is finished, start the next ones.
+	 * 
+	 * @param job
+	 *            the job
+	 */
+	private void finished(Job job) {
+		synchronized (lock) {
+			running--;
+			if (job.host != null) {
+				int hostRunning = runningPerHost.get(job.host) - 1;
+				if (hostRunning <= 0) {
+					runningPerHost.remove(job.host);
+				} else {
+					runningPerHost.put(job.host, hostRunning);
+				}
+			}
+
+			// Forget the hosts we do not need to wait for anymore
+			long now = System.currentTimeMillis();
+			for (Iterator<Long> it = nextStartPerHost.values().iterator(); it
+					.hasNext();) {
+				if (it.next() <= now) {
+					it.remove();
+				}
+			}
+		}
+
+		dispatch();
+		fireQueueChanged();
+	}
+
+	/**
+	 * Notify the listener of the new state of the queue (in the UI thread,
+	 * once for all the changes since the last notification).
+	 */
+	private void fireQueueChanged() {
+		if (listener == null) {
+			return;
+		}
+
+		synchronized (lock) {
+			if (notifyPending) {
+				return;
+			}
+			notifyPending = true;
+		}
+
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				int running;
+				int queued;
+				synchronized (lock) {
+					notifyPending = false;
+					running = ImportScheduler.this.running;
+					queued = queue.size();
+				}
+
+				listener.queueChanged(running, queued);
+			}
+		});
+	}
+}
@@ -0,0 +1,36 @@
+package be.nikiroo.fanfix_swing.gui.importer;
+
+import java.io.IOException;
+
+import be.nikiroo.fanfix.data.MetaData;
+import be.nikiroo.utils.Progress;
+
+/**
+ * The actual import of a story, as used by the {@link ImporterFrame}.
+ * <p>
+ * The default one imports into the main library (see
+ * {@link be.nikiroo.fanfix_swing.Actions#imprtNow(String, Progress)}); another
+ * one can be given, for instance a stand-in which fails on purpose to check
+ * the {@link RetryPolicy}.
+ * 
+ * @author niki
+ */
+public interface Importer {
+	/**
+	 * Import the given story.
+	 * <p>
+	 * Called outside of the UI thread.
+	 * 
+	 * @param url
+	 *            the URL (or file path) of the story
+	 * @param pg
+	 *            the progress reporter (must be marked as done, even in case
+	 *            of error)
+	 * 
+	 * @return the {@link MetaData} of the imported story
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error (see {@link ImportFailure})
+	 */
+	public MetaData imprt(String url, Progress pg) throws IOException;
+}
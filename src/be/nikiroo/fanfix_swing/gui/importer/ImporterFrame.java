@@ -7,21 +7,45 @@ import java.awt.datatransfer.DataFlavor;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JToggleButton;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 import be.nikiroo.fanfix.Instance;
 import be.nikiroo.fanfix.bundles.StringIdGui;
+import be.nikiroo.fanfix.data.MetaData;
 import be.nikiroo.fanfix.library.LocalLibrary;
 import be.nikiroo.fanfix.supported.BasicSupport;
 import be.nikiroo.fanfix_swing.Actions;
 import be.nikiroo.fanfix_swing.gui.SearchBar;
+import be.nikiroo.fanfix_swing.gui.importer.FolderWatcher.FilesListener;
+import be.nikiroo.fanfix_swing.gui.importer.ImportJournal.Entry;
+import be.nikiroo.fanfix_swing.gui.importer.ImportJournal.State;
+import be.nikiroo.fanfix_swing.gui.importer.ImportScheduler.Job;
+import be.nikiroo.fanfix_swing.gui.importer.ImportScheduler.QueueListener;
+import be.nikiroo.fanfix_swing.gui.importer.ProgressSampler.RowsListener;
+import be.nikiroo.fanfix_swing.gui.utils.BookQuery;
+import be.nikiroo.fanfix_swing.gui.utils.LibraryService;
 import be.nikiroo.fanfix_swing.gui.utils.UiHelper;
 import be.nikiroo.utils.Progress;
 import be.nikiroo.utils.ui.ListModel;
@@ -37,12 +61,84 @@ import be.nikiroo.utils.ui.UIUtils;
  * <p>
  * You can keep it in memory and let the user close it, it will unhide itself on
  * import.
+ * <p>
+ * The imports are queued and processed by an {@link ImportScheduler}, so a lot
+ * of imports at once do not take all the background threads of the program,
+ * nor hammer the web sites; the queue can be paused, and a waiting import can
+ * be started first or cancelled.
+ * <p>
+ * The imports are also recorded in an {@link ImportJournal}, so the imports not
+ * yet done when the program is closed are resumed the next time.
+ * <p>
+ * The imports which fail because of a transient error are tried again later,
+ * as decided by the {@link RetryPolicy}.
+ * <p>
+ * A lot of stories can be imported at once (see
+ * {@link ImporterFrame#imprtBulk(Container)}): all the stories of a folder, or
+ * a list of URLs; the stories already in the library or already queued are
+ * skipped. A folder can also be watched, so the stories which land in it are
+ * imported automatically (see {@link ImporterFrame#watchFolder(Container)}).
  * 
  * @author niki
  */
 public class ImporterFrame extends JFrame implements ListenerItem {
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * An import ready to be added to the list and the queue.
+	 * 
+	 * @author niki
+	 */
+	static private class Pending {
+		public Entry entry;
+		public String basename;
+		public String storyName;
+		public String host;
+	}
+
+	/**
+	 * Create the {@link Pending} imports in the background, then add them to
+	 * the list and the queue in the UI thread (by chunks, not one by one).
+	 * 
+	 * @author niki
+	 */
+	private abstract class PendingWorker extends SwingWorker<Void, Pending> {
+		private Container parent;
+
+		/**
+		 * Create a new {@link PendingWorker}.
+		 * 
+		 * @param parent
+		 *            a container we can use to show error messages if any
+		 */
+		public PendingWorker(Container parent) {
+			this.parent = parent;
+		}
+
+		@Override
+		protected void process(List<Pending> chunk) {
+			for (Pending pending : chunk) {
+				imprt(parent, pending);
+			}
+
+			filter();
+			setVisible(true);
+		}
+
+		@Override
+		protected void done() {
+			try {
+				get();
+			} catch (InterruptedException e) {
+				Instance.getInstance().getTraceHandler().error(e);
+			} catch (ExecutionException e) {
+				UiHelper.error(parent, e.getCause().getMessage(), Instance
+						.getInstance().getTransGui()
+						.getString(StringIdGui.TITLE_ERROR), e);
+			}
+		}
+	}
+
 	/**
 	 * The {@link ActionEvent} you receive from
 	 * {@link ImporterFrame#addActionListener(ActionListener)} (see
@@ -59,10 +155,49 @@ public class ImporterFrame extends JFrame implements ListenerItem {
 	 */
 	static public final String IMPORTED_FAIL = "imported_fail";
 
+	/** The maximum number of imports at the same time. */
+	static private final int MAX_RUNNING = 4;
+	/** The maximum number of imports at the same time from one web site. */
+	static private final int MAX_PER_HOST = 1;
+	/** The minimum delay between two imports from one web site, in ms. */
+	static private final long HOST_DELAY = 2000;
+	/** The number of times per second the progress of the items is shown. */
+	static private final int FPS = 20;
+	/** The maximum number of attempts per import. */
+	static private final int MAX_ATTEMPTS = 5;
+	/** The delay before the first retry of an import, in ms. */
+	static private final long RETRY_DELAY = 10 * 1000;
+	/** The maximum delay before a retry of an import, in ms. */
+	static private final long RETRY_MAX_DELAY = 10 * 60 * 1000;
+	/** The priority of the imports asked one by one (the journal default). */
+	static private final int PRIORITY_NORMAL = 0;
+	/** The priority of the bulk imports (after the ones asked one by one). */
+	static private final int PRIORITY_BULK = -1;
+	/** The interval between two scans of a watched folder, in ms. */
+	static private final long WATCH_INTERVAL = 10 * 1000;
+
 	private ListenerPanel root;
+	private JList6<ImporterItem> list;
 	private ListModel<ImporterItem> data;
 	private String filter = "";
 
+	private ImportScheduler scheduler;
+	private ImportJournal journal;
+	private RetryPolicy retryPolicy = new RetryPolicy(MAX_ATTEMPTS,
+			RETRY_DELAY, RETRY_MAX_DELAY, null);
+	private Importer importer = new Importer() {
+		@Override
+		public MetaData imprt(String url, Progress pg) throws IOException {
+			return Actions.imprtNow(url, pg);
+		}
+	};
+	private Map<ImporterItem, Job> jobs = new HashMap<ImporterItem, Job>();
+	private Map<ImporterItem, Entry> entries = new HashMap<ImporterItem, Entry>();
+	private Map<String, Integer> queuedUrls = new HashMap<String, Integer>();
+	private JLabel queueState;
+	private ProgressSampler sampler;
+	private FolderWatcher watcher;
+
 	/**
 	 * Create a new {@link ImporterFrame}.
 	 * <p>
@@ -75,7 +210,7 @@ public class ImporterFrame extends JFrame implements ListenerItem {
 		root.setLayout(new BorderLayout());
 		this.add(UIUtils.scroll(root, false));
 
-		JList6<ImporterItem> list = new JList6<ImporterItem>();
+		list = new JList6<ImporterItem>();
 		data = new ListModel<ImporterItem>(list);
 
 		list.setCellRenderer(ListModel.generateRenderer(data));
@@ -119,11 +254,77 @@ public class ImporterFrame extends JFrame implements ListenerItem {
 		});
 
 		root.add(top, BorderLayout.NORTH);
+		root.add(createQueuePane(), BorderLayout.SOUTH);
+
+		scheduler = new ImportScheduler(MAX_RUNNING, MAX_PER_HOST, HOST_DELAY,
+				new QueueListener() {
+					@Override
+					public void queueChanged(int running, int queued) {
+						// TODO: i18n
+						queueState.setText(String.format(
+								"%d running, %d waiting%s", running, queued,
+								scheduler.isPaused() ? " (paused)" : ""));
+					}
+				});
+
+		sampler = new ProgressSampler(FPS, new RowsListener() {
+			@Override
+			public void rowsChanged(List<ImporterItem> items) {
+				// Only the running imports are sampled, so there are few of
+				// them, and their repaints are merged by the RepaintManager
+				for (ImporterItem item : items) {
+					data.fireElementChanged(item);
+				}
+			}
+		});
+
+		journal = new ImportJournal(
+				new File(UiHelper.getDataDir(), "imports.journal"));
+		resume();
 
 		setSize(800, 600);
 		UiHelper.setFrameIcon(this);
 	}
 
+	/**
+	 * Change the way the stories are actually imported (by default, they are
+	 * imported into the main {@link LocalLibrary}).
+	 * 
+	 * @param importer
+	 *            the new {@link Importer}
+	 */
+	public void setImporter(Importer importer) {
+		this.importer = importer;
+	}
+
+	/**
+	 * Change when the failed imports are tried again.
+	 * 
+	 * @param retryPolicy
+	 *            the new {@link RetryPolicy}
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Queue again the imports which were not done when the program was
+	 * closed, if any (see {@link ImportJournal}), with the priority they had.
+	 */
+	private void resume() {
+		new PendingWorker(this) {
+			@Override
+			protected Void doInBackground() throws Exception {
+				for (Entry entry : journal.replay()) {
+					reserve(entry.getUrl());
+					publish(resolve(entry));
+				}
+
+				return null;
+			}
+		}.execute();
+	}
+
 	/**
 	 * Ask for and import an {@link URL} into the main {@link LocalLibrary}.
 	 * <p>
@@ -181,23 +382,13 @@ public class ImporterFrame extends JFrame implements ListenerItem {
 		if (fc.showOpenDialog(parent) != JFileChooser.CANCEL_OPTION) {
 			Object url = fc.getSelectedFile().getAbsolutePath();
 			if (url != null && !url.toString().isEmpty()) {
-				final ImporterItem item = add(pg, "File",
+				ImporterItem item = add(pg, "File",
 						fc.getSelectedFile().getName());
-				Actions.imprt(parent, url.toString(), pg, new Runnable() {
-					@Override
-					public void run() {
-						item.setDone(true);
-						fireActionPerformed(IMPORTED_SUCCESS);
-					}
-				}, new Runnable() {
-					@Override
-					public void run() {
-						item.setFailed(true);
-						item.setDone(true);
-						fireActionPerformed(IMPORTED_FAIL);
-					}
-				});
+				reserve(url.toString());
+				queue(parent, journal.add(url.toString()), null, pg, item,
+						PRIORITY_NORMAL, 0);
 
+				filter();
 				setVisible(true);
 			}
 		}
@@ -218,34 +409,515 @@ public class ImporterFrame extends JFrame implements ListenerItem {
 	 *            the URL to import
 	 */
 	public void imprt(final Container parent, String url) {
+		if (url != null && !url.isEmpty()) {
+			reserve(url);
+			imprt(parent, resolve(journal.add(url)));
+			filter();
+			setVisible(true);
+		}
+	}
+
+	/**
+	 * Ask for a folder, a list of URLs or the content of the clipboard (one URL
+	 * per line), and import all the stories into the main
+	 * {@link LocalLibrary} (see
+	 * {@link ImporterFrame#imprtBulk(Container, List)}).
+	 * <p>
+	 * Should be called inside the UI thread.
+	 * 
+	 * @param parent
+	 *            a container we can use to display the choosers and to show
+	 *            error messages if any
+	 */
+	public void imprtBulk(final Container parent) {
+		// TODO: i18n
+		String[] choices = { "A folder", "A list of URLs", "The clipboard" };
+		int choice = JOptionPane.showOptionDialog(parent,
+				"Import all the stories from:", "Bulk import",
+				JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null,
+				choices, choices[0]);
+
+		if (choice == 0) {
+			JFileChooser fc = new JFileChooser();
+			fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+			if (fc.showOpenDialog(parent) == JFileChooser.APPROVE_OPTION) {
+				final File dir = fc.getSelectedFile();
+				imprtBulk(parent, new Callable<List<String>>() {
+					@Override
+					public List<String> call() throws Exception {
+						return BulkSources.fromDirectory(dir);
+					}
+				});
+			}
+		} else if (choice == 1) {
+			JFileChooser fc = new JFileChooser();
+			if (fc.showOpenDialog(parent) == JFileChooser.APPROVE_OPTION) {
+				final File file = fc.getSelectedFile();
+				imprtBulk(parent, new Callable<List<String>>() {
+					@Override
+					public List<String> call() throws Exception {
+						return BulkSources.fromFile(file);
+					}
+				});
+			}
+		} else if (choice == 2) {
+			String clipboard = null;
+			try {
+				clipboard = "" + Toolkit.getDefaultToolkit()
+						.getSystemClipboard().getData(DataFlavor.stringFlavor);
+			} catch (Exception e) {
+				// No data will be handled
+			}
+
+			imprtBulk(parent, BulkSources.fromText(clipboard));
+		}
+	}
+
+	/**
+	 * Import all these {@link URL}s (or files) into the main
+	 * {@link LocalLibrary}, after the imports asked one by one.
+	 * <p>
+	 * The stories already in the library (same {@link URL} or same file) or
+	 * already in the queue, including by another bulk import, are skipped.
+	 * <p>
+	 * Should be called inside the UI thread.
+	 * <p>
+	 * Will fire {@link ImporterFrame#IMPORTED_SUCCESS} or
+	 * {@link ImporterFrame#IMPORTED_FAIL} when each of them is done.
+	 * 
+	 * @param parent
+	 *            a container we can use to show error messages if any
+	 * @param urls
+	 *            the URLs (or file paths) to import
+	 */
+	public void imprtBulk(Container parent, final List<String> urls) {
+		imprtBulk(parent, new Callable<List<String>>() {
+			@Override
+			public List<String> call() throws Exception {
+				return urls;
+			}
+		});
+	}
+
+	/**
+	 * Start or stop watching a folder: while a folder is watched, the stories
+	 * which land in it are imported into the main {@link LocalLibrary} (see
+	 * {@link FolderWatcher}).
+	 * <p>
+	 * Should be called inside the UI thread.
+	 * 
+	 * @param parent
+	 *            a container we can use to display the folder chooser and to
+	 *            show error messages if any
+	 */
+	public void watchFolder(final Container parent) {
+		// TODO: i18n
+		if (watcher != null) {
+			int stop = JOptionPane.showConfirmDialog(parent,
+					"Stop watching " + watcher.getDir() + "?",
+					"Watch a folder", JOptionPane.YES_NO_OPTION);
+			if (stop == JOptionPane.YES_OPTION) {
+				watcher.stop();
+				watcher = null;
+			}
+
+			return;
+		}
+
+		JFileChooser fc = new JFileChooser();
+		fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+		if (fc.showOpenDialog(parent) == JFileChooser.APPROVE_OPTION) {
+			watcher = new FolderWatcher(fc.getSelectedFile(), WATCH_INTERVAL,
+					new FilesListener() {
+						@Override
+						public void filesAdded(List<String> paths) {
+							imprtBulk(parent, paths);
+						}
+					});
+			watcher.start();
+		}
+	}
+
+	/**
+	 * Import all the {@link URL}s (or files) given by this source into the
+	 * main {@link LocalLibrary}, after the imports asked one by one (see
+	 * {@link ImporterFrame#imprtBulk(Container, List)}).
+	 * <p>
+	 * The source, the skipping of the known stories and the journal are all
+	 * handled in the background.
+	 * 
+	 * @param parent
+	 *            a container we can use to show error messages if any
+	 * @param source
+	 *            the source of the URLs (or file paths), called in the
+	 *            background
+	 */
+	private void imprtBulk(Container parent,
+			final Callable<List<String>> source) {
+		new PendingWorker(parent) {
+			@Override
+			protected Void doInBackground() throws Exception {
+				Set<String> known = getKnownUrls();
+				List<String> sources = source.call();
+				List<String> urls = reserveNew(sources, known);
+
+				Instance.getInstance().getTraceHandler().trace(String.format(
+						"Bulk import: %d to import, %d already known",
+						urls.size(), sources.size() - urls.size()));
+
+				for (Entry entry : journal.add(urls, PRIORITY_BULK)) {
+					publish(resolve(entry));
+				}
+
+				return null;
+			}
+		}.execute();
+	}
+
+	/**
+	 * Add an import to the list and the queue.
+	 * <p>
+	 * Should be called inside the UI thread; the list is not filtered again
+	 * (see {@link ImporterFrame#filter()}).
+	 * 
+	 * @param parent
+	 *            a container we can use to show error messages if any
+	 * @param pending
+	 *            the import (with its priority)
+	 */
+	private void imprt(Container parent, Pending pending) {
 		Progress pg = new Progress();
-		String basename = null;
+		ImporterItem item = add(pg, pending.basename, pending.storyName);
+		queue(parent, pending.entry, pending.host, pg, item,
+				pending.entry.getPriority(), 0);
+	}
+
+	/**
+	 * Find out where an import is from: the name of the web site (or "File"
+	 * and the name of the file for a local file) and the host it connects to.
+	 * <p>
+	 * Can be called from any thread.
+	 * 
+	 * @param entry
+	 *            the import, as recorded in the {@link ImportJournal}
+	 * 
+	 * @return the corresponding {@link Pending} import
+	 */
+	static private Pending resolve(Entry entry) {
+		Pending pending = new Pending();
+		pending.entry = entry;
 		try {
-			BasicSupport support = BasicSupport.getSupport(Actions.getUrl(url));
-			basename = support.getType().getSourceName();
+			URL source = Actions.getUrl(entry.getUrl());
+			if ("file".equals(source.getProtocol())) {
+				pending.basename = "File";
+				pending.storyName = new File(source.getPath()).getName();
+				return pending;
+			}
+
+			pending.host = source.getHost();
+
+			BasicSupport support = BasicSupport.getSupport(source);
+			pending.basename = support.getType().getSourceName();
+			pending.host = pending.basename;
 		} catch (Exception e) {
-			basename = "unknown website";
+			pending.basename = "unknown website";
 		}
 
-		if (url != null && !url.isEmpty()) {
-			final ImporterItem item = add(pg, basename, null);
-			Actions.imprt(parent, url, pg, new Runnable() {
-				@Override
-				public void run() {
-					item.setDone(true);
-					fireActionPerformed(IMPORTED_SUCCESS);
+		return pending;
+	}
+
+	/**
+	 * The {@link URL}s of all the stories of the main library (the source
+	 * {@link URL}s, or the files they were imported from).
+	 * <p>
+	 * Do <b>NOT</b> use this method from the UI thread.
+	 * 
+	 * @return the normalised {@link URL}s (see
+	 *         {@link ImporterFrame#normalize(String)})
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error when reading the library
+	 */
+	static private Set<String> getKnownUrls() throws IOException {
+		Set<String> known = new HashSet<String>();
+		for (MetaData meta : LibraryService.getInstance().getSnapshot()
+				.getList().filter(null, null, null)) {
+			if (meta.getUrl() != null && !meta.getUrl().isEmpty()) {
+				known.add(normalize(meta.getUrl()));
+			}
+		}
+
+		return known;
+	}
+
+	/**
+	 * Mark this {@link URL} (or file path) as queued, so a bulk import does not
+	 * queue it again until it is released (see
+	 * {@link ImporterFrame#release(String)}).
+	 * <p>
+	 * Can be called from any thread.
+	 * 
+	 * @param url
+	 *            the URL (or file path)
+	 */
+	private void reserve(String url) {
+		String key = normalize(url);
+		synchronized (queuedUrls) {
+			Integer count = queuedUrls.get(key);
+			queuedUrls.put(key, count == null ? 1 : count + 1);
+		}
+	}
+
+	/**
+	 * Mark as queued the {@link URL}s (or file paths) which are neither known
+	 * nor already queued, and return them.
+	 * <p>
+	 * The check and the marking are done at once, so two bulk imports at the
+	 * same time never both queue the same story.
+	 * <p>
+	 * Can be called from any thread.
+	 * 
+	 * @param urls
+	 *            the URLs (or file paths)
+	 * @param known
+	 *            the normalised URLs to skip (see
+	 *            {@link ImporterFrame#normalize(String)})
+	 * 
+	 * @return the URLs now marked as queued, in the same order
+	 */
+	private List<String> reserveNew(List<String> urls, Set<String> known) {
+		List<String> reserved = new ArrayList<String>();
+		synchronized (queuedUrls) {
+			for (String url : urls) {
+				String key = normalize(url);
+				if (!known.contains(key) && !queuedUrls.containsKey(key)) {
+					queuedUrls.put(key, 1);
+					reserved.add(url);
 				}
-			}, new Runnable() {
-				@Override
-				public void run() {
-					item.setFailed(true);
-					item.setDone(true);
+			}
+		}
+
+		return reserved;
+	}
+
+	/**
+	 * The import of this {@link URL} (or file path) is over (done, failed or
+	 * cancelled): it can be queued again (see
+	 * {@link ImporterFrame#reserve(String)}).
+	 * <p>
+	 * Can be called from any thread.
+	 * 
+	 * @param url
+	 *            the URL (or file path)
+	 */
+	private void release(String url) {
+		String key = normalize(url);
+		synchronized (queuedUrls) {
+			Integer count = queuedUrls.get(key);
+			if (count == null || count <= 1) {
+				queuedUrls.remove(key);
+			} else {
+				queuedUrls.put(key, count - 1);
+			}
+		}
+	}
+
+	/**
+	 * Normalise an {@link URL} (or a file path) so the same story is always
+	 * given by the same {@link String}.
+	 * 
+	 * @param url
+	 *            the URL (or file path)
+	 * 
+	 * @return the normalised URL
+	 */
+	static private String normalize(String url) {
+		url = url.trim();
+		try {
+			return Actions.getUrl(url).toString();
+		} catch (MalformedURLException e) {
+			return url;
+		}
+	}
+
+	/**
+	 * Add an import to the queue of the {@link ImportScheduler}.
+	 * 
+	 * @param parent
+	 *            a container we can use to show error messages if any
+	 * @param entry
+	 *            the import, as recorded in the {@link ImportJournal}
+	 * @param host
+	 *            the host it connects to (usually, the web site it is from),
+	 *            or NULL if none
+	 * @param pg
+	 *            the {@link Progress} linked to the item
+	 * @param item
+	 *            the {@link ImporterItem} representing this import
+	 * @param priority
+	 *            the priority of the import (the bulk imports only show their
+	 *            errors in the list)
+	 * @param delay
+	 *            the minimum delay before starting the import, in ms
+	 */
+	private void queue(final Container parent, final Entry entry,
+			final String host, final Progress pg, final ImporterItem item,
+			final int priority, long delay) {
+		item.setQueued(true);
+		Job job = scheduler.add(host, priority, delay, new Runnable() {
+			@Override
+			public void run() {
+				journal.started(entry);
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						item.setQueued(false);
+						sampler.add(item);
+					}
+				});
+
+				boolean success = false;
+				try {
+					importer.imprt(entry.getUrl(), pg);
+					journal.finished(entry, State.DONE, null);
+					success = true;
+					fireActionPerformed(IMPORTED_SUCCESS);
+				} catch (IOException e) {
+					ImportFailure failure = ImportFailure
+							.classify(entry.getUrl(), e);
+					if (retryPolicy.shouldRetry(failure, entry.getAttempts())) {
+						journal.finished(entry, State.QUEUED, e.getMessage());
+						retry(parent, entry, host, item, priority, failure);
+						return;
+					}
+
+					journal.finished(entry, State.FAILED, e.getMessage());
+					if (priority == PRIORITY_BULK) {
+						Instance.getInstance().getTraceHandler().error(e);
+					} else {
+						Actions.showImportError(parent, entry.getUrl(), e);
+					}
 					fireActionPerformed(IMPORTED_FAIL);
 				}
-			});
 
-			setVisible(true);
-		}
+				final boolean failed = !success;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						// Still sampled, so the final state will be shown
+						item.setFailed(failed);
+						item.setDone(true);
+						jobs.remove(item);
+						entries.remove(item);
+						release(entry.getUrl());
+					}
+				});
+			}
+		});
+
+		jobs.put(item, job);
+		entries.put(item, entry);
+	}
+
+	/**
+	 * Queue again an import which failed, after the delay given by the
+	 * {@link RetryPolicy}.
+	 * 
+	 * @param parent
+	 *            a container we can use to show error messages if any
+	 * @param entry
+	 *            the import, as recorded in the {@link ImportJournal}
+	 * @param host
+	 *            the host it connects to (usually, the web site it is from),
+	 *            or NULL if none
+	 * @param item
+	 *            the {@link ImporterItem} representing this import
+	 * @param priority
+	 *            the priority of the import
+	 * @param failure
+	 *            the kind of error of the last attempt
+	 */
+	private void retry(final Container parent, final Entry entry,
+			final String host, final ImporterItem item, final int priority,
+			final ImportFailure failure) {
+		final long delay = retryPolicy.getDelay(entry.getAttempts());
+		final int maxAttempts = retryPolicy.getMaxAttempts();
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				Progress pg = new Progress();
+				item.setRetrying(pg, failure.toString(), entry.getAttempts(),
+						maxAttempts, new Date(System.currentTimeMillis()
+								+ delay));
+				// Sampled again when the next attempt starts
+				sampler.remove(item);
+				queue(parent, entry, host, pg, item, priority, delay);
+			}
+		});
+	}
+
+	/**
+	 * Create the panel used to control the import queue: pause/resume, start
+	 * the selected import first, cancel the selected import.
+	 * 
+	 * @return the panel
+	 */
+	private JPanel createQueuePane() {
+		// TODO: i18n
+		final JToggleButton pause = new JToggleButton("Pause");
+		pause.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				scheduler.setPaused(pause.isSelected());
+			}
+		});
+
+		JButton first = new JButton("Start first");
+		first.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				Job job = jobs.get(list.getSelectedValue());
+				if (job != null) {
+					scheduler.prioritize(job);
+				}
+			}
+		});
+
+		JButton cancel = new JButton("Cancel");
+		cancel.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				final ImporterItem selected = list.getSelectedValue();
+				Job job = jobs.get(selected);
+				if (job != null && scheduler.cancel(job)) {
+					jobs.remove(selected);
+					Entry entry = entries.remove(selected);
+					journal.finished(entry, State.CANCELLED, null);
+					release(entry.getUrl());
+					sampler.remove(selected);
+					data.removeItemIf(new Predicate<ImporterItem>() {
+						@Override
+						public boolean test(ImporterItem item) {
+							return item == selected;
+						}
+					});
+					filter();
+				}
+			}
+		});
+
+		queueState = new JLabel();
+
+		JPanel buttons = new JPanel();
+		buttons.add(pause);
+		buttons.add(first);
+		buttons.add(cancel);
+
+		JPanel queuePane = new JPanel(new BorderLayout());
+		queuePane.add(buttons, BorderLayout.WEST);
+		queuePane.add(queueState, BorderLayout.CENTER);
+
+		return queuePane;
 	}
 
 	/**
@@ -260,7 +932,7 @@ public class ImporterFrame extends JFrame implements ListenerItem {
 	 *            the name of the story, if already known
 	 * 
 	 * @return the new item, already linked (you still need to flag it Done or
-	 *         Failed as needed)
+	 *         Failed as needed, and to filter the list again)
 	 */
 	private ImporterItem add(Progress pg, final String basename,
 			String storyName) {
@@ -272,32 +944,32 @@ public class ImporterFrame extends JFrame implements ListenerItem {
 			}
 		});
 
+		// Only sampled when its import starts (see ImporterFrame#queue)
 		data.addItem(item);
-		filter();
 
 		return item;
 	}
 
 	/**
 	 * Filter the {@link ImporterItem} and keep only those that conform to
-	 * {@link ImporterFrame#filter}.
+	 * {@link ImporterFrame#filter} (see {@link BookQuery}; only the free text
+	 * and the <tt>title:</tt> and <tt>source:</tt> terms apply here).
 	 */
 	private void filter() {
+		final BookQuery query = BookQuery.parse(filter);
 		data.filter(new Predicate<ImporterItem>() {
 			@Override
 			public boolean test(ImporterItem item) {
-				if (filter.isEmpty())
+				if (query.isEmpty())
 					return true;
 
 				if (item.getStoryName().isEmpty() && item.getAction().isEmpty())
 					return true;
 
-				if (item.getStoryName().toLowerCase()
-						.contains(filter.toLowerCase()))
+				if (query.test(item.getStoryName(), item.getBasename()))
 					return true;
 
-				if (item.getAction().toLowerCase()
-						.contains(filter.toLowerCase()))
+				if (query.test(item.getAction(), item.getBasename()))
 					return true;
 
 				return false;
@@ -7,9 +7,10 @@ import java.awt.Graphics;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 
 import javax.swing.JLabel;
-import javax.swing.SwingUtilities;
 
 import be.nikiroo.fanfix.data.MetaData;
 import be.nikiroo.fanfix_swing.gui.utils.CoverImager;
@@ -43,6 +44,11 @@ public class ImporterItem extends ListenerPanel implements Hoverable {
 	private boolean selected;
 	private boolean done;
 	private boolean failed;
+	private boolean queued;
+	private boolean dirty;
+	private String retry;
+	private Progress pg;
+	private volatile String lastAction;
 
 	private JLabel labelName;
 	private JLabel labelAction;
@@ -75,6 +81,15 @@ public class ImporterItem extends ListenerPanel implements Hoverable {
 		init(pg);
 	}
 
+	/**
+	 * The base name of this process, usually the web site it is from.
+	 * 
+	 * @return the base name (never NULL)
+	 */
+	public String getBasename() {
+		return basename;
+	}
+
 	/**
 	 * Return the full story name (including the base name, so the <i>source</i>
 	 * of this download/conversion.
@@ -97,6 +112,11 @@ public class ImporterItem extends ListenerPanel implements Hoverable {
 			return "Done";
 		}
 
+		// TODO: i18n
+		if (queued && action.isEmpty()) {
+			return retry != null ? retry : "Waiting in the queue";
+		}
+
 		return action.isEmpty() ? " " : action;
 	}
 
@@ -159,6 +179,9 @@ public class ImporterItem extends ListenerPanel implements Hoverable {
 
 	/**
 	 * The process is done.
+	 * <p>
+	 * Must be called in the UI thread; the change will be reported by the next
+	 * {@link ImporterItem#refresh()}.
 	 * 
 	 * @param done
 	 *            the new state
@@ -166,10 +189,72 @@ public class ImporterItem extends ListenerPanel implements Hoverable {
 	public void setDone(boolean done) {
 		if (this.done != done) {
 			this.done = done;
+			dirty = true;
 			setHighlight();
 		}
 	}
 
+	/**
+	 * The process is waiting in the import queue (it is not started yet).
+	 * 
+	 * @return TRUE if it is
+	 */
+	public boolean isQueued() {
+		return queued;
+	}
+
+	/**
+	 * The process is waiting in the import queue (it is not started yet).
+	 * <p>
+	 * Must be called in the UI thread.
+	 * 
+	 * @param queued
+	 *            the new state
+	 */
+	public void setQueued(boolean queued) {
+		if (this.queued != queued) {
+			this.queued = queued;
+			if (!queued) {
+				retry = null;
+			}
+			labelAction.setText(" " + getAction());
+			fireActionPerformed(CHANGE);
+		}
+	}
+
+	/**
+	 * The process failed but will be tried again: it is waiting in the import
+	 * queue until then.
+	 * <p>
+	 * Must be called in the UI thread.
+	 * 
+	 * @param pg
+	 *            the {@link Progress} to track for the next attempt (must not
+	 *            be NULL)
+	 * @param reason
+	 *            the reason of the failure
+	 * @param attempts
+	 *            the number of attempts already made
+	 * @param maxAttempts
+	 *            the maximum number of attempts
+	 * @param when
+	 *            the time of the next attempt
+	 */
+	public void setRetrying(Progress pg, String reason, int attempts,
+			int maxAttempts, Date when) {
+		// TODO: i18n
+		retry = String.format("%s, attempt %d/%d at %s", reason,
+				attempts + 1, maxAttempts,
+				new SimpleDateFormat("HH:mm:ss").format(when));
+		queued = true;
+		action = "";
+		progress = -1;
+		init(pg);
+
+		labelAction.setText(" " + getAction());
+		fireActionPerformed(CHANGE);
+	}
+
 	/**
 	 * The process encountered an error.
 	 * 
@@ -181,6 +266,9 @@ public class ImporterItem extends ListenerPanel implements Hoverable {
 
 	/**
 	 * The process encountered an error.
+	 * <p>
+	 * Must be called in the UI thread; the change will be reported by the next
+	 * {@link ImporterItem#refresh()}.
 	 * 
 	 * @param failed
 	 *            the new value
@@ -188,6 +276,7 @@ public class ImporterItem extends ListenerPanel implements Hoverable {
 	public void setFailed(boolean failed) {
 		if (this.failed != failed) {
 			this.failed = failed;
+			dirty = true;
 			setHighlight();
 		}
 	}
@@ -215,45 +304,64 @@ public class ImporterItem extends ListenerPanel implements Hoverable {
 
 	/**
 	 * Initialise the system and listen on the {@link Progress} events.
+	 * <p>
+	 * The events of the previous {@link Progress} (if any) are ignored from now
+	 * on.
+	 * <p>
+	 * The events only record the current action: the item is actually updated
+	 * when sampled (see {@link ImporterItem#refresh()}).
 	 * 
 	 * @param pg
 	 *            the {@link Progress} (must not be NULL)
 	 */
 	private void init(final Progress pg) {
+		this.pg = pg;
+		this.lastAction = null;
 		pg.addProgressListener(new ProgressListener() {
 			@Override
 			public void progress(Progress notUsed, String currentAction) {
-				currentAction = currentAction == null ? "" : currentAction;
-				String currentStoryName = null;
-
-				MetaData meta = (MetaData) pg.get("meta");
-				if (meta != null) {
-					currentStoryName = meta.getTitle();
-				}
-
-				if (pg.getRelativeProgress() != progress
-						|| !action.equals(currentAction)
-						|| !storyName.equals(currentStoryName)) {
-					progress = pg.getRelativeProgress();
-					action = currentAction;
-					storyName = currentStoryName == null ? ""
-							: currentStoryName;
-
-					// The rest must be done in the UI thread
-					SwingUtilities.invokeLater(new Runnable() {
-						@Override
-						public void run() {
-							setDone(pg.isDone());
-							labelName.setText(" " + getStoryName());
-							labelAction.setText(" " + getAction());
-							fireActionPerformed(CHANGE);
-						}
-					});
+				if (pg == ImporterItem.this.pg) {
+					lastAction = currentAction;
 				}
 			}
 		});
 	}
 
+	/**
+	 * Update the item with the current state of its {@link Progress}.
+	 * <p>
+	 * Must be called in the UI thread, usually by a {@link ProgressSampler};
+	 * does not fire {@link ImporterItem#CHANGE}.
+	 * 
+	 * @return TRUE if the item changed (including its done and failed states)
+	 *         since the last call
+	 */
+	public boolean refresh() {
+		boolean changed = dirty;
+		dirty = false;
+
+		String currentAction = lastAction == null ? "" : lastAction;
+		String currentStoryName = storyName;
+		MetaData meta = (MetaData) pg.get("meta");
+		if (meta != null && meta.getTitle() != null) {
+			currentStoryName = meta.getTitle();
+		}
+		double currentProgress = pg.getRelativeProgress();
+
+		if (currentProgress == progress && action.equals(currentAction)
+				&& storyName.equals(currentStoryName)) {
+			return changed;
+		}
+
+		progress = currentProgress;
+		action = currentAction;
+		storyName = currentStoryName;
+
+		labelName.setText(" " + getStoryName());
+		labelAction.setText(" " + getAction());
+		return true;
+	}
+
 	@Override
 	public void paint(Graphics g) {
 		// Overlay up to x% completed
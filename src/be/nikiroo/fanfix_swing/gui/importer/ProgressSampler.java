@@ -0,0 +1,124 @@
+package be.nikiroo.fanfix_swing.gui.importer;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.swing.Timer;
+
+import be.nikiroo.utils.Progress;
+
+/**
+ * Update the {@link ImporterItem}s from their {@link Progress} at a fixed
+ * rate, in the UI thread.
+ * <p>
+ * The {@link Progress} events can be very frequent (and come from a lot of
+ * imports at the same time); instead of one UI update per event, all the items
+ * are sampled once per frame, and all the items that changed are given in one
+ * batch to the {@link RowsListener} (so the list is repainted once per frame at
+ * most, whatever the number of imports or events).
+ * <p>
+ * The items are sampled until they are done (and their final state is
+ * shown), and the sampling only runs when there are items to sample; only the
+ * items being processed should be added, so the cost of a sample does not
+ * depend on the number of items waiting.
+ * <p>
+ * Must be used in the UI thread.
+ * 
+ * @author niki
+ */
+public class ProgressSampler {
+	/**
+	 * Receive the items which changed.
+	 * 
+	 * @author niki
+	 */
+	public interface RowsListener {
+		/**
+		 * Some items changed since the previous frame.
+		 * <p>
+		 * Called in the UI thread.
+		 * 
+		 * @param items
+		 *            the items which changed
+		 */
+		public void rowsChanged(List<ImporterItem> items);
+	}
+
+	private Timer timer;
+	private RowsListener listener;
+	private Set<ImporterItem> items = new LinkedHashSet<ImporterItem>();
+
+	/**
+	 * Create a new {@link ProgressSampler}.
+	 * 
+	 * @param fps
+	 *            the number of samples per second
+	 * @param listener
+	 *            the listener that will receive the items which changed
+	 */
+	public ProgressSampler(int fps, RowsListener listener) {
+		this.listener = listener;
+
+		timer = new Timer(1000 / fps, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				sample();
+			}
+		});
+		timer.setCoalesce(true);
+	}
+
+	/**
+	 * Sample this item from now on.
+	 * 
+	 * @param item
+	 *            the item
+	 */
+	public void add(ImporterItem item) {
+		items.add(item);
+		if (!timer.isRunning()) {
+			timer.start();
+		}
+	}
+
+	/**
+	 * Stop sampling this item.
+	 * 
+	 * @param item
+	 *            the item
+	 */
+	public void remove(ImporterItem item) {
+		items.remove(item);
+		if (items.isEmpty()) {
+			timer.stop();
+		}
+	}
+
+	/**
+	 * Sample all the items, and notify the listener of the ones which changed.
+	 */
+	private void sample() {
+		List<ImporterItem> changed = new ArrayList<ImporterItem>();
+		for (Iterator<ImporterItem> it = items.iterator(); it.hasNext();) {
+			ImporterItem item = it.next();
+			if (item.refresh()) {
+				changed.add(item);
+			} else if (item.isDone(true)) {
+				it.remove();
+			}
+		}
+
+		if (items.isEmpty()) {
+			timer.stop();
+		}
+
+		if (!changed.isEmpty()) {
+			listener.rowsChanged(changed);
+		}
+	}
+}
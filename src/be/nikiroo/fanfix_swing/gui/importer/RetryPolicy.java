@@ -0,0 +1,87 @@
+package be.nikiroo.fanfix_swing.gui.importer;
+
+import java.util.Random;
+
+/**
+ * When to try again a failed import: only for the transient errors (see
+ * {@link ImportFailure#isTransient()}), a limited number of times, with an
+ * exponential backoff.
+ * <p>
+ * The delays are randomised (between half and all of the exponential delay),
+ * so a lot of imports which failed at the same time do not retry at the same
+ * time.
+ * 
+ * @author niki
+ */
+public class RetryPolicy {
+	private int maxAttempts;
+	private long baseDelay;
+	private long maxDelay;
+	private Random random;
+
+	/**
+	 * Create a new {@link RetryPolicy}.
+	 * 
+	 * @param maxAttempts
+	 *            the maximum number of attempts per import (including the
+	 *            first one)
+	 * @param baseDelay
+	 *            the delay before the first retry, in milliseconds (it is
+	 *            then doubled for each new retry)
+	 * @param maxDelay
+	 *            the maximum delay before a retry, in milliseconds
+	 * @param random
+	 *            the source of randomness for the delays (can be NULL for a
+	 *            default one)
+	 */
+	public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay,
+			Random random) {
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.random = random == null ? new Random() : random;
+	}
+
+	/**
+	 * The maximum number of attempts per import (including the first one).
+	 * 
+	 * @return the number of attempts
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Check if an import which failed should be tried again.
+	 * 
+	 * @param failure
+	 *            the kind of error of the last attempt
+	 * @param attempts
+	 *            the number of attempts already made
+	 * 
+	 * @return TRUE if it should
+	 */
+	public boolean shouldRetry(ImportFailure failure, int attempts) {
+		return failure.isTransient() && attempts < maxAttempts;
+	}
+
+	/**
+	 * The delay to wait before trying again.
+	 * 
+	 * @param attempts
+	 *            the number of attempts already made (at least 1)
+	 * 
+	 * @return the delay, in milliseconds
+	 */
+	public long getDelay(int attempts) {
+		long delay = baseDelay;
+		for (int i = 1; i < attempts && delay < maxDelay; i++) {
+			delay *= 2;
+		}
+		delay = Math.min(delay, maxDelay);
+
+		synchronized (random) {
+			return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+		}
+	}
+}
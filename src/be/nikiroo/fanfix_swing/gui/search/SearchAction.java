@@ -12,9 +12,13 @@ import javax.swing.JFrame;
 import javax.swing.JPanel;
 
 import be.nikiroo.fanfix.Instance;
+import be.nikiroo.fanfix.data.MetaData;
 import be.nikiroo.fanfix.library.BasicLibrary;
 import be.nikiroo.fanfix_swing.gui.PropertiesPanel;
 import be.nikiroo.fanfix_swing.gui.book.BookInfo;
+import be.nikiroo.fanfix_swing.gui.utils.FacetCounts;
+import be.nikiroo.fanfix_swing.gui.utils.LibraryService;
+import be.nikiroo.fanfix_swing.gui.utils.StoryCache;
 import be.nikiroo.fanfix_swing.gui.utils.UiHelper;
 import be.nikiroo.utils.Progress;
 import be.nikiroo.utils.ui.ProgressBar;
@@ -80,7 +84,11 @@ public class SearchAction extends JFrame {
 					@Override
 					public void run() {
 						try {
-							lib.imprt(new URL(info.getMeta().getUrl()), null);
+							MetaData meta = lib.imprt(
+									new URL(info.getMeta().getUrl()), null);
+							StoryCache.getInstance().invalidate(meta.getLuid());
+							FacetCounts.storyAdded(meta);
+							LibraryService.getInstance().reload();
 						} catch (IOException e) {
 							Instance.getInstance().getTraceHandler().error(e);
 						}
@@ -0,0 +1,464 @@
+package be.nikiroo.fanfix_swing.gui.utils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import be.nikiroo.fanfix.data.MetaData;
+
+/**
+ * A search query over the books, as typed by the user in a search bar.
+ * <p>
+ * The query is a list of terms separated by spaces (use quotes to include
+ * spaces in a term, and prefix a term with "-" to exclude what it matches):
+ * <ul>
+ * <li><tt>author:text</tt>, <tt>tag:text</tt>, <tt>source:text</tt>,
+ * <tt>title:text</tt>: the field contains the text</li>
+ * <li><tt>words&gt;number</tt>, <tt>words&lt;number</tt>: the number of words
+ * (or images) is greater/lower than the number</li>
+ * <li><tt>date&gt;date</tt>, <tt>date&lt;date</tt>: the date is after (or on)
+ * / before the date (YYYY-MM-DD or a prefix of it)</li>
+ * <li><tt>image:true</tt>, <tt>cached:true</tt> (or <tt>false</tt>): the book
+ * is an image document, is cached</li>
+ * <li>anything else: the title contains the text (all the other words,
+ * together); an excluded word is excluded from the title on its own</li>
+ * </ul>
+ * The comparisons ignore the case and the accents.
+ * <p>
+ * A query is parsed once and can then be evaluated either against a
+ * {@link BookSearchIndex} or directly against a {@link MetaData}.
+ * 
+ * @author niki
+ */
+public class BookQuery {
+	/**
+	 * One term of the query, with a field.
+	 * 
+	 * @author niki
+	 */
+	private class Clause {
+		public String token;
+		public boolean negate;
+		public String field;
+		public char op;
+		public String value;
+
+		public long number;
+		public boolean flag;
+
+		/**
+		 * Evaluate this clause against the given index (without taking the
+		 * negation into account).
+		 * 
+		 * @param index
+		 *            the index
+		 * 
+		 * @return the positions of the matching books
+		 */
+		public BitSet evaluate(BookSearchIndex index) {
+			BitSet result;
+			if ("author".equals(field)) {
+				result = index.findAuthor(value);
+			} else if ("tag".equals(field)) {
+				result = index.findTag(value);
+			} else if ("source".equals(field)) {
+				result = index.findSource(value);
+			} else if ("title".equals(field)) {
+				result = index.search(value, null);
+			} else if ("words".equals(field)) {
+				if (op == '>') {
+					result = index.findWords(number + 1, Long.MAX_VALUE);
+				} else {
+					result = index.findWords(Long.MIN_VALUE, number - 1);
+				}
+			} else if ("date".equals(field)) {
+				result = op == '>' ? index.findDates(value, null)
+						: index.findDates(null, value);
+			} else if ("image".equals(field)) {
+				result = index.findImages();
+				if (!flag) {
+					result.flip(0, index.size());
+				}
+			} else { // cached
+				result = index.findCached();
+				if (!flag) {
+					result.flip(0, index.size());
+				}
+			}
+
+			return result;
+		}
+
+		/**
+		 * Evaluate this clause against the given book (without taking the
+		 * negation into account).
+		 * 
+		 * @param meta
+		 *            the book
+		 * @param cached
+		 *            TRUE if the book is cached
+		 * 
+		 * @return TRUE if it matches
+		 */
+		public boolean test(MetaData meta, boolean cached) {
+			if ("author".equals(field)) {
+				return contains(meta.getAuthor(), value);
+			} else if ("tag".equals(field)) {
+				if (meta.getTags() != null) {
+					for (String tag : meta.getTags()) {
+						if (contains(tag, value)) {
+							return true;
+						}
+					}
+				}
+				return false;
+			} else if ("source".equals(field)) {
+				return contains(meta.getSource(), value);
+			} else if ("title".equals(field)) {
+				return contains(meta.getTitle(), value);
+			} else if ("words".equals(field)) {
+				return op == '>' ? meta.getWords() > number
+						: meta.getWords() < number;
+			} else if ("date".equals(field)) {
+				String date = meta.getDate();
+				if (date == null) {
+					return false;
+				}
+
+				return op == '>' ? date.compareTo(value) >= 0
+						: date.compareTo(value) < 0;
+			} else if ("image".equals(field)) {
+				return meta.isImageDocument() == flag;
+			}
+
+			return cached == flag;
+		}
+	}
+
+	private String text;
+	private List<Clause> clauses = new ArrayList<Clause>();
+
+	/**
+	 * Create a new, empty query (use {@link BookQuery#parse(String)} instead).
+	 */
+	private BookQuery() {
+	}
+
+	/**
+	 * Parse the given query (see {@link BookQuery} for the syntax).
+	 * <p>
+	 * Invalid terms (for instance, a number that is not a number) are simply
+	 * used as text.
+	 * 
+	 * @param query
+	 *            the query to parse (can be NULL)
+	 * 
+	 * @return the parsed query, never NULL
+	 */
+	static public BookQuery parse(String query) {
+		BookQuery result = new BookQuery();
+
+		StringBuilder text = new StringBuilder();
+		for (String token : tokenize(BookSearchIndex.normalize(query))) {
+			Clause clause = result.parseClause(token);
+			if (clause != null) {
+				result.clauses.add(clause);
+			} else {
+				if (text.length() > 0) {
+					text.append(' ');
+				}
+				text.append(token.replace("\"", ""));
+			}
+		}
+
+		result.text = text.toString();
+		return result;
+	}
+
+	/**
+	 * This query has no terms at all, and so matches everything.
+	 * 
+	 * @return TRUE if it is empty
+	 */
+	public boolean isEmpty() {
+		return text.isEmpty() && clauses.isEmpty();
+	}
+
+	/**
+	 * The free text part of the query (the terms without a field), normalised.
+	 * 
+	 * @return the text (can be empty)
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Check if all the books matched by this query are also matched by the
+	 * given (previous) query, which is the case when only the free text
+	 * changed by adding characters to it.
+	 * <p>
+	 * In that case, the result of the previous query can be used to narrow
+	 * down the search.
+	 * 
+	 * @param previous
+	 *            the previous query (can be NULL)
+	 * 
+	 * @return TRUE if this query is a narrower version of the given one
+	 */
+	public boolean isNarrowing(BookQuery previous) {
+		if (previous == null || !text.contains(previous.text)
+				|| clauses.size() != previous.clauses.size()) {
+			return false;
+		}
+
+		for (int i = 0; i < clauses.size(); i++) {
+			if (!clauses.get(i).token.equals(previous.clauses.get(i).token)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Evaluate this query against the given index.
+	 * 
+	 * @param index
+	 *            the index
+	 * @param within
+	 *            the result of a query this one narrows down (see
+	 *            {@link BookQuery#isNarrowing(BookQuery)}), or NULL
+	 * 
+	 * @return the positions of the matching books
+	 */
+	public BitSet evaluate(BookSearchIndex index, BitSet within) {
+		if (within != null && text.isEmpty()) {
+			return (BitSet) within.clone();
+		}
+
+		BitSet result = index.search(text, within);
+		for (Clause clause : clauses) {
+			if (result.isEmpty()) {
+				break;
+			}
+
+			if (clause.negate) {
+				result.andNot(clause.evaluate(index));
+			} else {
+				result.and(clause.evaluate(index));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Evaluate this query against the given book.
+	 * 
+	 * @param meta
+	 *            the book (can be NULL, in which case only an empty query or a
+	 *            query with only free text matches)
+	 * @param cached
+	 *            TRUE if the book is cached
+	 * 
+	 * @return TRUE if it matches
+	 */
+	public boolean test(MetaData meta, boolean cached) {
+		if (meta == null) {
+			return clauses.isEmpty();
+		}
+
+		if (meta.getTitle() != null && !contains(meta.getTitle(), text)) {
+			return false;
+		}
+
+		for (Clause clause : clauses) {
+			if (clause.test(meta, cached) == clause.negate) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Evaluate this query against an item that only has a title and a source
+	 * (the terms about the other fields are ignored).
+	 * 
+	 * @param title
+	 *            the title of the item (can be NULL)
+	 * @param source
+	 *            the source of the item (can be NULL)
+	 * 
+	 * @return TRUE if it matches
+	 */
+	public boolean test(String title, String source) {
+		if (title != null && !contains(title, text)) {
+			return false;
+		}
+
+		for (Clause clause : clauses) {
+			boolean matches;
+			if ("title".equals(clause.field)) {
+				matches = contains(title, clause.value);
+			} else if ("source".equals(clause.field)) {
+				matches = contains(source, clause.value);
+			} else {
+				continue;
+			}
+
+			if (matches == clause.negate) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Parse a term with a field, or an excluded term (which is then about the
+	 * title if it has no field).
+	 * 
+	 * @param token
+	 *            the normalised term
+	 * 
+	 * @return the clause, or NULL if this term is just text
+	 */
+	private Clause parseClause(String token) {
+		Clause clause = new Clause();
+		clause.token = token;
+
+		if (token.startsWith("-") && token.length() > 1) {
+			clause.negate = true;
+			token = token.substring(1);
+		}
+
+		if (parseField(clause, token)) {
+			return clause;
+		}
+
+		if (clause.negate) {
+			clause.field = "title";
+			clause.op = ':';
+			clause.value = token.replace("\"", "");
+			if (!clause.value.isEmpty()) {
+				return clause;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Parse the field, the operator and the value of a term.
+	 * 
+	 * @param clause
+	 *            the clause to fill
+	 * @param token
+	 *            the normalised term, without its "-" prefix
+	 * 
+	 * @return TRUE if the term has a known field (and a valid value for it)
+	 */
+	private boolean parseField(Clause clause, String token) {
+		int pos = -1;
+		for (int i = 0; i < token.length() && pos < 0; i++) {
+			char car = token.charAt(i);
+			if (car == ':' || car == '>' || car == '<') {
+				pos = i;
+			}
+		}
+
+		if (pos <= 0 || pos == token.length() - 1) {
+			return false;
+		}
+
+		clause.field = token.substring(0, pos);
+		clause.op = token.charAt(pos);
+		clause.value = token.substring(pos + 1).replace("\"", "");
+
+		if (clause.op == ':') {
+			if ("author".equals(clause.field) || "tag".equals(clause.field)
+					|| "source".equals(clause.field)
+					|| "title".equals(clause.field)) {
+				return true;
+			}
+
+			if ("image".equals(clause.field) || "cached".equals(clause.field)) {
+				if ("true".equals(clause.value) || "yes".equals(clause.value)) {
+					clause.flag = true;
+					return true;
+				}
+				if ("false".equals(clause.value) || "no".equals(clause.value)) {
+					clause.flag = false;
+					return true;
+				}
+			}
+		} else {
+			if ("words".equals(clause.field)) {
+				try {
+					clause.number = Long.parseLong(clause.value);
+					return true;
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			}
+
+			if ("date".equals(clause.field)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Split the query into terms, on spaces (except within quotes).
+	 * 
+	 * @param query
+	 *            the query
+	 * 
+	 * @return the terms
+	 */
+	static private List<String> tokenize(String query) {
+		List<String> tokens = new ArrayList<String>();
+
+		boolean quoted = false;
+		StringBuilder token = new StringBuilder();
+		for (char car : query.toCharArray()) {
+			if (car == '"') {
+				quoted = !quoted;
+			}
+
+			if (Character.isWhitespace(car) && !quoted) {
+				if (token.length() > 0) {
+					tokens.add(token.toString());
+					token.setLength(0);
+				}
+			} else {
+				token.append(car);
+			}
+		}
+
+		if (token.length() > 0) {
+			tokens.add(token.toString());
+		}
+
+		return tokens;
+	}
+
+	/**
+	 * Check if the given value contains the given normalised text.
+	 * 
+	 * @param value
+	 *            the value to check (can be NULL)
+	 * @param text
+	 *            the normalised text
+	 * 
+	 * @return TRUE if it does
+	 */
+	static private boolean contains(String value, String text) {
+		return value != null
+				&& BookSearchIndex.normalize(value).contains(text);
+	}
+}
@@ -0,0 +1,456 @@
+package be.nikiroo.fanfix_swing.gui.utils;
+
+import java.text.Normalizer;
+import java.text.Normalizer.Form;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import be.nikiroo.fanfix.data.MetaData;
+import be.nikiroo.fanfix_swing.gui.book.BookInfo;
+
+/**
+ * An in-memory search index over the titles of a list of books (see
+ * {@link BookInfo#getMainInfo()}).
+ * <p>
+ * The titles are normalised once (lowercase, without accents) when the index
+ * is built, and a trigram index allows to only check the few books that can
+ * match a query instead of all of them.
+ * <p>
+ * The other fields of the books (authors, sources, tags, word counts, dates
+ * and image documents) are also kept in columns so a {@link BookQuery} can be
+ * evaluated without going back to the {@link MetaData} of every book.
+ * <p>
+ * The results are given as a {@link BitSet} of the positions of the matching
+ * books in the list given at creation time; a previous result can also be used
+ * to narrow down a new search (when the user types more characters).
+ * <p>
+ * The index is immutable once built, and so it is thread-safe.
+ *
+ * @author niki
+ */
+public class BookSearchIndex {
+	static private final Pattern DIACRITICS = Pattern
+			.compile("\\p{InCombiningDiacriticalMarks}+");
+	static private final int GRAM = 3;
+
+	private List<BookInfo> books;
+	private String[] titles;
+	private Map<BookInfo, Integer> positions;
+	private Map<String, int[]> grams;
+	private BitSet always;
+
+	private Map<String, BitSet> authors = new HashMap<String, BitSet>();
+	private Map<String, BitSet> sources = new HashMap<String, BitSet>();
+	private Map<String, BitSet> tags = new HashMap<String, BitSet>();
+	private long[] words;
+	private String[] dates;
+	private BitSet images;
+
+	/**
+	 * Create a new index for these books.
+	 * <p>
+	 * Can take some time for large lists, so you should call it outside of the
+	 * UI thread.
+	 *
+	 * @param books
+	 *            the books to index (the list must not change afterwards)
+	 */
+	public BookSearchIndex(List<BookInfo> books) {
+		this(books, new HashMap<BookInfo, BookInfo>());
+	}
+
+	/**
+	 * Create a new index for these books, some of which are about to be
+	 * updated (see {@link BookInfo#update(BookInfo)}): those are indexed with
+	 * their new information.
+	 * <p>
+	 * Can take some time for large lists, so you should call it outside of the
+	 * UI thread.
+	 *
+	 * @param books
+	 *            the books to index (the list must not change afterwards)
+	 * @param updates
+	 *            the new information of the books about to be updated
+	 */
+	public BookSearchIndex(List<BookInfo> books,
+			Map<BookInfo, BookInfo> updates) {
+		this.books = books;
+		this.titles = new String[books.size()];
+		this.positions = new IdentityHashMap<BookInfo, Integer>(books.size());
+		this.always = new BitSet(books.size());
+		this.words = new long[books.size()];
+		this.dates = new String[books.size()];
+		this.images = new BitSet(books.size());
+
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (int i = 0; i < titles.length; i++) {
+			BookInfo book = books.get(i);
+			positions.put(book, i);
+
+			BookInfo update = updates.get(book);
+			if (update != null) {
+				book = update;
+			}
+
+			MetaData meta = book.getMeta();
+			if (meta != null) {
+				mark(authors, meta.getAuthor(), i);
+				mark(sources, meta.getSource(), i);
+				if (meta.getTags() != null) {
+					for (String tag : meta.getTags()) {
+						mark(tags, tag, i);
+					}
+				}
+
+				words[i] = meta.getWords();
+				dates[i] = meta.getDate();
+				images.set(i, meta.isImageDocument());
+			}
+
+			String title = book.getMainInfo();
+			if (title == null) {
+				// Books without title are always visible
+				always.set(i);
+				continue;
+			}
+
+			titles[i] = normalize(title);
+			for (String gram : getGrams(titles[i])) {
+				Integer count = counts.get(gram);
+				counts.put(gram, count == null ? 1 : count + 1);
+			}
+		}
+
+		grams = new HashMap<String, int[]>(counts.size());
+		Map<String, Integer> filled = new HashMap<String, Integer>(
+				counts.size());
+		for (int i = 0; i < titles.length; i++) {
+			if (titles[i] == null) {
+				continue;
+			}
+
+			for (String gram : getGrams(titles[i])) {
+				int[] postings = grams.get(gram);
+				if (postings == null) {
+					postings = new int[counts.get(gram)];
+					grams.put(gram, postings);
+				}
+
+				Integer count = filled.get(gram);
+				int next = count == null ? 0 : count;
+				// A gram can appear more than once in the same title
+				if (next == 0 || postings[next - 1] != i) {
+					postings[next] = i;
+					filled.put(gram, next + 1);
+				}
+			}
+		}
+
+		// Trim the postings of the grams which appeared twice in a title
+		for (Map.Entry<String, Integer> entry : filled.entrySet()) {
+			int[] postings = grams.get(entry.getKey());
+			if (postings.length != entry.getValue()) {
+				int[] trimmed = new int[entry.getValue()];
+				System.arraycopy(postings, 0, trimmed, 0, trimmed.length);
+				grams.put(entry.getKey(), trimmed);
+			}
+		}
+	}
+
+	/**
+	 * The number of books in this index.
+	 *
+	 * @return the number of books
+	 */
+	public int size() {
+		return titles.length;
+	}
+
+	/**
+	 * Search for the books whose title contains the given (already
+	 * normalised, see {@link BookSearchIndex#normalize(String)}) query.
+	 *
+	 * @param query
+	 *            the normalised query, NULL or empty for all the books
+	 * @param within
+	 *            the result of a previous search that is known to include all
+	 *            the results of this one (for instance, because the new query
+	 *            contains the previous one), or NULL to search everywhere
+	 *
+	 * @return the positions of the matching books
+	 */
+	public BitSet search(String query, BitSet within) {
+		BitSet result = new BitSet(titles.length);
+		if (query == null || query.isEmpty()) {
+			result.set(0, titles.length);
+			return result;
+		}
+
+		// Use the rarest gram of the query to find the candidates
+		int[] candidates = null;
+		if (query.length() >= GRAM) {
+			for (String gram : getGrams(query)) {
+				int[] postings = grams.get(gram);
+				if (postings == null) {
+					candidates = new int[0];
+					break;
+				}
+
+				if (candidates == null || postings.length < candidates.length) {
+					candidates = postings;
+				}
+			}
+		}
+
+		if (candidates != null
+				&& (within == null || candidates.length < within
+						.cardinality())) {
+			for (int i : candidates) {
+				if (titles[i].contains(query)) {
+					result.set(i);
+				}
+			}
+		} else if (within != null) {
+			for (int i = within.nextSetBit(0); i >= 0; i = within
+					.nextSetBit(i + 1)) {
+				if (titles[i] != null && titles[i].contains(query)) {
+					result.set(i);
+				}
+			}
+		} else {
+			for (int i = 0; i < titles.length; i++) {
+				if (titles[i] != null && titles[i].contains(query)) {
+					result.set(i);
+				}
+			}
+		}
+
+		result.or(always);
+		return result;
+	}
+
+	/**
+	 * The books whose author contains the given (normalised) text.
+	 *
+	 * @param author
+	 *            the normalised text
+	 *
+	 * @return the positions of the matching books
+	 */
+	public BitSet findAuthor(String author) {
+		return find(authors, author);
+	}
+
+	/**
+	 * The books whose source contains the given (normalised) text.
+	 *
+	 * @param source
+	 *            the normalised text
+	 *
+	 * @return the positions of the matching books
+	 */
+	public BitSet findSource(String source) {
+		return find(sources, source);
+	}
+
+	/**
+	 * The books with at least one tag that contains the given (normalised)
+	 * text.
+	 *
+	 * @param tag
+	 *            the normalised text
+	 *
+	 * @return the positions of the matching books
+	 */
+	public BitSet findTag(String tag) {
+		return find(tags, tag);
+	}
+
+	/**
+	 * The books with a number of words (or images) within the given bounds.
+	 *
+	 * @param min
+	 *            the minimum number, inclusive
+	 * @param max
+	 *            the maximum number, inclusive
+	 *
+	 * @return the positions of the matching books
+	 */
+	public BitSet findWords(long min, long max) {
+		BitSet result = new BitSet(words.length);
+		for (int i = 0; i < words.length; i++) {
+			if (words[i] >= min && words[i] <= max) {
+				result.set(i);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * The books with a date within the given bounds, compared as text (which
+	 * works for the usual YYYY-MM-DD dates, and their prefixes).
+	 *
+	 * @param from
+	 *            the minimum date, inclusive, or NULL for no minimum
+	 * @param to
+	 *            the maximum date, exclusive, or NULL for no maximum
+	 *
+	 * @return the positions of the matching books
+	 */
+	public BitSet findDates(String from, String to) {
+		BitSet result = new BitSet(dates.length);
+		for (int i = 0; i < dates.length; i++) {
+			if (dates[i] != null
+					&& (from == null || dates[i].compareTo(from) >= 0)
+					&& (to == null || dates[i].compareTo(to) < 0)) {
+				result.set(i);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * The image documents (comics, manga...).
+	 *
+	 * @return the positions of the matching books
+	 */
+	public BitSet findImages() {
+		return (BitSet) images.clone();
+	}
+
+	/**
+	 * The books currently cached (see {@link BookInfo#isCached()}).
+	 * <p>
+	 * This value can change at any time, so it is not indexed.
+	 *
+	 * @return the positions of the matching books
+	 */
+	public BitSet findCached() {
+		BitSet result = new BitSet(titles.length);
+		for (int i = 0; i < titles.length; i++) {
+			if (books.get(i).isCached()) {
+				result.set(i);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * The position of the given book in this index.
+	 *
+	 * @param book
+	 *            the book to find
+	 *
+	 * @return its position, or -1 if it is not part of this index
+	 */
+	public int indexOf(BookInfo book) {
+		Integer position = positions.get(book);
+		return position == null ? -1 : position;
+	}
+
+	/**
+	 * The book at the given position in the index.
+	 *
+	 * @param position
+	 *            the position
+	 *
+	 * @return the book
+	 */
+	public BookInfo get(int position) {
+		return books.get(position);
+	}
+
+	/**
+	 * Normalise the given text so it can be compared with the indexed titles
+	 * (lowercase, without accents).
+	 *
+	 * @param text
+	 *            the text to normalise (can be NULL)
+	 *
+	 * @return the normalised text (empty if NULL)
+	 */
+	static public String normalize(String text) {
+		if (text == null) {
+			return "";
+		}
+
+		String folded = Normalizer.normalize(text, Form.NFD);
+		return DIACRITICS.matcher(folded).replaceAll("").toLowerCase();
+	}
+
+	/**
+	 * The union of the positions of all the values that contain the given
+	 * text.
+	 *
+	 * @param values
+	 *            the positions of the books, per normalised value
+	 * @param text
+	 *            the text to look for
+	 *
+	 * @return the positions of the matching books
+	 */
+	private BitSet find(Map<String, BitSet> values, String text) {
+		BitSet exact = values.get(text);
+		BitSet result = exact == null ? new BitSet(titles.length)
+				: (BitSet) exact.clone();
+
+		for (Map.Entry<String, BitSet> value : values.entrySet()) {
+			if (value.getValue() != exact && value.getKey().contains(text)) {
+				result.or(value.getValue());
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Add the given position to the positions of this value.
+	 *
+	 * @param values
+	 *            the positions of the books, per normalised value
+	 * @param value
+	 *            the value (not normalised yet, can be NULL)
+	 * @param position
+	 *            the position of the book
+	 */
+	static private void mark(Map<String, BitSet> values, String value,
+			int position) {
+		if (value == null) {
+			return;
+		}
+
+		String key = normalize(value);
+		BitSet positions = values.get(key);
+		if (positions == null) {
+			positions = new BitSet();
+			values.put(key, positions);
+		}
+
+		positions.set(position);
+	}
+
+	/**
+	 * Split the given (normalised) text into its trigrams.
+	 *
+	 * @param text
+	 *            the text
+	 *
+	 * @return the trigrams, in order (can contain duplicates)
+	 */
+	static private String[] getGrams(String text) {
+		int count = Math.max(0, text.length() - GRAM + 1);
+		String[] grams = new String[count];
+		for (int i = 0; i < count; i++) {
+			grams[i] = text.substring(i, i + GRAM);
+		}
+
+		return grams;
+	}
+}
@@ -0,0 +1,642 @@
+package be.nikiroo.fanfix_swing.gui.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+import be.nikiroo.utils.ui.DataNode;
+
+/**
+ * A {@link TreeModel} over a tree of {@link DataNodeBook}s, which can be
+ * filtered.
+ * <p>
+ * When the data or the filter changes, the model computes what changed and
+ * only fires the precise insert/remove/change events; the tree nodes are kept
+ * when their book is still there (same type and path), so the expanded and
+ * selected nodes of the {@link javax.swing.JTree} stay as they are.
+ * <p>
+ * The filter is only applied to the nodes the {@link javax.swing.JTree} asks
+ * for (the expanded ones), and the result is kept until the filter or the
+ * data changes.
+ * <p>
+ * A node is shown if it or one of its parents matches the filter, or if one of
+ * its children is shown.
+ * <p>
+ * Must only be used from the UI thread.
+ * 
+ * @author niki
+ */
+public class BookTreeModel implements TreeModel {
+	/**
+	 * A node of the tree, which stays the same as long as its book is in the
+	 * tree.
+	 * 
+	 * @author niki
+	 */
+	private class Node {
+		public Node parent;
+		public String key;
+		public DataNodeBook book;
+		public List<Node> children = new ArrayList<Node>();
+
+		/** The children shown to the tree, NULL if not asked yet. */
+		public List<Node> visible;
+
+		public int generation = -1;
+		public boolean matches;
+		public boolean fullMatch;
+		public boolean subtreeMatch;
+
+		public Node(Node parent, DataNodeBook book) {
+			this.parent = parent;
+			this.book = book;
+			this.key = getKey(book);
+		}
+
+		@Override
+		public String toString() {
+			return book == null ? "" : book.getDisplay();
+		}
+	}
+
+	private DataTreeBooks checker;
+	private Node root;
+	private String filter = "";
+	private int generation;
+	private List<TreeModelListener> listeners = new ArrayList<TreeModelListener>();
+
+	/**
+	 * Create a new, empty {@link BookTreeModel}.
+	 * 
+	 * @param checker
+	 *            the {@link DataTreeBooks} to use to check if a node matches
+	 *            the filter (see
+	 *            {@link DataTreeBooks#checkFilter(String, DataNodeBook)})
+	 */
+	public BookTreeModel(DataTreeBooks checker) {
+		this.checker = checker;
+		this.root = new Node(null, null);
+	}
+
+	/**
+	 * Change the data of this model.
+	 * <p>
+	 * The nodes which are still there are kept, and only the differences are
+	 * notified to the listeners.
+	 * 
+	 * @param data
+	 *            the new data (the root itself is not shown)
+	 */
+	public void setData(DataNode<DataNodeBook> data) {
+		Set<Node> changed = new HashSet<Node>();
+		root.book = data.getUserData();
+		merge(root, data, changed);
+
+		generation++;
+		refresh(root, changed);
+	}
+
+	/**
+	 * The current filter.
+	 * 
+	 * @return the filter (never NULL)
+	 */
+	public String getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Change the filter of this model.
+	 * <p>
+	 * Only the differences are notified to the listeners.
+	 * 
+	 * @param filter
+	 *            the new filter (NULL or empty for no filter)
+	 */
+	public void setFilter(String filter) {
+		filter = filter == null ? "" : filter;
+		if (!filter.equals(this.filter)) {
+			this.filter = filter;
+			generation++;
+			refresh(root, new HashSet<Node>());
+		}
+	}
+
+	/**
+	 * The number of nodes that would be shown with the given filter (even the
+	 * ones inside collapsed nodes), with the same rules as a
+	 * {@link BookTreeModel}.
+	 * <p>
+	 * All the nodes are checked, so this method can take some time with big
+	 * trees; it does not use any model and can be called from any thread.
+	 * 
+	 * @param checker
+	 *            the {@link DataTreeBooks} to use to check if a node matches
+	 *            the filter
+	 * @param data
+	 *            the data (the root itself is not counted)
+	 * @param filter
+	 *            the filter (NULL or empty for no filter)
+	 * 
+	 * @return the number of nodes
+	 */
+	static public int count(DataTreeBooks checker,
+			DataNode<DataNodeBook> data, String filter) {
+		filter = filter == null ? "" : filter;
+		return count(checker, data, filter, filter.isEmpty());
+	}
+
+	/**
+	 * The {@link DataNodeBook} of a node of this model.
+	 * 
+	 * @param node
+	 *            the node, as given by this model
+	 * 
+	 * @return the book, or NULL if this is not a node of this model
+	 */
+	public DataNodeBook getBook(Object node) {
+		if (node instanceof Node) {
+			return ((Node) node).book;
+		}
+
+		return null;
+	}
+
+	/**
+	 * The depth of a node of this model (0 for the root).
+	 * 
+	 * @param node
+	 *            the node, as given by this model
+	 * 
+	 * @return the depth, or -1 if this is not a node of this model
+	 */
+	public int getLevel(Object node) {
+		if (!(node instanceof Node)) {
+			return -1;
+		}
+
+		int level = 0;
+		Node parent = ((Node) node).parent;
+		while (parent != null) {
+			level++;
+			parent = parent.parent;
+		}
+
+		return level;
+	}
+
+	@Override
+	public Object getRoot() {
+		return root;
+	}
+
+	@Override
+	public Object getChild(Object parent, int index) {
+		return getVisible((Node) parent).get(index);
+	}
+
+	@Override
+	public int getChildCount(Object parent) {
+		return getVisible((Node) parent).size();
+	}
+
+	@Override
+	public boolean isLeaf(Object node) {
+		return ((Node) node).children.isEmpty();
+	}
+
+	@Override
+	public void valueForPathChanged(TreePath path, Object newValue) {
+		// not editable
+	}
+
+	@Override
+	public int getIndexOfChild(Object parent, Object child) {
+		if (parent == null || child == null) {
+			return -1;
+		}
+
+		return getVisible((Node) parent).indexOf(child);
+	}
+
+	@Override
+	public void addTreeModelListener(TreeModelListener l) {
+		listeners.add(l);
+	}
+
+	@Override
+	public void removeTreeModelListener(TreeModelListener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * Update the children of this node with the children of the given data,
+	 * reusing the nodes with the same key.
+	 * 
+	 * @param node
+	 *            the node to update
+	 * @param data
+	 *            the new data for this node
+	 * @param changed
+	 *            will receive the nodes whose book was changed in a visible
+	 *            way
+	 */
+	private void merge(Node node, DataNode<DataNodeBook> data,
+			Set<Node> changed) {
+		Map<String, Node> old = new HashMap<String, Node>();
+		for (Node child : node.children) {
+			old.put(child.key, child);
+		}
+
+		List<Node> children = new ArrayList<Node>();
+		for (DataNode<DataNodeBook> childData : data.getChildren()) {
+			DataNodeBook book = childData.getUserData();
+			Node child = old.remove(getKey(book));
+			if (child == null) {
+				child = new Node(node, book);
+			} else {
+				if (!same(child.book, book)) {
+					changed.add(child);
+				}
+				child.book = book;
+			}
+
+			merge(child, childData, changed);
+			children.add(child);
+		}
+
+		node.children = children;
+	}
+
+	/**
+	 * Compute the new visible children of this node (if the tree already
+	 * asked for them), notify the differences to the listeners, then do the
+	 * same for the children.
+	 * 
+	 * @param node
+	 *            the node to refresh
+	 * @param changed
+	 *            the nodes whose book changed in a visible way
+	 */
+	private void refresh(Node node, Set<Node> changed) {
+		if (node.visible == null) {
+			return;
+		}
+
+		List<Node> oldVisible = node.visible;
+		List<Node> newVisible = computeVisible(node);
+		TreePath path = getPath(node);
+
+		Set<Node> newSet = newIdentitySet(newVisible);
+		Set<Node> oldSet = newIdentitySet(oldVisible);
+
+		// Removed
+		List<Node> kept = new ArrayList<Node>();
+		List<Integer> indexes = new ArrayList<Integer>();
+		List<Node> nodes = new ArrayList<Node>();
+		for (int i = 0; i < oldVisible.size(); i++) {
+			Node child = oldVisible.get(i);
+			if (newSet.contains(child)) {
+				kept.add(child);
+			} else {
+				indexes.add(i);
+				nodes.add(child);
+				forget(child);
+			}
+		}
+
+		node.visible = kept;
+		if (!nodes.isEmpty()) {
+			fireRemoved(path, indexes, nodes);
+		}
+
+		// The kept nodes must still be in the same order
+		List<Node> keptInNew = new ArrayList<Node>();
+		for (Node child : newVisible) {
+			if (oldSet.contains(child)) {
+				keptInNew.add(child);
+			}
+		}
+
+		node.visible = newVisible;
+		if (!keptInNew.equals(kept)) {
+			for (Node child : kept) {
+				forget(child);
+			}
+			fireStructureChanged(path);
+			return;
+		}
+
+		// Inserted and changed
+		indexes.clear();
+		nodes.clear();
+		List<Integer> changedIndexes = new ArrayList<Integer>();
+		List<Node> changedNodes = new ArrayList<Node>();
+		for (int i = 0; i < newVisible.size(); i++) {
+			Node child = newVisible.get(i);
+			if (!oldSet.contains(child)) {
+				indexes.add(i);
+				nodes.add(child);
+			} else if (changed.contains(child)) {
+				changedIndexes.add(i);
+				changedNodes.add(child);
+			}
+		}
+
+		if (!nodes.isEmpty()) {
+			fireInserted(path, indexes, nodes);
+		}
+		if (!changedNodes.isEmpty()) {
+			fireChanged(path, changedIndexes, changedNodes);
+		}
+
+		for (Node child : kept) {
+			refresh(child, changed);
+		}
+	}
+
+	/**
+	 * Forget the visible children of this node and of its children, since the
+	 * tree does not know about them anymore.
+	 * 
+	 * @param node
+	 *            the node
+	 */
+	private void forget(Node node) {
+		if (node.visible != null) {
+			for (Node child : node.visible) {
+				forget(child);
+			}
+			node.visible = null;
+		}
+	}
+
+	/**
+	 * The visible children of this node, computed now if needed.
+	 * 
+	 * @param node
+	 *            the node
+	 * 
+	 * @return the visible children
+	 */
+	private List<Node> getVisible(Node node) {
+		if (node.visible == null) {
+			node.visible = computeVisible(node);
+		}
+
+		return node.visible;
+	}
+
+	/**
+	 * Compute the children of this node that should be visible with the
+	 * current filter.
+	 * 
+	 * @param node
+	 *            the node
+	 * 
+	 * @return the visible children
+	 */
+	private List<Node> computeVisible(Node node) {
+		check(node);
+		if (node.fullMatch) {
+			return new ArrayList<Node>(node.children);
+		}
+
+		List<Node> visible = new ArrayList<Node>();
+		for (Node child : node.children) {
+			check(child);
+			if (child.fullMatch || child.subtreeMatch) {
+				visible.add(child);
+			}
+		}
+
+		return visible;
+	}
+
+	/**
+	 * Count the visible nodes under this data (itself excluded), even in the
+	 * collapsed nodes, in one pass.
+	 * 
+	 * @param checker
+	 *            the {@link DataTreeBooks} to use to check the filter
+	 * @param data
+	 *            the data
+	 * @param filter
+	 *            the filter (never NULL)
+	 * @param fullMatch
+	 *            this data or one of its parents matches the filter
+	 * 
+	 * @return the number of visible nodes
+	 */
+	static private int count(DataTreeBooks checker,
+			DataNode<DataNodeBook> data, String filter, boolean fullMatch) {
+		int count = 0;
+		for (DataNode<DataNodeBook> child : data.getChildren()) {
+			DataNodeBook book = child.getUserData();
+			boolean childMatch = fullMatch || (book != null
+					&& checker.checkFilter(filter, book));
+
+			// Shown if it matches or if one of its children is shown
+			int sub = count(checker, child, filter, childMatch);
+			if (childMatch || sub > 0) {
+				count += 1 + sub;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Check this node against the current filter, if not already done.
+	 * 
+	 * @param node
+	 *            the node
+	 */
+	private void check(Node node) {
+		if (node.generation == generation) {
+			return;
+		}
+
+		node.generation = generation;
+		node.matches = matches(node);
+
+		node.fullMatch = node.matches;
+		if (node.parent != null) {
+			check(node.parent);
+			node.fullMatch |= node.parent.fullMatch;
+		}
+
+		node.subtreeMatch = false;
+		for (Node child : node.children) {
+			if (matchesOrChildMatches(child)) {
+				node.subtreeMatch = true;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Check if this node or one of its children matches the filter, without
+	 * taking the parents into account (so without calling
+	 * {@link BookTreeModel#check(Node)} on the children).
+	 * 
+	 * @param node
+	 *            the node
+	 * 
+	 * @return TRUE if it matches
+	 */
+	private boolean matchesOrChildMatches(Node node) {
+		if (matches(node)) {
+			return true;
+		}
+
+		for (Node child : node.children) {
+			if (matchesOrChildMatches(child)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Check if this node itself matches the filter.
+	 * 
+	 * @param node
+	 *            the node
+	 * 
+	 * @return TRUE if it matches
+	 */
+	private boolean matches(Node node) {
+		return filter.isEmpty() || (node.book != null
+				&& checker.checkFilter(filter, node.book));
+	}
+
+	/**
+	 * The path to this node.
+	 * 
+	 * @param node
+	 *            the node
+	 * 
+	 * @return the path
+	 */
+	private TreePath getPath(Node node) {
+		if (node.parent == null) {
+			return new TreePath(node);
+		}
+
+		return getPath(node.parent).pathByAddingChild(node);
+	}
+
+	private void fireRemoved(TreePath path, List<Integer> indexes,
+			List<Node> nodes) {
+		TreeModelEvent e = createEvent(path, indexes, nodes);
+		for (TreeModelListener l : new ArrayList<TreeModelListener>(
+				listeners)) {
+			l.treeNodesRemoved(e);
+		}
+	}
+
+	private void fireInserted(TreePath path, List<Integer> indexes,
+			List<Node> nodes) {
+		TreeModelEvent e = createEvent(path, indexes, nodes);
+		for (TreeModelListener l : new ArrayList<TreeModelListener>(
+				listeners)) {
+			l.treeNodesInserted(e);
+		}
+	}
+
+	private void fireChanged(TreePath path, List<Integer> indexes,
+			List<Node> nodes) {
+		TreeModelEvent e = createEvent(path, indexes, nodes);
+		for (TreeModelListener l : new ArrayList<TreeModelListener>(
+				listeners)) {
+			l.treeNodesChanged(e);
+		}
+	}
+
+	private void fireStructureChanged(TreePath path) {
+		TreeModelEvent e = new TreeModelEvent(this, path);
+		for (TreeModelListener l : new ArrayList<TreeModelListener>(
+				listeners)) {
+			l.treeStructureChanged(e);
+		}
+	}
+
+	private TreeModelEvent createEvent(TreePath path, List<Integer> indexes,
+			List<Node> nodes) {
+		int[] childIndices = new int[indexes.size()];
+		for (int i = 0; i < childIndices.length; i++) {
+			childIndices[i] = indexes.get(i);
+		}
+
+		return new TreeModelEvent(this, path, childIndices, nodes.toArray());
+	}
+
+	/**
+	 * A set of nodes based on their identity.
+	 * 
+	 * @param nodes
+	 *            the nodes to put in the set
+	 * 
+	 * @return the set
+	 */
+	static private Set<Node> newIdentitySet(List<Node> nodes) {
+		Map<Node, Boolean> map = new IdentityHashMap<Node, Boolean>();
+		for (Node node : nodes) {
+			map.put(node, true);
+		}
+
+		return map.keySet();
+	}
+
+	/**
+	 * The key of a book, which identifies it within its parent (its type and
+	 * path, without the final "/" of the groups).
+	 * 
+	 * @param book
+	 *            the book (can be NULL)
+	 * 
+	 * @return the key
+	 */
+	static private String getKey(DataNodeBook book) {
+		if (book == null) {
+			return "";
+		}
+
+		String path = book.getPath();
+		if (path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+
+		return book.getType() + ":" + path;
+	}
+
+	/**
+	 * Check if both books are shown the same way.
+	 * 
+	 * @param book1
+	 *            the first book
+	 * @param book2
+	 *            the second book
+	 * 
+	 * @return TRUE if they are
+	 */
+	static private boolean same(DataNodeBook book1, DataNodeBook book2) {
+		if (book1 == null || book2 == null) {
+			return book1 == book2;
+		}
+
+		return book1.getDisplay().equals(book2.getDisplay())
+				&& book1.getCount() == book2.getCount();
+	}
+}
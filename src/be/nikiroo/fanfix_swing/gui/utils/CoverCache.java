@@ -0,0 +1,517 @@
+package be.nikiroo.fanfix_swing.gui.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A two-tier cache for the cover thumbnails.
+ * <p>
+ * The first tier is a size-bounded, in-memory LRU of decoded
+ * {@link BufferedImage}s; the second one is an on-disk store of the raw,
+ * uncompressed pixels, which are read back in one go so that we never have to
+ * decode a compressed image again for a thumbnail we already generated.
+ * <p>
+ * Both tiers are bounded by a byte budget (the least recently used thumbnails
+ * are evicted first).
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author niki
+ */
+public class CoverCache {
+	/** Marker at the start of each file of the on-disk store. */
+	static private final int MAGIC = 0x46465448; // "FFTH"
+	/** Extension of the files of the on-disk store. */
+	static private final String EXT = ".raw";
+
+	private File dir;
+	private long maxMemory;
+	private long maxDisk;
+
+	private Map<String, BufferedImage> memory = new LinkedHashMap<String, BufferedImage>(
+			16, 0.75f, true);
+	private long memorySize;
+	private long diskSize = -1; // -1 = unknown yet
+
+	private long memoryHits;
+	private long diskHits;
+	private long misses;
+
+	/**
+	 * Create a new {@link CoverCache}.
+	 *
+	 * @param dir
+	 *            the directory where to store the raw thumbnails (can be NULL,
+	 *            in which case only the memory tier will be used)
+	 * @param maxMemory
+	 *            the maximum number of bytes of decoded thumbnails to keep in
+	 *            memory
+	 * @param maxDisk
+	 *            the maximum number of bytes of raw thumbnails to keep on disk
+	 */
+	public CoverCache(File dir, long maxMemory, long maxDisk) {
+		this.dir = dir;
+		this.maxMemory = maxMemory;
+		this.maxDisk = maxDisk;
+	}
+
+	/**
+	 * Retrieve the thumbnail with the given ID, if it is in one of the tiers.
+	 *
+	 * @param id
+	 *            the ID of the thumbnail (can be NULL)
+	 *
+	 * @return the thumbnail, or NULL if not found (a corrupted file on disk is
+	 *         also deleted and counted as not found)
+	 */
+	public BufferedImage get(String id) {
+		if (id == null) {
+			return null;
+		}
+
+		synchronized (this) {
+			BufferedImage image = memory.get(id);
+			if (image != null) {
+				memoryHits++;
+				return image;
+			}
+		}
+
+		BufferedImage image = null;
+		File file = getFile(id);
+		if (file != null && file.exists()) {
+			try {
+				image = read(file, id);
+				// So the least recently used files are evicted first
+				file.setLastModified(System.currentTimeMillis());
+			} catch (IOException e) {
+				remove(id);
+			}
+		}
+
+		synchronized (this) {
+			if (image != null) {
+				diskHits++;
+				putInMemory(id, image);
+			} else {
+				misses++;
+			}
+		}
+
+		return image;
+	}
+
+	/**
+	 * Add the given thumbnail into both tiers of the cache.
+	 *
+	 * @param id
+	 *            the ID of the thumbnail (if NULL, nothing will be done)
+	 * @param image
+	 *            the thumbnail (if NULL, nothing will be done)
+	 */
+	public void put(String id, BufferedImage image) {
+		if (id == null || image == null) {
+			return;
+		}
+
+		synchronized (this) {
+			putInMemory(id, image);
+		}
+
+		File file = getFile(id);
+		if (file != null) {
+			try {
+				// The file of an older thumbnail is replaced
+				long old = file.exists() ? file.length() : 0;
+				long size = write(file, id, image);
+				synchronized (this) {
+					if (diskSize >= 0) {
+						diskSize += size - old;
+					}
+				}
+				trimDisk();
+			} catch (IOException e) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Remove the given thumbnail from both tiers of the cache.
+	 *
+	 * @param id
+	 *            the ID of the thumbnail (can be NULL)
+	 */
+	public void remove(String id) {
+		if (id == null) {
+			return;
+		}
+
+		synchronized (this) {
+			BufferedImage image = memory.remove(id);
+			if (image != null) {
+				memorySize -= getSize(image);
+			}
+
+			File file = getFile(id);
+			if (file != null && file.exists()) {
+				long size = file.length();
+				if (file.delete() && diskSize >= 0) {
+					diskSize -= size;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The maximum number of bytes of decoded thumbnails to keep in memory.
+	 *
+	 * @return the memory budget
+	 */
+	public synchronized long getMaxMemory() {
+		return maxMemory;
+	}
+
+	/**
+	 * The maximum number of bytes of decoded thumbnails to keep in memory.
+	 *
+	 * @param maxMemory
+	 *            the new memory budget
+	 */
+	public synchronized void setMaxMemory(long maxMemory) {
+		this.maxMemory = maxMemory;
+		trimMemory();
+	}
+
+	/**
+	 * The maximum number of bytes of raw thumbnails to keep on disk.
+	 *
+	 * @return the disk budget
+	 */
+	public synchronized long getMaxDisk() {
+		return maxDisk;
+	}
+
+	/**
+	 * The maximum number of bytes of raw thumbnails to keep on disk.
+	 *
+	 * @param maxDisk
+	 *            the new disk budget
+	 */
+	public void setMaxDisk(long maxDisk) {
+		synchronized (this) {
+			this.maxDisk = maxDisk;
+		}
+		trimDisk();
+	}
+
+	/**
+	 * The number of thumbnails found in the memory tier.
+	 *
+	 * @return the number of hits
+	 */
+	public synchronized long getMemoryHits() {
+		return memoryHits;
+	}
+
+	/**
+	 * The number of thumbnails found in the disk tier (but not in the memory
+	 * tier).
+	 *
+	 * @return the number of hits
+	 */
+	public synchronized long getDiskHits() {
+		return diskHits;
+	}
+
+	/**
+	 * The number of thumbnails found in none of the tiers.
+	 *
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"CoverCache: memory %d hits (%d/%d bytes), "
+						+ "disk %d hits (%d/%d bytes), %d misses",
+				memoryHits, memorySize, maxMemory, diskHits, diskSize, maxDisk,
+				misses);
+	}
+
+	/**
+	 * Add the image into the memory tier then trim it if needed.
+	 * <p>
+	 * Must be called while holding the lock.
+	 *
+	 * @param id
+	 *            the ID of the thumbnail
+	 * @param image
+	 *            the thumbnail
+	 */
+	private void putInMemory(String id, BufferedImage image) {
+		BufferedImage old = memory.put(id, image);
+		if (old != null) {
+			memorySize -= getSize(old);
+		}
+		memorySize += getSize(image);
+
+		trimMemory();
+	}
+
+	/**
+	 * Evict the least recently used thumbnails from the memory tier until we
+	 * are back within budget.
+	 * <p>
+	 * Must be called while holding the lock.
+	 */
+	private void trimMemory() {
+		Iterator<Entry<String, BufferedImage>> it = memory.entrySet()
+				.iterator();
+		while (memorySize > maxMemory && it.hasNext()) {
+			memorySize -= getSize(it.next().getValue());
+			it.remove();
+		}
+	}
+
+	/**
+	 * Evict the least recently used thumbnails from the disk tier until we are
+	 * back within budget.
+	 * <p>
+	 * We actually evict down to 90% of the budget, so we do not need to scan
+	 * the directory on each new thumbnail.
+	 */
+	private void trimDisk() {
+		if (dir == null) {
+			return;
+		}
+
+		synchronized (this) {
+			if (diskSize >= 0 && diskSize <= maxDisk) {
+				return;
+			}
+
+			File[] files = dir.listFiles();
+			if (files == null) {
+				return;
+			}
+
+			diskSize = 0;
+			for (File file : files) {
+				if (file.getName().endsWith(EXT)) {
+					diskSize += file.length();
+				}
+			}
+
+			if (diskSize <= maxDisk) {
+				return;
+			}
+
+			Arrays.sort(files, new Comparator<File>() {
+				@Override
+				public int compare(File o1, File o2) {
+					long diff = o1.lastModified() - o2.lastModified();
+					return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+				}
+			});
+
+			long target = (maxDisk / 10) * 9;
+			for (File file : files) {
+				if (diskSize <= target) {
+					break;
+				}
+
+				if (file.getName().endsWith(EXT)) {
+					long size = file.length();
+					if (file.delete()) {
+						diskSize -= size;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The file in which we store the thumbnail with this ID.
+	 *
+	 * @param id
+	 *            the ID of the thumbnail
+	 *
+	 * @return the file, or NULL if we have no disk tier
+	 */
+	private File getFile(String id) {
+		if (dir == null) {
+			return null;
+		}
+
+		try {
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			StringBuilder name = new StringBuilder();
+			for (byte b : md5.digest(id.getBytes("UTF-8"))) {
+				name.append(String.format("%02x", b));
+			}
+
+			return new File(dir, name.toString() + EXT);
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Read a thumbnail from the disk tier.
+	 * <p>
+	 * The file is read in one go into a buffer, and the pixels are copied from
+	 * it directly into the pixels of the new image (the file is not mapped in
+	 * memory, so it can be replaced or deleted right after, even on Windows).
+	 *
+	 * @param file
+	 *            the file to read
+	 * @param id
+	 *            the ID we expect to find in the file
+	 *
+	 * @return the thumbnail
+	 *
+	 * @throws IOException
+	 *             in case of I/O error, or if the file is not a (complete)
+	 *             thumbnail for this ID
+	 */
+	static private BufferedImage read(File file, String id)
+			throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Corrupted thumbnail file: " + file);
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// Read it all
+			}
+			buffer.flip();
+
+			if (buffer.remaining() < 16 || buffer.getInt() != MAGIC) {
+				throw new IOException("Not a thumbnail file: " + file);
+			}
+
+			// Once the ID is read, we still need the width and height
+			int idLength = buffer.getInt();
+			if (idLength < 0 || idLength > buffer.remaining() - 8) {
+				throw new IOException("Corrupted thumbnail file: " + file);
+			}
+
+			byte[] idBytes = new byte[idLength];
+			buffer.get(idBytes);
+			if (!id.equals(new String(idBytes, "UTF-8"))) {
+				throw new IOException("Thumbnail file of another ID: " + file);
+			}
+
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			if (width <= 0 || height <= 0 || buffer.remaining() % 4 != 0
+					|| (long) width * height != buffer.remaining() / 4) {
+				throw new IOException("Corrupted thumbnail file: " + file);
+			}
+
+			BufferedImage image = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_ARGB);
+			int[] pixels = ((DataBufferInt) image.getRaster()
+					.getDataBuffer()).getData();
+			buffer.asIntBuffer().get(pixels);
+
+			return image;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write a thumbnail into the disk tier.
+	 * <p>
+	 * The thumbnail is first written in a temporary file which is then renamed,
+	 * so a concurrent reader never sees a partial file.
+	 *
+	 * @param file
+	 *            the file to write
+	 * @param id
+	 *            the ID of the thumbnail
+	 * @param image
+	 *            the thumbnail
+	 *
+	 * @return the number of bytes written
+	 *
+	 * @throws IOException
+	 *             in case of I/O error
+	 */
+	static private long write(File file, String id, BufferedImage image)
+			throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+		byte[] idBytes = id.getBytes("UTF-8");
+
+		ByteBuffer buffer = ByteBuffer
+				.allocate(16 + idBytes.length + (4 * pixels.length));
+		buffer.putInt(MAGIC);
+		buffer.putInt(idBytes.length);
+		buffer.put(idBytes);
+		buffer.putInt(width);
+		buffer.putInt(height);
+		buffer.asIntBuffer().put(pixels);
+		buffer.rewind();
+
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getPath() + ".tmp"
+				+ Thread.currentThread().getId());
+		RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+		try {
+			out.setLength(0);
+			FileChannel channel = out.getChannel();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			out.close();
+		}
+
+		file.delete();
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Cannot rename the thumbnail file: " + tmp);
+		}
+
+		return file.length();
+	}
+
+	/**
+	 * The (approximate) number of bytes used by this image in memory.
+	 *
+	 * @param image
+	 *            the image
+	 *
+	 * @return the size in bytes
+	 */
+	static private long getSize(BufferedImage image) {
+		return 4L * image.getWidth() * image.getHeight();
+	}
+}
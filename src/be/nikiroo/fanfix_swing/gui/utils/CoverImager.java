@@ -3,14 +3,11 @@ package be.nikiroo.fanfix_swing.gui.utils;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 
-import javax.imageio.ImageIO;
-
 import be.nikiroo.fanfix.Instance;
 import be.nikiroo.fanfix.library.BasicLibrary;
 import be.nikiroo.fanfix_swing.gui.book.BookInfo;
@@ -30,8 +27,29 @@ public class CoverImager {
 	static private final int SPINE_WIDTH = 5;
 	static private final int SPINE_HEIGHT = 5;
 	static private final int HOFFSET = 20;
+	static private final long CACHE_MAX_MEMORY = 32 * 1024 * 1024;
+	static private final long CACHE_MAX_DISK = 256 * 1024 * 1024;
 	//
 
+	static private CoverCache cache;
+
+	/**
+	 * The cache used to keep the generated cover icons.
+	 * <p>
+	 * You can use it to change the memory and disk budgets, or to check the
+	 * hit/miss counters.
+	 * 
+	 * @return the cache
+	 */
+	static public synchronized CoverCache getCache() {
+		if (cache == null) {
+			cache = new CoverCache(new File(UiHelper.getDataDir(), "thumbs"),
+					CACHE_MAX_MEMORY, CACHE_MAX_DISK);
+		}
+
+		return cache;
+	}
+
 	/**
 	 * Get the background colour to use according to the given state.
 	 * 
@@ -89,17 +107,26 @@ public class CoverImager {
 	 */
 	static public java.awt.Image generateCoverImage(BasicLibrary lib,
 			BookInfo info) {
-		BufferedImage resizedImage = null;
 		String id = getIconId(info);
+		BufferedImage resizedImage = getCache().get(id);
 
-		InputStream in = Instance.getInstance().getCache().getFromCache(id);
-		if (in != null) {
-			try {
-				resizedImage = ImageUtilsAwt.fromImage(new Image(in));
-				in.close();
-				in = null;
-			} catch (IOException e) {
-				Instance.getInstance().getTraceHandler().error(e);
+		// Icons from older versions are still PNG-encoded in the main cache
+		if (resizedImage == null) {
+			InputStream in = Instance.getInstance().getCache()
+					.getFromCache(id);
+			if (in != null) {
+				try {
+					try {
+						resizedImage = ImageUtilsAwt.fromImage(new Image(in));
+					} finally {
+						in.close();
+					}
+
+					getCache().put(id, resizedImage);
+					Instance.getInstance().getCache().removeFromCache(id);
+				} catch (IOException e) {
+					Instance.getInstance().getTraceHandler().error(e);
+				}
 			}
 		}
 
@@ -138,13 +165,7 @@ public class CoverImager {
 
 				// Only save image with a cover, not the X thing
 				if (id != null && cover != null) {
-					ByteArrayOutputStream out = new ByteArrayOutputStream();
-					ImageIO.write(resizedImage, "png", out);
-					byte[] imageBytes = out.toByteArray();
-					in = new ByteArrayInputStream(imageBytes);
-					Instance.getInstance().getCache().addToCache(in, id);
-					in.close();
-					in = null;
+					getCache().put(id, resizedImage);
 				}
 			} catch (MalformedURLException e) {
 				Instance.getInstance().getTraceHandler().error(e);
@@ -164,6 +185,7 @@ public class CoverImager {
 	 */
 	static public void clearIcon(BookInfo info) {
 		String id = getIconId(info);
+		getCache().remove(id);
 		Instance.getInstance().getCache().removeFromCache(id);
 	}
 
@@ -0,0 +1,194 @@
+package be.nikiroo.fanfix_swing.gui.utils;
+
+import java.awt.Image;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import be.nikiroo.fanfix.Instance;
+import be.nikiroo.fanfix.library.BasicLibrary;
+import be.nikiroo.fanfix_swing.gui.book.BookInfo;
+
+/**
+ * Generate the cover images of a list of books (see
+ * {@link CoverImager#generateCoverImage(BasicLibrary, BookInfo)}) in parallel,
+ * in a given order.
+ * <p>
+ * The caller gives the ordered list of books it wants the covers of (usually:
+ * the visible ones first, then the next screen in the scroll direction); each
+ * new list replaces the previous one, so the books that are not wanted anymore
+ * are cancelled if they are not yet being processed.
+ * <p>
+ * The results are given back in the UI thread in batches, with one call to the
+ * {@link CoverListener} per batch.
+ *
+ * @author niki
+ */
+public class CoverScheduler {
+	/**
+	 * Receive the generated covers.
+	 *
+	 * @author niki
+	 */
+	public interface CoverListener {
+		/**
+		 * Some covers were generated.
+		 * <p>
+		 * Called in the UI thread.
+		 *
+		 * @param covers
+		 *            the generated covers, in the order they were generated
+		 */
+		public void coversReady(Map<BookInfo, Image> covers);
+	}
+
+	private CoverListener listener;
+	private ThreadPoolExecutor executor;
+
+	private Object lock = new Object();
+	private LinkedList<BookInfo> queue = new LinkedList<BookInfo>();
+	private Set<String> running = new HashSet<String>();
+	private int waitingTasks;
+	private Map<BookInfo, Image> results = new LinkedHashMap<BookInfo, Image>();
+	private boolean flushPending;
+
+	/**
+	 * Create a new {@link CoverScheduler} with one thread per available
+	 * processor (at least 2).
+	 *
+	 * @param listener
+	 *            the listener that will receive the covers
+	 */
+	public CoverScheduler(CoverListener listener) {
+		this(Math.max(2, Runtime.getRuntime().availableProcessors()),
+				listener);
+	}
+
+	/**
+	 * Create a new {@link CoverScheduler}.
+	 *
+	 * @param threads
+	 *            the maximum number of covers to generate at the same time
+	 * @param listener
+	 *            the listener that will receive the covers
+	 */
+	public CoverScheduler(int threads, CoverListener listener) {
+		this.listener = listener;
+
+		executor = new ThreadPoolExecutor(threads, threads, 10,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private int count = 0;
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r,
+								"Cover generator #" + (++count));
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Set the books we want the covers of, most wanted first.
+	 * <p>
+	 * This list replaces the previous one: the books which are not in it
+	 * anymore and are not yet being processed are cancelled.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	public void setQueue(List<BookInfo> books) {
+		synchronized (lock) {
+			queue.clear();
+			for (BookInfo book : books) {
+				if (!running.contains(book.getId())) {
+					queue.add(book);
+				}
+			}
+
+			while (waitingTasks < queue.size()) {
+				waitingTasks++;
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						generateNext();
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Cancel all the books that are not yet being processed.
+	 */
+	public void clear() {
+		synchronized (lock) {
+			queue.clear();
+		}
+	}
+
+	/**
+	 * Generate the cover of the next book in the queue, if any.
+	 */
+	private void generateNext() {
+		BookInfo book;
+		synchronized (lock) {
+			waitingTasks--;
+			book = queue.poll();
+			if (book == null) {
+				return;
+			}
+
+			running.add(book.getId());
+		}
+
+		Image cover = null;
+		try {
+			BasicLibrary lib = Instance.getInstance().getLibrary();
+			cover = CoverImager.generateCoverImage(lib, book);
+		} catch (Exception e) {
+			Instance.getInstance().getTraceHandler().error(e);
+		}
+
+		boolean flush = false;
+		synchronized (lock) {
+			running.remove(book.getId());
+			if (cover != null) {
+				results.put(book, cover);
+				if (!flushPending) {
+					flushPending = true;
+					flush = true;
+				}
+			}
+		}
+
+		if (flush) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					Map<BookInfo, Image> batch;
+					synchronized (lock) {
+						batch = results;
+						results = new LinkedHashMap<BookInfo, Image>();
+						flushPending = false;
+					}
+
+					listener.coversReady(batch);
+				}
+			});
+		}
+	}
+}
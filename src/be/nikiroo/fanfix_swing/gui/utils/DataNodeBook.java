@@ -11,6 +11,7 @@ public class DataNodeBook {
 	private boolean root;
 
 	private String display;
+	private int count = -1;
 
 	// root node
 	public DataNodeBook(Type type, boolean children) {
@@ -88,6 +89,15 @@ public class DataNodeBook {
 		this.display = display;
 	}
 
+	// number of stories, -1 if unknown
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
 	public boolean isRoot() {
 		return root;
 	}
@@ -6,8 +6,6 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
-import be.nikiroo.fanfix.Instance;
-import be.nikiroo.fanfix.library.MetaResultList;
 import be.nikiroo.fanfix_swing.gui.book.BookInfo.Type;
 import be.nikiroo.utils.ui.DataNode;
 import be.nikiroo.utils.ui.DataTree;
@@ -45,13 +43,11 @@ public class DataTreeBooks {
 	private DataTreeSort authors;
 	private DataTreeSort tags;
 
-	private MetaResultList list;
+	private LibrarySnapshot snapshot;
 
 	// flat = force flat mode (no [A-B] groups)
 	public DataTreeBooks(final boolean flatSources, final boolean flatAuthors,
 			final boolean flatTags) {
-		list = new MetaResultList(null);
-
 		sources = new DataTreeSort() {
 			@Override
 			public boolean checkFilter(String filter, DataNodeBook userData) {
@@ -63,11 +59,15 @@ public class DataTreeBooks {
 
 			@Override
 			protected DataNode<DataNodeBook> extractData() throws IOException {
+				if (snapshot == null) {
+					return getNodeFlat(new ArrayList<String>(), Type.SOURCE);
+				}
+
 				if (flatSources) {
-					return getNodeFlat(list.getSources(), Type.SOURCE);
+					return getNodeFlat(snapshot.getSources(), Type.SOURCE);
 				}
 
-				Map<String, List<String>> sourcesGrouped = list
+				Map<String, List<String>> sourcesGrouped = snapshot
 						.getSourcesGrouped();
 				return getNodeGrouped(this, sourcesGrouped, Type.SOURCE);
 			}
@@ -87,11 +87,15 @@ public class DataTreeBooks {
 
 			@Override
 			protected DataNode<DataNodeBook> extractData() throws IOException {
+				if (snapshot == null) {
+					return getNodeFlat(new ArrayList<String>(), Type.AUTHOR);
+				}
+
 				if (flatAuthors) {
-					return getNodeFlat(list.getAuthors(), Type.AUTHOR);
+					return getNodeFlat(snapshot.getAuthors(), Type.AUTHOR);
 				}
 
-				Map<String, List<String>> authorsGrouped = list
+				Map<String, List<String>> authorsGrouped = snapshot
 						.getAuthorsGrouped();
 
 				if (authorsGrouped.size() == 1) {
@@ -118,11 +122,16 @@ public class DataTreeBooks {
 
 			@Override
 			protected DataNode<DataNodeBook> extractData() throws IOException {
+				if (snapshot == null) {
+					return getNodeFlat(new ArrayList<String>(), Type.TAG);
+				}
+
 				if (flatTags) {
-					return getNodeFlat(list.getTags(), Type.TAG);
+					return getNodeFlat(snapshot.getTags(), Type.TAG);
 				}
 
-				return getNodeGrouped(this, list.getTagsGrouped(), Type.TAG);
+				return getNodeGrouped(this, snapshot.getTagsGrouped(),
+						Type.TAG);
 			}
 
 			@Override
@@ -144,9 +153,20 @@ public class DataTreeBooks {
 		return tags;
 	}
 
+	// use the current snapshot of the library (see LibraryService)
 	public DataNode<DataNodeBook> loadData() throws IOException {
 		reloadList();
+		return buildRoot();
+	}
 
+	// use the given snapshot of the library (e.g., the one just published)
+	public DataNode<DataNodeBook> loadData(LibrarySnapshot snapshot)
+			throws IOException {
+		this.snapshot = snapshot;
+		return buildRoot();
+	}
+
+	private DataNode<DataNodeBook> buildRoot() throws IOException {
 		List<? extends DataNode<DataNodeBook>> children = null;
 
 		children = sources.loadData(false).getChildren();
@@ -185,7 +205,16 @@ public class DataTreeBooks {
 	}
 
 	private void reloadList() throws IOException {
-		list = Instance.getInstance().getLibrary().getList();
+		snapshot = LibraryService.getInstance().getSnapshot();
+	}
+
+	// -1 if not loaded yet
+	private int getCount(DataNodeBook book) {
+		if (snapshot == null || book.getType() == null) {
+			return -1;
+		}
+
+		return snapshot.getCounts().getCount(book.getType(), book.getPath());
 	}
 
 	private DataNode<DataNodeBook> getNodeFlat(List<String> flatData,
@@ -197,6 +226,7 @@ public class DataTreeBooks {
 			if (data == null || data.isEmpty()) {
 				dnb.setDisplay("[unknown]");
 			}
+			dnb.setCount(getCount(dnb));
 			nodes.add(new DataNode<DataNodeBook>(null, dnb));
 		}
 
@@ -211,7 +241,9 @@ public class DataTreeBooks {
 		List<String> values = new ArrayList<String>(valuesGrouped.keySet());
 		tree.sort(values);
 		for (String value : values) {
-			List<String> children = valuesGrouped.get(value);
+			// the lists are shared with the snapshot, we sort a copy
+			List<String> children = new ArrayList<String>(
+					valuesGrouped.get(value));
 
 			boolean emptyLoneChild = children.size() == 1
 					&& children.get(0).trim().isEmpty();
@@ -222,6 +254,7 @@ public class DataTreeBooks {
 				hasChildren = false;
 			}
 
+			int count = 0;
 			List<DataNode<DataNodeBook>> subnodes = new ArrayList<DataNode<DataNodeBook>>();
 			if (hasChildren) {
 				tree.sort(children);
@@ -234,11 +267,19 @@ public class DataTreeBooks {
 						book.setDisplay(" ");
 					if (emptyLoneChild)
 						book.setDisplay("[unknown]");
+					book.setCount(getCount(book));
+					count += book.getCount();
 					subnodes.add(new DataNode<DataNodeBook>(null, book));
 				}
 			}
 
 			DataNodeBook dnb = new DataNodeBook(type, value, "", hasChildren);
+			if (type == Type.SOURCE || !hasChildren) {
+				// Sources groups are sources too, with their own count
+				dnb.setCount(getCount(dnb));
+			} else {
+				dnb.setCount(snapshot == null ? -1 : count);
+			}
 			nodes.add(new DataNode<DataNodeBook>(subnodes, dnb));
 		}
 
@@ -0,0 +1,387 @@
+package be.nikiroo.fanfix_swing.gui.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.SwingUtilities;
+
+import be.nikiroo.fanfix.Instance;
+import be.nikiroo.fanfix.data.MetaData;
+import be.nikiroo.fanfix_swing.gui.book.BookInfo.Type;
+
+/**
+ * The number of stories per source, author and tag of the library.
+ * <p>
+ * The counts are computed in one pass over the library (see
+ * {@link LibrarySnapshot}), then kept up to date when stories are imported,
+ * deleted or moved (see {@link FacetCounts#storyAdded(MetaData)},
+ * {@link FacetCounts#storyRemoved(MetaData)} and
+ * {@link FacetCounts#storyMoved(MetaData, Type, String)}), so asking for a
+ * count does not require to scan the library again.
+ * <p>
+ * The stories are counted by LUID: importing again a story already in the
+ * library (a re-download, for instance) replaces its previous counts instead
+ * of counting it twice.
+ * <p>
+ * The sources support the same hierarchy as the library: "source/" counts the
+ * stories of "source" and of all the "source/*" sources.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author niki
+ */
+public class FacetCounts {
+	/**
+	 * What a story was counted as.
+	 * 
+	 * @author niki
+	 */
+	private class Facets {
+		public String source;
+		public String author;
+		public List<String> tags;
+
+		/**
+		 * Create the {@link Facets} of this story.
+		 * 
+		 * @param meta
+		 *            the story
+		 */
+		public Facets(MetaData meta) {
+			source = meta.getSource();
+			author = meta.getAuthor();
+			tags = meta.getTags() == null ? new ArrayList<String>()
+					: new ArrayList<String>(meta.getTags());
+		}
+	}
+
+	private int total;
+	private Map<String, Facets> stories = new HashMap<String, Facets>();
+	private Map<String, Integer> sources = new HashMap<String, Integer>();
+	private Map<String, Integer> sourceGroups = new HashMap<String, Integer>();
+	private Map<String, Integer> authors = new HashMap<String, Integer>();
+	private Map<String, Integer> tags = new HashMap<String, Integer>();
+
+	/**
+	 * Count the stories of the given list.
+	 * 
+	 * @param metas
+	 *            the stories
+	 */
+	public FacetCounts(List<MetaData> metas) {
+		for (MetaData meta : metas) {
+			add(meta);
+		}
+	}
+
+	/**
+	 * The counts of the current {@link LibrarySnapshot} of the main library
+	 * (see {@link LibraryService}).
+	 * <p>
+	 * The library is never read in the UI thread: if the snapshot is not
+	 * loaded yet, it is loaded in the background (the listeners of the
+	 * {@link LibraryService} are notified when it is ready) and the counts are
+	 * empty for now.
+	 * 
+	 * @return the counts (empty if the library cannot be read, or is not
+	 *         loaded yet and we are in the UI thread)
+	 */
+	static public FacetCounts getInstance() {
+		FacetCounts counts = getLoadedInstance();
+		if (counts != null) {
+			return counts;
+		}
+
+		if (SwingUtilities.isEventDispatchThread()) {
+			LibraryService.getInstance().reload();
+			return new FacetCounts(new ArrayList<MetaData>());
+		}
+
+		try {
+			return LibraryService.getInstance().getSnapshot().getCounts();
+		} catch (IOException e) {
+			Instance.getInstance().getTraceHandler().error(e);
+			return new FacetCounts(new ArrayList<MetaData>());
+		}
+	}
+
+	/**
+	 * A story was imported in the library.
+	 * 
+	 * @param meta
+	 *            the story (can be NULL, in which case nothing happens)
+	 */
+	static public void storyAdded(MetaData meta) {
+		FacetCounts counts = getLoadedInstance();
+		if (counts != null && meta != null) {
+			counts.add(meta);
+		}
+	}
+
+	/**
+	 * A story was deleted from the library.
+	 * 
+	 * @param meta
+	 *            the story (can be NULL, in which case nothing happens)
+	 */
+	static public void storyRemoved(MetaData meta) {
+		FacetCounts counts = getLoadedInstance();
+		if (counts != null && meta != null) {
+			counts.remove(meta);
+		}
+	}
+
+	/**
+	 * A story was moved to another source or author.
+	 * 
+	 * @param meta
+	 *            the story, as it was before the move
+	 * @param type
+	 *            {@link Type#SOURCE} or {@link Type#AUTHOR} (nothing happens
+	 *            for other types)
+	 * @param to
+	 *            the new source or author
+	 */
+	static public void storyMoved(MetaData meta, Type type, String to) {
+		FacetCounts counts = getLoadedInstance();
+		if (counts != null && meta != null) {
+			counts.move(meta, type, to);
+		}
+	}
+
+	/**
+	 * The number of stories in the library.
+	 * 
+	 * @return the number of stories
+	 */
+	public synchronized int getTotal() {
+		return total;
+	}
+
+	/**
+	 * The number of stories in this source (or in this group of sources if it
+	 * ends with a "/").
+	 * 
+	 * @param source
+	 *            the source, or NULL for all of them
+	 * 
+	 * @return the number of stories
+	 */
+	public synchronized int getSourceCount(String source) {
+		if (source == null) {
+			return total;
+		}
+
+		if (source.endsWith("/")) {
+			return get(sourceGroups, source);
+		}
+
+		return get(sources, source);
+	}
+
+	/**
+	 * The number of stories of this author.
+	 * 
+	 * @param author
+	 *            the author, or NULL for all of them
+	 * 
+	 * @return the number of stories
+	 */
+	public synchronized int getAuthorCount(String author) {
+		return author == null ? total : get(authors, author);
+	}
+
+	/**
+	 * The number of stories with this tag.
+	 * 
+	 * @param tag
+	 *            the tag, or NULL for all of them
+	 * 
+	 * @return the number of stories
+	 */
+	public synchronized int getTagCount(String tag) {
+		return tag == null ? total : get(tags, tag);
+	}
+
+	/**
+	 * The number of stories for this value of the given type.
+	 * 
+	 * @param type
+	 *            the type of value
+	 * @param value
+	 *            the value, or NULL for all of them
+	 * 
+	 * @return the number of stories
+	 */
+	public int getCount(Type type, String value) {
+		switch (type) {
+		case SOURCE:
+			return getSourceCount(value);
+		case AUTHOR:
+			return getAuthorCount(value);
+		case TAG:
+			return getTagCount(value);
+		default:
+			return total;
+		}
+	}
+
+	/**
+	 * Count this story (instead of its previous version, if a story with the
+	 * same LUID is already counted).
+	 * 
+	 * @param meta
+	 *            the story
+	 */
+	public synchronized void add(MetaData meta) {
+		Facets facets = new Facets(meta);
+		Facets previous = meta.getLuid() == null ? null : stories.put(
+				meta.getLuid(), facets);
+		if (previous != null) {
+			change(previous, -1);
+		}
+
+		change(facets, 1);
+	}
+
+	/**
+	 * Stop counting this story (nothing happens if a story with the same LUID
+	 * is not counted).
+	 * 
+	 * @param meta
+	 *            the story
+	 */
+	public synchronized void remove(MetaData meta) {
+		if (meta.getLuid() == null) {
+			change(new Facets(meta), -1);
+			return;
+		}
+
+		Facets previous = stories.remove(meta.getLuid());
+		if (previous != null) {
+			change(previous, -1);
+		}
+	}
+
+	/**
+	 * Move one story to another source or author (nothing happens if a story
+	 * with the same LUID is not counted).
+	 * 
+	 * @param meta
+	 *            the story, as it was before the move
+	 * @param type
+	 *            {@link Type#SOURCE} or {@link Type#AUTHOR} (nothing happens
+	 *            for other types)
+	 * @param to
+	 *            the new source or author
+	 */
+	public synchronized void move(MetaData meta, Type type, String to) {
+		Facets facets;
+		if (meta.getLuid() == null) {
+			// Not counted by LUID, we can only trust the given story
+			facets = new Facets(meta);
+		} else {
+			facets = stories.get(meta.getLuid());
+			if (facets == null) {
+				return;
+			}
+		}
+
+		if (type == Type.SOURCE) {
+			changeSource(facets.source, -1);
+			changeSource(to, 1);
+			facets.source = to;
+		} else if (type == Type.AUTHOR) {
+			inc(authors, facets.author, -1);
+			inc(authors, to, 1);
+			facets.author = to;
+		}
+	}
+
+	/**
+	 * Add the given delta to all the counts this story is part of.
+	 * 
+	 * @param facets
+	 *            the story
+	 * @param delta
+	 *            the delta to add
+	 */
+	private void change(Facets facets, int delta) {
+		total += delta;
+		changeSource(facets.source, delta);
+		inc(authors, facets.author, delta);
+		for (String tag : facets.tags) {
+			inc(tags, tag, delta);
+		}
+	}
+
+	/**
+	 * Add the given delta to the count of this source and of all the groups
+	 * it is part of ("a/b" is part of "a/" and "a/b/").
+	 * 
+	 * @param source
+	 *            the source
+	 * @param delta
+	 *            the delta to add
+	 */
+	private void changeSource(String source, int delta) {
+		source = source == null ? "" : source;
+		inc(sources, source, delta);
+
+		String path = source + "/";
+		for (int pos = path.indexOf('/'); pos >= 0; pos = path.indexOf('/',
+				pos + 1)) {
+			inc(sourceGroups, path.substring(0, pos + 1), delta);
+		}
+	}
+
+	/**
+	 * The counts of the current {@link LibrarySnapshot}, if already loaded.
+	 * 
+	 * @return the counts or NULL
+	 */
+	static private FacetCounts getLoadedInstance() {
+		LibrarySnapshot snapshot = LibraryService.getInstance()
+				.getLoadedSnapshot();
+		return snapshot == null ? null : snapshot.getCounts();
+	}
+
+	/**
+	 * Add the given delta to the count of this key.
+	 * 
+	 * @param counts
+	 *            the counts
+	 * @param key
+	 *            the key (NULL is the same as empty)
+	 * @param delta
+	 *            the delta to add
+	 */
+	static private void inc(Map<String, Integer> counts, String key,
+			int delta) {
+		key = key == null ? "" : key;
+		int count = get(counts, key) + delta;
+		if (count > 0) {
+			counts.put(key, count);
+		} else {
+			counts.remove(key);
+		}
+	}
+
+	/**
+	 * The count of this key.
+	 * 
+	 * @param counts
+	 *            the counts
+	 * @param key
+	 *            the key
+	 * 
+	 * @return the count (0 if unknown)
+	 */
+	static private int get(Map<String, Integer> counts, String key) {
+		Integer count = counts.get(key);
+		return count == null ? 0 : count;
+	}
+}
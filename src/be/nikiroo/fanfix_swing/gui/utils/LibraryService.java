@@ -0,0 +1,218 @@
+package be.nikiroo.fanfix_swing.gui.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+import be.nikiroo.fanfix.Instance;
+
+/**
+ * The shared {@link LibrarySnapshot} of the main library.
+ * <p>
+ * The library is only read once per change (see
+ * {@link LibraryService#reload()}), and the new snapshot is then pushed to all
+ * the {@link SnapshotListener}s, so the different parts of the UI do not need
+ * to each ask the library for its list of stories.
+ * 
+ * @author niki
+ */
+public class LibraryService {
+	/**
+	 * Receive the new snapshots of the library.
+	 * 
+	 * @author niki
+	 */
+	public interface SnapshotListener {
+		/**
+		 * A new snapshot of the library is available.
+		 * <p>
+		 * Called in the UI thread.
+		 * 
+		 * @param snapshot
+		 *            the new snapshot
+		 */
+		public void snapshotChanged(LibrarySnapshot snapshot);
+	}
+
+	static private LibraryService instance;
+
+	private LibrarySnapshot snapshot;
+	private long version;
+	private Object loadLock = new Object();
+	private List<SnapshotListener> listeners = new ArrayList<SnapshotListener>();
+
+	// UI thread only
+	private boolean loading;
+	private boolean reloadPending;
+
+	/**
+	 * Create a new {@link LibraryService} (see
+	 * {@link LibraryService#getInstance()}).
+	 */
+	private LibraryService() {
+	}
+
+	/**
+	 * The shared {@link LibraryService}.
+	 * 
+	 * @return the service
+	 */
+	static public synchronized LibraryService getInstance() {
+		if (instance == null) {
+			instance = new LibraryService();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * The current snapshot of the library, which will be loaded now if needed.
+	 * <p>
+	 * The service is not locked while loading, so
+	 * {@link LibraryService#getLoadedSnapshot()} never waits for it.
+	 * <p>
+	 * Do <b>NOT</b> use this method from the UI thread (see
+	 * {@link LibraryService#getLoadedSnapshot()} and
+	 * {@link LibraryService#reload()} instead).
+	 * 
+	 * @return the snapshot
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error when loading the snapshot
+	 */
+	public LibrarySnapshot getSnapshot() throws IOException {
+		// Only one first load at a time
+		synchronized (loadLock) {
+			LibrarySnapshot current = getLoadedSnapshot();
+			if (current != null) {
+				return current;
+			}
+
+			LibrarySnapshot loaded = load();
+			synchronized (this) {
+				if (snapshot == null
+						|| snapshot.getVersion() < loaded.getVersion()) {
+					snapshot = loaded;
+				}
+
+				return snapshot;
+			}
+		}
+	}
+
+	/**
+	 * The current snapshot of the library, if already loaded.
+	 * 
+	 * @return the snapshot or NULL
+	 */
+	public synchronized LibrarySnapshot getLoadedSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Read the library again (in the background), and notify the listeners
+	 * when the new snapshot is ready.
+	 * <p>
+	 * Can be called from any thread; multiple calls while the library is being
+	 * read will only cause one more read.
+	 */
+	public void reload() {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (loading) {
+					reloadPending = true;
+				} else {
+					startReload();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Add a listener that will receive the new snapshots.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public synchronized void addSnapshotListener(SnapshotListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove a listener added with
+	 * {@link LibraryService#addSnapshotListener(SnapshotListener)}.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public synchronized void removeSnapshotListener(SnapshotListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Read the library in the background, then notify the listeners.
+	 * <p>
+	 * Must be called in the UI thread.
+	 */
+	private void startReload() {
+		loading = true;
+		new SwingWorker<LibrarySnapshot, Void>() {
+			@Override
+			protected LibrarySnapshot doInBackground() throws Exception {
+				return load();
+			}
+
+			@Override
+			protected void done() {
+				loading = false;
+
+				try {
+					LibrarySnapshot newSnapshot = get();
+					List<SnapshotListener> listeners;
+					synchronized (LibraryService.this) {
+						if (snapshot != null && snapshot
+								.getVersion() > newSnapshot.getVersion()) {
+							newSnapshot = snapshot;
+						}
+						snapshot = newSnapshot;
+						listeners = new ArrayList<SnapshotListener>(
+								LibraryService.this.listeners);
+					}
+
+					for (SnapshotListener listener : listeners) {
+						listener.snapshotChanged(newSnapshot);
+					}
+				} catch (Exception e) {
+					Instance.getInstance().getTraceHandler().error(e);
+				}
+
+				if (reloadPending) {
+					reloadPending = false;
+					startReload();
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	 * Read the library and create a new snapshot.
+	 * 
+	 * @return the new snapshot
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error
+	 */
+	private LibrarySnapshot load() throws IOException {
+		long version;
+		synchronized (this) {
+			version = ++this.version;
+		}
+
+		return new LibrarySnapshot(version,
+				Instance.getInstance().getLibrary().getList());
+	}
+}
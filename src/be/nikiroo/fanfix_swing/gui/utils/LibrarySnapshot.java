@@ -0,0 +1,149 @@
+package be.nikiroo.fanfix_swing.gui.utils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import be.nikiroo.fanfix.data.MetaData;
+import be.nikiroo.fanfix.library.MetaResultList;
+
+/**
+ * The content of the library at a given time: the list of stories, and
+ * everything we usually compute from it (the sources, authors and tags, flat
+ * and grouped, and the number of stories for each of them).
+ * <p>
+ * Everything is computed once when the snapshot is created, and then shared
+ * by all the users of the snapshot (see {@link LibraryService}); the lists and
+ * groupings are still computed by the {@link MetaResultList}, one call each,
+ * only the counts are computed in a single pass over the stories.
+ * <p>
+ * The snapshot must be considered as read-only (the lists and maps are shared).
+ * 
+ * @author niki
+ */
+public class LibrarySnapshot {
+	private long version;
+	private MetaResultList list;
+
+	private List<String> sources;
+	private List<String> authors;
+	private List<String> tags;
+	private Map<String, List<String>> sourcesGrouped;
+	private Map<String, List<String>> authorsGrouped;
+	private Map<String, List<String>> tagsGrouped;
+
+	private FacetCounts counts;
+
+	/**
+	 * Create a new snapshot of the given list of stories.
+	 * 
+	 * @param version
+	 *            the version of this snapshot (a more recent snapshot has a
+	 *            higher version)
+	 * @param list
+	 *            the list of stories
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error
+	 */
+	public LibrarySnapshot(long version, MetaResultList list)
+			throws IOException {
+		this.version = version;
+		this.list = list;
+
+		sources = list.getSources();
+		authors = list.getAuthors();
+		tags = list.getTags();
+		sourcesGrouped = list.getSourcesGrouped();
+		authorsGrouped = list.getAuthorsGrouped();
+		tagsGrouped = list.getTagsGrouped();
+
+		List<MetaData> metas = list.filter((String) null, null, null);
+		counts = new FacetCounts(metas);
+	}
+
+	/**
+	 * The version of this snapshot (a more recent snapshot has a higher
+	 * version).
+	 * 
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * The list of stories.
+	 * 
+	 * @return the list
+	 */
+	public MetaResultList getList() {
+		return list;
+	}
+
+	/**
+	 * All the sources.
+	 * 
+	 * @return the sources
+	 */
+	public List<String> getSources() {
+		return sources;
+	}
+
+	/**
+	 * All the authors.
+	 * 
+	 * @return the authors
+	 */
+	public List<String> getAuthors() {
+		return authors;
+	}
+
+	/**
+	 * All the tags.
+	 * 
+	 * @return the tags
+	 */
+	public List<String> getTags() {
+		return tags;
+	}
+
+	/**
+	 * The sources, grouped by their first part ("a/b" is in "a").
+	 * 
+	 * @return the grouped sources
+	 */
+	public Map<String, List<String>> getSourcesGrouped() {
+		return sourcesGrouped;
+	}
+
+	/**
+	 * The authors, grouped by their first letters.
+	 * 
+	 * @return the grouped authors
+	 */
+	public Map<String, List<String>> getAuthorsGrouped() {
+		return authorsGrouped;
+	}
+
+	/**
+	 * The tags, grouped by their first letters.
+	 * 
+	 * @return the grouped tags
+	 */
+	public Map<String, List<String>> getTagsGrouped() {
+		return tagsGrouped;
+	}
+
+	/**
+	 * The number of stories per source, author and tag.
+	 * <p>
+	 * Contrary to the rest of the snapshot, they are kept up to date when
+	 * stories are imported, deleted or moved until the next snapshot is ready.
+	 * 
+	 * @return the counts
+	 */
+	public FacetCounts getCounts() {
+		return counts;
+	}
+}
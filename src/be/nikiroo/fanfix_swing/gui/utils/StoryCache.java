@@ -0,0 +1,264 @@
+package be.nikiroo.fanfix_swing.gui.utils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import be.nikiroo.fanfix.data.Chapter;
+import be.nikiroo.fanfix.data.Paragraph;
+import be.nikiroo.fanfix.data.Story;
+import be.nikiroo.fanfix.library.BasicLibrary;
+import be.nikiroo.utils.Image;
+
+/**
+ * The recently opened {@link Story}s of the main library, so opening again a
+ * book we just read does not ask the library to load it again.
+ * <p>
+ * The stories are kept within a budget (an estimation of their size: the size
+ * of their images plus the length of their text), the least recently opened
+ * being dropped first.
+ * <p>
+ * A story must be removed from the cache when it changes in the library (see
+ * {@link StoryCache#invalidate(String)}); a story which was being loaded at
+ * that time is not kept either, since it may be the old version.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author niki
+ */
+public class StoryCache {
+	/** The maximum estimated size of the stories kept, in bytes. */
+	static private final long BUDGET = 128 * 1024 * 1024;
+
+	static private StoryCache instance;
+
+	private long used;
+	private Map<String, Story> stories = new LinkedHashMap<String, Story>(16,
+			0.75f, true);
+	private Map<String, Long> sizes = new HashMap<String, Long>();
+	private Map<String, Integer> generations = new HashMap<String, Integer>();
+	private int clearGeneration;
+
+	/**
+	 * Create a new {@link StoryCache} (see {@link StoryCache#getInstance()}).
+	 */
+	private StoryCache() {
+	}
+
+	/**
+	 * The shared {@link StoryCache}.
+	 * 
+	 * @return the cache
+	 */
+	static public synchronized StoryCache getInstance() {
+		if (instance == null) {
+			instance = new StoryCache();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * The {@link Story} with this LUID, if it was recently opened.
+	 * 
+	 * @param luid
+	 *            the LUID of the story
+	 * 
+	 * @return the story, or NULL if it is not in the cache
+	 */
+	public synchronized Story peek(String luid) {
+		return stories.get(luid);
+	}
+
+	/**
+	 * The {@link Story} with this LUID, from the cache or else from the
+	 * library (it is then kept in the cache).
+	 * <p>
+	 * Do <b>NOT</b> use this method from the UI thread.
+	 * 
+	 * @param lib
+	 *            the library to load the story from if needed (the main
+	 *            library, the stories are only known by their LUIDs)
+	 * @param luid
+	 *            the LUID of the story
+	 * 
+	 * @return the story
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error when loading the story
+	 */
+	public Story get(BasicLibrary lib, String luid) throws IOException {
+		int generation;
+		int clearGeneration;
+		synchronized (this) {
+			Story story = stories.get(luid);
+			if (story != null) {
+				return story;
+			}
+
+			generation = getGeneration(luid);
+			clearGeneration = this.clearGeneration;
+		}
+
+		Story story = lib.getStory(luid, null);
+		if (story != null) {
+			put(luid, story, generation, clearGeneration);
+		}
+
+		return story;
+	}
+
+	/**
+	 * The {@link Story} with this LUID changed (or was deleted) in the
+	 * library, forget it.
+	 * 
+	 * @param luid
+	 *            the LUID of the story
+	 */
+	public synchronized void invalidate(String luid) {
+		generations.put(luid, getGeneration(luid) + 1);
+		remove(luid);
+	}
+
+	/**
+	 * Forget all the stories.
+	 */
+	public synchronized void clear() {
+		clearGeneration++;
+		generations.clear();
+		stories.clear();
+		sizes.clear();
+		used = 0;
+	}
+
+	/**
+	 * Keep this {@link Story}, then drop the least recently opened ones until
+	 * we are within the budget.
+	 * <p>
+	 * The story is not kept if it was invalidated (or the cache cleared) since
+	 * we started to load it.
+	 * 
+	 * @param luid
+	 *            the LUID of the story
+	 * @param story
+	 *            the story
+	 * @param generation
+	 *            the generation of the story when we started to load it
+	 * @param clearGeneration
+	 *            the generation of the cache when we started to load it
+	 */
+	private void put(String luid, Story story, int generation,
+			int clearGeneration) {
+		long size = getSize(story);
+		if (size > BUDGET) {
+			return;
+		}
+
+		synchronized (this) {
+			if (generation != getGeneration(luid)
+					|| clearGeneration != this.clearGeneration) {
+				return;
+			}
+
+			remove(luid);
+			stories.put(luid, story);
+			sizes.put(luid, size);
+			used += size;
+
+			Iterator<Entry<String, Story>> it = stories.entrySet().iterator();
+			while (used > BUDGET && it.hasNext()) {
+				Entry<String, Story> eldest = it.next();
+				if (eldest.getValue() != story) {
+					used -= sizes.remove(eldest.getKey());
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove this {@link Story} from the cache, if it is there.
+	 * <p>
+	 * Must be called while holding the lock.
+	 * 
+	 * @param luid
+	 *            the LUID of the story
+	 */
+	private void remove(String luid) {
+		if (stories.remove(luid) != null) {
+			used -= sizes.remove(luid);
+		}
+	}
+
+	/**
+	 * The number of times this {@link Story} was invalidated.
+	 * <p>
+	 * Must be called while holding the lock.
+	 * 
+	 * @param luid
+	 *            the LUID of the story
+	 * 
+	 * @return the generation
+	 */
+	private int getGeneration(String luid) {
+		Integer generation = generations.get(luid);
+		return generation == null ? 0 : generation;
+	}
+
+	/**
+	 * An estimation of the memory used by this {@link Story}: the size of its
+	 * images plus the length of its text.
+	 * 
+	 * @param story
+	 *            the story
+	 * 
+	 * @return the estimated size, in bytes
+	 */
+	static private long getSize(Story story) {
+		long size = getSize(story.getMeta().getCover());
+		if (story.getMeta().getResume() != null) {
+			size += getSize(story.getMeta().getResume());
+		}
+		for (Chapter chap : story.getChapters()) {
+			size += getSize(chap);
+		}
+
+		return size;
+	}
+
+	/**
+	 * An estimation of the memory used by this {@link Chapter}: the size of
+	 * its images plus the length of its text.
+	 * 
+	 * @param chap
+	 *            the chapter
+	 * 
+	 * @return the estimated size, in bytes
+	 */
+	static private long getSize(Chapter chap) {
+		long size = chap.getName() == null ? 0 : 2 * chap.getName().length();
+		for (Paragraph para : chap) {
+			if (para.getContent() != null) {
+				size += 2 * para.getContent().length();
+			}
+			size += getSize(para.getContentImage());
+		}
+
+		return size;
+	}
+
+	/**
+	 * The size of this {@link Image}.
+	 * 
+	 * @param image
+	 *            the image (can be NULL)
+	 * 
+	 * @return the size in bytes (0 for NULL)
+	 */
+	static private long getSize(Image image) {
+		return image == null ? 0 : image.getSize();
+	}
+}
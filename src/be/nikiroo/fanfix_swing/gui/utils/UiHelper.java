@@ -5,6 +5,7 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Window;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -68,6 +69,28 @@ public class UiHelper {
 		button.setBackground(pressed ? buttonPressed : buttonNormal);
 	}
 
+	/**
+	 * The directory where Fanfix-Swing keeps its own data (thumbnails...).
+	 * <p>
+	 * It is located inside the Fanfix configuration directory, which is taken
+	 * from the <tt>CONFIG_DIR</tt> system property or environment variable if
+	 * set, or <tt>~/.fanfix</tt> by default.
+	 * 
+	 * @return the directory (which may not exist yet)
+	 */
+	static public File getDataDir() {
+		String configDir = System.getProperty("CONFIG_DIR");
+		if (configDir == null) {
+			configDir = System.getenv("CONFIG_DIR");
+		}
+		if (configDir == null) {
+			configDir = new File(System.getProperty("user.home"), ".fanfix")
+					.getPath();
+		}
+
+		return new File(configDir, "fanfix-swing");
+	}
+
 	/**
 	 * Display an error message and log the linked {@link Exception}.
 	 * 
@@ -0,0 +1,112 @@
+package be.nikiroo.fanfix_swing.gui.viewer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The chapters of a story already converted for display, by slice (see
+ * {@link ViewerNonImages}).
+ * <p>
+ * The slices are kept within a budget (see {@link Sizer}), the least recently
+ * used being dropped first.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @param <T>
+ *            the type of a converted slice
+ * 
+ * @author niki
+ */
+public class ChapterCache<T> {
+	/**
+	 * Give the size of a converted slice.
+	 * 
+	 * @param <T>
+	 *            the type of a converted slice
+	 * 
+	 * @author niki
+	 */
+	public interface Sizer<T> {
+		/**
+		 * The size of the given converted slice, in the same unit as the
+		 * budget of the cache.
+		 * 
+		 * @param slice
+		 *            the slice
+		 * 
+		 * @return its size
+		 */
+		public long getSize(T slice);
+	}
+
+	private long budget;
+	private Sizer<T> sizer;
+	private long used;
+	private Map<String, T> slices = new LinkedHashMap<String, T>(16, 0.75f,
+			true);
+
+	/**
+	 * Create a new {@link ChapterCache}.
+	 * 
+	 * @param budget
+	 *            the maximum total size of the slices kept (see
+	 *            {@link Sizer})
+	 * @param sizer
+	 *            give the size of a slice
+	 */
+	public ChapterCache(long budget, Sizer<T> sizer) {
+		this.budget = budget;
+		this.sizer = sizer;
+	}
+
+	/**
+	 * The given slice of the given chapter, if it is in the cache.
+	 * 
+	 * @param chapter
+	 *            the chapter (0 for the description)
+	 * @param slice
+	 *            the slice of the chapter
+	 * 
+	 * @return the converted slice or NULL
+	 */
+	public synchronized T get(int chapter, int slice) {
+		return slices.get(chapter + ":" + slice);
+	}
+
+	/**
+	 * Keep the given slice of the given chapter, and drop the least recently
+	 * used slices if we are over budget.
+	 * 
+	 * @param chapter
+	 *            the chapter (0 for the description)
+	 * @param slice
+	 *            the slice of the chapter
+	 * @param converted
+	 *            the converted slice
+	 */
+	public synchronized void put(int chapter, int slice, T converted) {
+		T previous = slices.put(chapter + ":" + slice, converted);
+		if (previous != null) {
+			used -= sizer.getSize(previous);
+		}
+		used += sizer.getSize(converted);
+
+		Iterator<T> it = slices.values().iterator();
+		while (used > budget && it.hasNext()) {
+			T eldest = it.next();
+			if (eldest != converted) {
+				used -= sizer.getSize(eldest);
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drop all the slices.
+	 */
+	public synchronized void clear() {
+		slices.clear();
+		used = 0;
+	}
+}
@@ -0,0 +1,297 @@
+package be.nikiroo.fanfix_swing.gui.viewer;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import be.nikiroo.fanfix.data.Chapter;
+import be.nikiroo.fanfix.data.Paragraph;
+import be.nikiroo.fanfix.data.Paragraph.ParagraphType;
+import be.nikiroo.fanfix.data.Story;
+import be.nikiroo.utils.Image;
+import be.nikiroo.utils.ui.ImageUtilsAwt;
+import be.nikiroo.utils.ui.ImageUtilsAwt.Rotation;
+
+/**
+ * The pages of an images document, resolved on demand.
+ * <p>
+ * Only the position of each page in the {@link Story} is kept (the cover if
+ * not fake, then all the image paragraphs); the {@link Image} of a page is
+ * only fetched when needed, and only the decoded pages around the current one
+ * are kept in memory (see {@link ImagePageSource#setCurrent(int)}).
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author niki
+ */
+public class ImagePageSource {
+	private Story story;
+	private boolean cover;
+	private int size;
+	private int[] chapters;
+	private int[] paragraphs;
+	private Dimension[] sizes;
+
+	private int window;
+	private int current;
+	private Rotation rotation = Rotation.NONE;
+	private Map<Integer, BufferedImage> decoded = new HashMap<Integer, BufferedImage>();
+
+	/**
+	 * Create a new {@link ImagePageSource} for this {@link Story}.
+	 * <p>
+	 * Only the pages are counted, no image is read.
+	 * 
+	 * @param story
+	 *            the story
+	 * @param window
+	 *            the number of decoded pages to keep before and after the
+	 *            current one
+	 */
+	public ImagePageSource(Story story, int window) {
+		this.window = window;
+		setStory(story);
+	}
+
+	/**
+	 * Change the {@link Story}, for instance when the complete version of the
+	 * story is now available.
+	 * <p>
+	 * Only the pages are counted, no image is read; the decoded pages are
+	 * released.
+	 * 
+	 * @param story
+	 *            the story
+	 */
+	public synchronized void setStory(Story story) {
+		this.story = story;
+		decoded.clear();
+
+		cover = !story.getMeta().isFakeCover()
+				&& story.getMeta().getCover() != null;
+
+		int count = 0;
+		List<Chapter> chaps = story.getChapters();
+		for (Chapter chap : chaps) {
+			for (Paragraph para : chap) {
+				if (para.getType() == ParagraphType.IMAGE) {
+					count++;
+				}
+			}
+		}
+
+		chapters = new int[count];
+		paragraphs = new int[count];
+
+		int page = 0;
+		for (int i = 0; i < chaps.size(); i++) {
+			List<Paragraph> paras = chaps.get(i).getParagraphs();
+			for (int j = 0; j < paras.size(); j++) {
+				if (paras.get(j).getType() == ParagraphType.IMAGE) {
+					chapters[page] = i;
+					paragraphs[page] = j;
+					page++;
+				}
+			}
+		}
+
+		size = count + (cover ? 1 : 0);
+		sizes = new Dimension[size];
+	}
+
+	/**
+	 * The number of pages.
+	 * 
+	 * @return the number of pages
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * The image of the given page (not decoded).
+	 * 
+	 * @param page
+	 *            the page (from 0 to {@link ImagePageSource#size()} excluded)
+	 * 
+	 * @return the image, or NULL if the page has no image
+	 */
+	public synchronized Image getImage(int page) {
+		if (cover) {
+			if (page == 0) {
+				return story.getMeta().getCover();
+			}
+			page--;
+		}
+
+		return story.getChapters().get(chapters[page]).getParagraphs()
+				.get(paragraphs[page]).getContentImage();
+	}
+
+	/**
+	 * The size of the given page (without rotation).
+	 * <p>
+	 * Only the header of the image is read when possible, the image is not
+	 * decoded.
+	 * <p>
+	 * Do <b>NOT</b> use this method from the UI thread.
+	 * 
+	 * @param page
+	 *            the page (from 0 to {@link ImagePageSource#size()} excluded)
+	 * 
+	 * @return the size (0x0 if the page has no image)
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error when reading the image
+	 */
+	public Dimension getSize(int page) throws IOException {
+		Dimension[] sizes;
+		synchronized (this) {
+			sizes = this.sizes;
+			if (sizes[page] != null) {
+				return sizes[page];
+			}
+		}
+
+		Dimension size = null;
+		Image img = getImage(page);
+		if (img == null) {
+			size = new Dimension(0, 0);
+		} else {
+			InputStream in = img.newInputStream();
+			try {
+				ImageInputStream iin = ImageIO.createImageInputStream(in);
+				if (iin != null) {
+					try {
+						Iterator<ImageReader> readers = ImageIO
+								.getImageReaders(iin);
+						if (readers.hasNext()) {
+							ImageReader reader = readers.next();
+							try {
+								reader.setInput(iin, true, true);
+								size = new Dimension(reader.getWidth(0),
+										reader.getHeight(0));
+							} finally {
+								reader.dispose();
+							}
+						}
+					} finally {
+						iin.close();
+					}
+				}
+			} finally {
+				in.close();
+			}
+
+			// Unknown format for ImageIO: decode it
+			if (size == null) {
+				BufferedImage image = ImageUtilsAwt.fromImage(img,
+						Rotation.NONE);
+				size = new Dimension(image.getWidth(), image.getHeight());
+			}
+		}
+
+		synchronized (this) {
+			// Not if the story changed in the meantime
+			if (sizes == this.sizes) {
+				sizes[page] = size;
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * The decoded image of the given page, with the given rotation.
+	 * <p>
+	 * The page is kept in memory if it is in the window around the current
+	 * page.
+	 * <p>
+	 * Do <b>NOT</b> use this method from the UI thread.
+	 * 
+	 * @param page
+	 *            the page (from 0 to {@link ImagePageSource#size()} excluded)
+	 * @param rotation
+	 *            the rotation to apply
+	 * 
+	 * @return the decoded image, or NULL if the page has no image
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error when reading the image
+	 */
+	public BufferedImage getDecoded(int page, Rotation rotation)
+			throws IOException {
+		synchronized (this) {
+			if (this.rotation != rotation) {
+				this.rotation = rotation;
+				decoded.clear();
+			}
+
+			BufferedImage image = decoded.get(page);
+			if (image != null) {
+				return image;
+			}
+		}
+
+		Image img = getImage(page);
+		if (img == null) {
+			return null;
+		}
+
+		BufferedImage image = ImageUtilsAwt.fromImage(img, rotation);
+
+		synchronized (this) {
+			if (this.rotation == rotation && isInWindow(page)) {
+				decoded.put(page, image);
+			}
+		}
+
+		return image;
+	}
+
+	/**
+	 * The current page changed: release the decoded pages that are now out of
+	 * the window around it.
+	 * 
+	 * @param page
+	 *            the new current page
+	 */
+	public synchronized void setCurrent(int page) {
+		current = page;
+		for (Iterator<Integer> it = decoded.keySet().iterator(); it
+				.hasNext();) {
+			if (!isInWindow(it.next())) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Release all the decoded pages.
+	 */
+	public synchronized void clear() {
+		decoded.clear();
+	}
+
+	/**
+	 * Check if the given page is in the window around the current page (the
+	 * decoded pages are only kept in this window).
+	 * 
+	 * @param page
+	 *            the page
+	 * 
+	 * @return TRUE if it is
+	 */
+	synchronized boolean isInWindow(int page) {
+		return Math.abs(page - current) <= window;
+	}
+}
@@ -0,0 +1,243 @@
+package be.nikiroo.fanfix_swing.gui.viewer;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.Icon;
+import javax.swing.JLabel;
+
+/**
+ * The area where {@link ViewerImages} shows the current page.
+ * <p>
+ * It works as a normal {@link JLabel} with an {@link Icon}, except when a page
+ * is shown zoomed in (see {@link PageArea#setTiled(BufferedImage, double)}):
+ * in that case, the page is never scaled as a whole, only the visible tiles
+ * are drawn, like a map viewer.
+ * <p>
+ * The tiles are taken from a pyramid of the page (the page, then the page at
+ * half its size, at a quarter...), so zooming out does not have to read the
+ * whole page for each tile; they are kept in a small cache bounded by the size
+ * of the visible area.
+ * 
+ * @author niki
+ */
+public class PageArea extends JLabel {
+	private static final long serialVersionUID = 1L;
+
+	/** The size of a tile, in pixels on screen. */
+	static private final int TILE = 256;
+
+	private BufferedImage source;
+	private double zoom;
+	private List<BufferedImage> levels = new ArrayList<BufferedImage>();
+	private int maxTiles = 16;
+	private Map<String, BufferedImage> tiles = new LinkedHashMap<String, BufferedImage>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, BufferedImage> eldest) {
+			return size() > maxTiles;
+		}
+	};
+
+	/**
+	 * Show this page at the given zoom level, by tiles.
+	 * <p>
+	 * Calling {@link PageArea#setIcon(Icon)} will go back to the normal
+	 * display.
+	 * 
+	 * @param source
+	 *            the page (already rotated)
+	 * @param zoom
+	 *            the zoom level
+	 */
+	public void setTiled(BufferedImage source, double zoom) {
+		super.setIcon(null);
+
+		if (this.source != source) {
+			this.source = source;
+			levels.clear();
+			levels.add(source);
+			tiles.clear();
+		}
+		this.zoom = zoom;
+
+		revalidate();
+		repaint();
+	}
+
+	/**
+	 * The page is shown by tiles.
+	 * 
+	 * @return TRUE if it is
+	 */
+	public boolean isTiled() {
+		return source != null;
+	}
+
+	@Override
+	public void setIcon(Icon icon) {
+		if (source != null) {
+			source = null;
+			levels.clear();
+			tiles.clear();
+		}
+
+		super.setIcon(icon);
+	}
+
+	@Override
+	public Dimension getPreferredSize() {
+		if (source == null) {
+			return super.getPreferredSize();
+		}
+
+		return new Dimension(getScaledWidth(), getScaledHeight());
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		if (source == null) {
+			super.paintComponent(g);
+			return;
+		}
+
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(getSize());
+		}
+
+		// The page is centered if smaller than the area
+		int offsetX = Math.max(0, (getWidth() - getScaledWidth()) / 2);
+		int offsetY = Math.max(0, (getHeight() - getScaledHeight()) / 2);
+		clip.translate(-offsetX, -offsetY);
+
+		int fromX = Math.max(0, clip.x / TILE);
+		int fromY = Math.max(0, clip.y / TILE);
+		int toX = Math.min((getScaledWidth() - 1) / TILE,
+				(clip.x + clip.width - 1) / TILE);
+		int toY = Math.min((getScaledHeight() - 1) / TILE,
+				(clip.y + clip.height - 1) / TILE);
+
+		// Keep twice the number of visible tiles
+		Rectangle visible = getVisibleRect();
+		maxTiles = Math.max(16, 2 * (visible.width / TILE + 2)
+				* (visible.height / TILE + 2));
+
+		for (int y = fromY; y <= toY; y++) {
+			for (int x = fromX; x <= toX; x++) {
+				g.drawImage(getTile(x, y), offsetX + x * TILE,
+						offsetY + y * TILE, null);
+			}
+		}
+	}
+
+	/**
+	 * The tile at this position for the current zoom level, created if
+	 * needed.
+	 * 
+	 * @param x
+	 *            the column of the tile
+	 * @param y
+	 *            the row of the tile
+	 * 
+	 * @return the tile
+	 */
+	private BufferedImage getTile(int x, int y) {
+		String key = zoom + ":" + x + ":" + y;
+		BufferedImage tile = tiles.get(key);
+		if (tile != null) {
+			return tile;
+		}
+
+		// The smallest level still at least as big as what we draw
+		int level = 0;
+		while (zoom * (1 << (level + 1)) <= 1
+				&& source.getWidth() >> (level + 1) > 0
+				&& source.getHeight() >> (level + 1) > 0) {
+			level++;
+		}
+		BufferedImage image = getLevel(level);
+		double scale = zoom * (1 << level);
+
+		int width = Math.min(TILE, getScaledWidth() - x * TILE);
+		int height = Math.min(TILE, getScaledHeight() - y * TILE);
+
+		tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = tile.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			// The same mapping for all the tiles, so they join without seams
+			g.clipRect(0, 0, width, height);
+			g.translate(-x * TILE, -y * TILE);
+			g.scale(scale, scale);
+			g.drawImage(image, 0, 0, null);
+		} finally {
+			g.dispose();
+		}
+
+		tiles.put(key, tile);
+		return tile;
+	}
+
+	/**
+	 * The page at this level of the pyramid (level 0 is the page, level 1 the
+	 * page at half its size...), created if needed.
+	 * 
+	 * @param level
+	 *            the level
+	 * 
+	 * @return the page at this level
+	 */
+	private BufferedImage getLevel(int level) {
+		while (levels.size() <= level) {
+			BufferedImage previous = levels.get(levels.size() - 1);
+			int width = Math.max(1, previous.getWidth() / 2);
+			int height = Math.max(1, previous.getHeight() / 2);
+
+			BufferedImage next = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = next.createGraphics();
+			try {
+				g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+						RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				g.drawImage(previous, 0, 0, width, height, null);
+			} finally {
+				g.dispose();
+			}
+
+			levels.add(next);
+		}
+
+		return levels.get(level);
+	}
+
+	/**
+	 * The width of the page at the current zoom level.
+	 * 
+	 * @return the width
+	 */
+	private int getScaledWidth() {
+		return Math.max(1, (int) Math.round(source.getWidth() * zoom));
+	}
+
+	/**
+	 * The height of the page at the current zoom level.
+	 * 
+	 * @return the height
+	 */
+	private int getScaledHeight() {
+		return Math.max(1, (int) Math.round(source.getHeight() * zoom));
+	}
+}
@@ -0,0 +1,507 @@
+package be.nikiroo.fanfix_swing.gui.viewer;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import be.nikiroo.fanfix.Instance;
+import be.nikiroo.utils.ui.ImageUtilsAwt;
+import be.nikiroo.utils.ui.ImageUtilsAwt.Rotation;
+
+/**
+ * Decode and scale the pages around the current one in the background, so
+ * they are ready when the user turns the page.
+ * <p>
+ * The pages are prepared for one {@link RenditionKey} at a time (the rotation,
+ * zoom and size of the viewer); when it changes, the work not yet started is
+ * cancelled. The pages can also only be decoded (see
+ * {@link PagePrefetcher#prefetchDecoded(int, Rotation)}), when they are shown
+ * by tiles and not scaled.
+ * <p>
+ * All the renditions (prepared or displayed) are kept by page and
+ * {@link RenditionKey} within a memory budget, the least recently used being
+ * dropped first, so going back to a previous page, rotation, zoom or size does
+ * not render the page again.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author niki
+ */
+public class PagePrefetcher {
+	/**
+	 * How a page must be rendered: everything that changes the resulting
+	 * image.
+	 * 
+	 * @author niki
+	 */
+	static public class RenditionKey {
+		private Rotation rotation;
+		private double zoom;
+		private Boolean snapMode;
+		private Dimension area;
+		private int scrollbar;
+
+		/**
+		 * Create a new {@link RenditionKey}.
+		 * 
+		 * @param rotation
+		 *            the rotation of the page
+		 * @param zoom
+		 *            the zoom (ignored if snapMode is not NULL)
+		 * @param snapMode
+		 *            NULL for the zoom, TRUE to snap to the width, FALSE to
+		 *            snap to the height
+		 * @param area
+		 *            the size of the area the page is shown in
+		 * @param scrollbar
+		 *            the size of the scroll bars
+		 */
+		public RenditionKey(Rotation rotation, double zoom, Boolean snapMode,
+				Dimension area, int scrollbar) {
+			this.rotation = rotation;
+			this.zoom = snapMode == null ? zoom : 0;
+			this.snapMode = snapMode;
+			this.area = new Dimension(area);
+			this.scrollbar = scrollbar;
+		}
+
+		/**
+		 * The rotation of the page.
+		 * 
+		 * @return the rotation
+		 */
+		public Rotation getRotation() {
+			return rotation;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof RenditionKey)) {
+				return false;
+			}
+
+			RenditionKey other = (RenditionKey) obj;
+			if (snapMode == null) {
+				// The zoom is only used without snap mode
+				return other.snapMode == null && rotation == other.rotation
+						&& zoom == other.zoom && area.equals(other.area)
+						&& scrollbar == other.scrollbar;
+			}
+
+			return snapMode.equals(other.snapMode)
+					&& rotation == other.rotation && area.equals(other.area)
+					&& scrollbar == other.scrollbar;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = rotation.hashCode() ^ area.hashCode() ^ scrollbar;
+			if (snapMode == null) {
+				long bits = Double.doubleToLongBits(zoom);
+				return hash ^ (int) (bits ^ (bits >>> 32));
+			}
+
+			return hash ^ snapMode.hashCode();
+		}
+	}
+
+	/**
+	 * A page and how it is rendered, as key of the cache.
+	 * 
+	 * @author niki
+	 */
+	static private class CacheKey {
+		private int page;
+		private RenditionKey key;
+
+		public CacheKey(int page, RenditionKey key) {
+			this.page = page;
+			this.key = key;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+
+			CacheKey other = (CacheKey) obj;
+			return page == other.page && key.equals(other.key);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * page + key.hashCode();
+		}
+	}
+
+	/**
+	 * A page, decoded and scaled.
+	 * 
+	 * @author niki
+	 */
+	static public class Rendition {
+		private BufferedImage image;
+		private int sourceWidth;
+
+		/**
+		 * Create a new {@link Rendition}.
+		 * 
+		 * @param image
+		 *            the scaled image
+		 * @param sourceWidth
+		 *            the width of the decoded image before scaling (after
+		 *            rotation)
+		 */
+		public Rendition(BufferedImage image, int sourceWidth) {
+			this.image = image;
+			this.sourceWidth = sourceWidth;
+		}
+
+		/**
+		 * The scaled image.
+		 * 
+		 * @return the image
+		 */
+		public BufferedImage getImage() {
+			return image;
+		}
+
+		/**
+		 * The width of the decoded image before scaling (after rotation).
+		 * 
+		 * @return the width
+		 */
+		public int getSourceWidth() {
+			return sourceWidth;
+		}
+
+		/**
+		 * The memory used by the scaled image, in bytes.
+		 * 
+		 * @return the size
+		 */
+		public long getSize() {
+			return 4L * image.getWidth() * image.getHeight();
+		}
+	}
+
+	private ImagePageSource pages;
+	private int ahead;
+	private int behind;
+	private long budget;
+	private ThreadPoolExecutor executor;
+
+	private Object lock = new Object();
+	private RenditionKey key;
+	private Rotation decodeOnly;
+	private long used;
+	private Map<CacheKey, Rendition> renditions = new LinkedHashMap<CacheKey, Rendition>(
+			16, 0.75f, true);
+	private LinkedList<Integer> queue = new LinkedList<Integer>();
+	private int waitingTasks;
+
+	/**
+	 * Create a new {@link PagePrefetcher}.
+	 * 
+	 * @param pages
+	 *            the pages to prepare
+	 * @param ahead
+	 *            the number of pages to prepare after the current one
+	 * @param behind
+	 *            the number of pages to prepare before the current one
+	 * @param budget
+	 *            the maximum memory used by the prepared pages, in bytes
+	 */
+	public PagePrefetcher(ImagePageSource pages, int ahead, int behind,
+			long budget) {
+		this.pages = pages;
+		this.ahead = ahead;
+		this.behind = behind;
+		this.budget = budget;
+
+		executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Page prefetcher");
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Decode and scale the given page.
+	 * <p>
+	 * If this page was already rendered for this key, it is returned directly;
+	 * if not, it is rendered now (and kept).
+	 * <p>
+	 * Do <b>NOT</b> use this method from the UI thread.
+	 * 
+	 * @param page
+	 *            the page
+	 * @param key
+	 *            how to render it
+	 * 
+	 * @return the rendition, or NULL if the page has no image
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error when reading the image
+	 */
+	public Rendition get(int page, RenditionKey key) throws IOException {
+		synchronized (lock) {
+			setKey(key);
+			Rendition rendition = renditions.get(new CacheKey(page, key));
+			if (rendition != null) {
+				return rendition;
+			}
+		}
+
+		Rendition rendition = render(pages, page, key);
+		if (rendition != null) {
+			keep(new CacheKey(page, key), rendition);
+		}
+
+		return rendition;
+	}
+
+	/**
+	 * Prepare the pages around the given one for the given key in the
+	 * background, the nearest pages first.
+	 * <p>
+	 * This replaces the previous request: the pages which are not wanted
+	 * anymore and are not yet being processed are cancelled.
+	 * 
+	 * @param page
+	 *            the current page
+	 * @param key
+	 *            how to render the pages
+	 */
+	public void prefetch(int page, RenditionKey key) {
+		synchronized (lock) {
+			setKey(key);
+			decodeOnly = null;
+
+			fillQueue(page);
+			for (Iterator<Integer> it = queue.iterator(); it.hasNext();) {
+				if (renditions.containsKey(new CacheKey(it.next(), key))) {
+					it.remove();
+				}
+			}
+
+			startTasks();
+		}
+	}
+
+	/**
+	 * Only decode the pages around the given one in the background, the
+	 * nearest pages first (they are kept by the {@link ImagePageSource}, if
+	 * in its window).
+	 * <p>
+	 * This is used when the pages are not scaled but shown by tiles (see
+	 * {@link PageArea}), and replaces the previous request as
+	 * {@link PagePrefetcher#prefetch(int, RenditionKey)} does.
+	 * 
+	 * @param page
+	 *            the current page
+	 * @param rotation
+	 *            the rotation of the pages
+	 */
+	public void prefetchDecoded(int page, Rotation rotation) {
+		synchronized (lock) {
+			decodeOnly = rotation;
+
+			fillQueue(page);
+			for (Iterator<Integer> it = queue.iterator(); it.hasNext();) {
+				if (!pages.isInWindow(it.next())) {
+					it.remove();
+				}
+			}
+
+			startTasks();
+		}
+	}
+
+	/**
+	 * Replace the queue by the pages around the given one, the nearest pages
+	 * first.
+	 * <p>
+	 * Must be called while holding the lock.
+	 * 
+	 * @param page
+	 *            the current page
+	 */
+	private void fillQueue(int page) {
+		queue.clear();
+		for (int i = 1; i <= Math.max(ahead, behind); i++) {
+			if (i <= ahead && page + i < pages.size()) {
+				queue.add(page + i);
+			}
+			if (i <= behind && page - i >= 0) {
+				queue.add(page - i);
+			}
+		}
+	}
+
+	/**
+	 * Start enough tasks to process the queue.
+	 * <p>
+	 * Must be called while holding the lock.
+	 */
+	private void startTasks() {
+		while (waitingTasks < queue.size()) {
+			waitingTasks++;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					prepareNext();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Drop all the renditions and cancel the work not yet started.
+	 */
+	public void clear() {
+		synchronized (lock) {
+			queue.clear();
+			renditions.clear();
+			used = 0;
+		}
+	}
+
+	/**
+	 * Decode and scale the given page.
+	 * 
+	 * @param pages
+	 *            the pages
+	 * @param page
+	 *            the page to render
+	 * @param key
+	 *            how to render it
+	 * 
+	 * @return the rendition, or NULL if the page has no image
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error when reading the image
+	 */
+	static public Rendition render(ImagePageSource pages, int page,
+			RenditionKey key) throws IOException {
+		BufferedImage image = pages.getDecoded(page, key.rotation);
+		if (image == null) {
+			return null;
+		}
+
+		Dimension areaSize = new Dimension(key.area);
+		double zoom = key.snapMode == null ? key.zoom : -1;
+
+		// If scrollbar needed, reserve space for it
+		Dimension resizedArea = ImageUtilsAwt.scaleSize(
+				new Dimension(image.getWidth(), image.getHeight()), areaSize,
+				zoom, key.snapMode);
+		// TODO: why +3 seems to work?
+		if (resizedArea.width > areaSize.width) {
+			areaSize.height -= key.scrollbar + 3;
+		}
+		if (resizedArea.height > areaSize.height) {
+			areaSize.width -= key.scrollbar + 3;
+			// Not needed locally, but needed remote..
+		}
+		//
+
+		BufferedImage resizedImage = ImageUtilsAwt.scaleImage(image,
+				areaSize, zoom, key.snapMode);
+
+		return new Rendition(resizedImage, image.getWidth());
+	}
+
+	/**
+	 * Prepare the next page of the queue, if any.
+	 */
+	private void prepareNext() {
+		int page;
+		RenditionKey key;
+		Rotation decodeOnly;
+		synchronized (lock) {
+			waitingTasks--;
+			if (queue.isEmpty()) {
+				return;
+			}
+
+			page = queue.removeFirst();
+			key = this.key;
+			decodeOnly = this.decodeOnly;
+		}
+
+		try {
+			if (decodeOnly != null) {
+				pages.getDecoded(page, decodeOnly);
+				return;
+			}
+
+			Rendition rendition = render(pages, page, key);
+			if (rendition != null) {
+				keep(new CacheKey(page, key), rendition);
+			}
+		} catch (Exception e) {
+			Instance.getInstance().getTraceHandler().error(e);
+		}
+	}
+
+	/**
+	 * Keep the given rendition, then drop the least recently used ones until
+	 * we are within the budget.
+	 * 
+	 * @param cacheKey
+	 *            the page and how it was rendered
+	 * @param rendition
+	 *            its rendition
+	 */
+	private void keep(CacheKey cacheKey, Rendition rendition) {
+		synchronized (lock) {
+			if (renditions.containsKey(cacheKey)) {
+				return;
+			}
+
+			renditions.put(cacheKey, rendition);
+			used += rendition.getSize();
+
+			Iterator<Rendition> it = renditions.values().iterator();
+			while (used > budget && it.hasNext()) {
+				Rendition eldest = it.next();
+				if (eldest != rendition) {
+					used -= eldest.getSize();
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Change the key: the work not yet started for the previous key is
+	 * cancelled.
+	 * <p>
+	 * Must be called with the lock.
+	 * 
+	 * @param key
+	 *            the new key
+	 */
+	private void setKey(RenditionKey key) {
+		if (!key.equals(this.key)) {
+			queue.clear();
+			this.key = key;
+		}
+	}
+}
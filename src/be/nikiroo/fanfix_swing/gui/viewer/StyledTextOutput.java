@@ -0,0 +1,438 @@
+package be.nikiroo.fanfix_swing.gui.viewer;
+
+import java.awt.Color;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+import javax.swing.text.html.HTMLEditorKit;
+
+import be.nikiroo.fanfix.Instance;
+import be.nikiroo.fanfix.data.Chapter;
+import be.nikiroo.fanfix.data.Paragraph;
+import be.nikiroo.fanfix.data.Paragraph.ParagraphType;
+import be.nikiroo.fanfix.reader.TextOutput;
+
+/**
+ * This class can export a chapter directly into a {@link StyledDocument}, so
+ * it can be shown in a text component without going through HTML (no HTML to
+ * generate, and more importantly no HTML to parse back).
+ * <p>
+ * The result is the same as the HTML3 version ({@link Paragraph} types, and
+ * the <tt>*bold*</tt> and <tt>_italic_</tt> decorations).
+ * <p>
+ * The documents are built outside of any component, so this can be used from
+ * any thread.
+ * <p>
+ * You can compare both ways with the {@link StyledTextOutput#main(String[])}
+ * method.
+ * 
+ * @author niki
+ */
+public class StyledTextOutput {
+	/**
+	 * A {@link StyledDocument} to which converted documents can be added in
+	 * one go (see
+	 * {@link StyledTextOutput#append(SlicedDocument, StyledDocument)}).
+	 * 
+	 * @author niki
+	 */
+	static public class SlicedDocument extends DefaultStyledDocument {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Add the given elements at the end of the document, with a single
+		 * change event.
+		 * 
+		 * @param specs
+		 *            the elements
+		 * 
+		 * @throws BadLocationException
+		 *             cannot happen
+		 */
+		void append(ElementSpec[] specs) throws BadLocationException {
+			insert(getLength(), specs);
+		}
+	}
+
+	/**
+	 * A decorated part of a paragraph.
+	 * 
+	 * @author niki
+	 */
+	private class Run {
+		public int start;
+		public int end;
+		public boolean bold;
+	}
+
+	/** The colour of the bold text and of the scene breaks. */
+	static private final Color DECORATION = new Color(0x77, 0x77, 0xDD);
+	/**
+	 * A rough estimation of the memory used by an element of a document (the
+	 * element, its attributes and its positions), in bytes.
+	 */
+	static private final long ELEMENT_SIZE = 200;
+
+	private SimpleAttributeSet title;
+	private SimpleAttributeSet normal;
+	private SimpleAttributeSet quote;
+	private SimpleAttributeSet breaks;
+	private SimpleAttributeSet bold;
+	private SimpleAttributeSet italic;
+
+	/**
+	 * Create a new {@link StyledTextOutput}.
+	 */
+	public StyledTextOutput() {
+		title = new SimpleAttributeSet();
+		StyleConstants.setBold(title, true);
+		StyleConstants.setFontSize(title, 24);
+		StyleConstants.setSpaceBelow(title, 12);
+
+		normal = new SimpleAttributeSet();
+		StyleConstants.setAlignment(normal, StyleConstants.ALIGN_JUSTIFIED);
+		StyleConstants.setFirstLineIndent(normal, 24);
+
+		quote = new SimpleAttributeSet(normal);
+		StyleConstants.setLeftIndent(quote, 24);
+		StyleConstants.setFirstLineIndent(quote, 0);
+
+		breaks = new SimpleAttributeSet();
+		StyleConstants.setAlignment(breaks, StyleConstants.ALIGN_CENTER);
+		StyleConstants.setBold(breaks, true);
+		StyleConstants.setForeground(breaks, DECORATION);
+		StyleConstants.setSpaceAbove(breaks, 12);
+		StyleConstants.setSpaceBelow(breaks, 12);
+
+		bold = new SimpleAttributeSet();
+		StyleConstants.setBold(bold, true);
+		StyleConstants.setForeground(bold, DECORATION);
+
+		italic = new SimpleAttributeSet();
+		StyleConstants.setItalic(italic, true);
+		StyleConstants.setForeground(italic, Color.GRAY);
+	}
+
+	/**
+	 * Convert the chapter into a {@link StyledDocument}.
+	 * 
+	 * @param chap
+	 *            the {@link Chapter} to convert
+	 * @param chapterName
+	 *            display the chapter name
+	 * 
+	 * @return the document
+	 */
+	public StyledDocument convert(Chapter chap, boolean chapterName) {
+		StyledDocument doc = new DefaultStyledDocument();
+		try {
+			if (chapterName) {
+				String name = "Chapter " + chap.getNumber();
+				if (chap.getName() != null
+						&& !chap.getName().trim().isEmpty()) {
+					name += ": " + chap.getName();
+				}
+				addParagraph(doc, name, title, null);
+			}
+
+			boolean previousQuote = false;
+			for (Paragraph para : chap) {
+				boolean isQuote = para.getType() == ParagraphType.QUOTE;
+				if (isQuote != previousQuote) {
+					addParagraph(doc, "", normal, null);
+					previousQuote = isQuote;
+				}
+
+				switch (para.getType()) {
+				case NORMAL:
+					addParagraph(doc, para.getContent(), normal, null);
+					break;
+				case QUOTE:
+					addParagraph(doc, "\u2014 " + para.getContent(), quote,
+							null);
+					break;
+				case BLANK:
+					addParagraph(doc, "", normal, null);
+					break;
+				case BREAK:
+					addParagraph(doc, "* * *", breaks, breaks);
+					break;
+				case IMAGE:
+					break;
+				}
+			}
+		} catch (BadLocationException e) {
+			Instance.getInstance().getTraceHandler().error(e);
+		}
+
+		return doc;
+	}
+
+	/**
+	 * Add the content of a document at the end of another one, with its
+	 * styles.
+	 * <p>
+	 * All the paragraphs are added at once, so the target document only
+	 * changes (and notifies its listeners) once.
+	 * 
+	 * @param target
+	 *            the document to add to
+	 * @param source
+	 *            the document to add
+	 */
+	static public void append(SlicedDocument target, StyledDocument source) {
+		List<ElementSpec> specs = new ArrayList<ElementSpec>();
+		try {
+			// Close the current (last, empty) paragraph
+			specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+
+			Element root = source.getDefaultRootElement();
+			for (int i = 0; i < root.getElementCount(); i++) {
+				Element para = root.getElement(i);
+
+				// The last paragraph has no line feed
+				if (para.getEndOffset() > source.getLength()) {
+					break;
+				}
+
+				specs.add(new ElementSpec(para.getAttributes().copyAttributes(),
+						ElementSpec.StartTagType));
+				for (int j = 0; j < para.getElementCount(); j++) {
+					Element run = para.getElement(j);
+					int from = run.getStartOffset();
+					char[] text = source.getText(from,
+							run.getEndOffset() - from).toCharArray();
+					specs.add(new ElementSpec(
+							run.getAttributes().copyAttributes(),
+							ElementSpec.ContentType, text, 0, text.length));
+				}
+				specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+			}
+
+			// Open the new last paragraph, as it was
+			Element last = target.getParagraphElement(target.getLength());
+			specs.add(new ElementSpec(last.getAttributes().copyAttributes(),
+					ElementSpec.StartTagType));
+
+			target.append(specs.toArray(new ElementSpec[0]));
+		} catch (BadLocationException e) {
+			Instance.getInstance().getTraceHandler().error(e);
+		}
+	}
+
+	/**
+	 * An estimation of the memory used by a converted document: its text, and
+	 * its elements (one per paragraph and one per decorated part of a
+	 * paragraph), which take much more memory than their text.
+	 * 
+	 * @param doc
+	 *            the document
+	 * 
+	 * @return the estimated size in bytes
+	 */
+	static public long getMemorySize(StyledDocument doc) {
+		Element root = doc.getDefaultRootElement();
+		long elements = root.getElementCount();
+		for (int i = 0; i < root.getElementCount(); i++) {
+			elements += root.getElement(i).getElementCount();
+		}
+
+		return 2L * doc.getLength() + ELEMENT_SIZE * elements;
+	}
+
+	/**
+	 * Add a paragraph at the end of the document.
+	 * 
+	 * @param doc
+	 *            the document
+	 * @param text
+	 *            the text of the paragraph, with its decorations (can be
+	 *            NULL)
+	 * @param paraStyle
+	 *            the style of the paragraph
+	 * @param textStyle
+	 *            the style of the text (NULL for the normal style)
+	 * 
+	 * @throws BadLocationException
+	 *             cannot happen
+	 */
+	private void addParagraph(StyledDocument doc, String text,
+			AttributeSet paraStyle, AttributeSet textStyle)
+			throws BadLocationException {
+		int start = doc.getLength();
+		if (text == null) {
+			text = "";
+		}
+
+		List<Run> runs = new ArrayList<Run>();
+		String plain = textStyle == null ? undecorate(text, runs) : text;
+
+		doc.insertString(start, plain + "\n", textStyle);
+		for (Run run : runs) {
+			doc.setCharacterAttributes(start + run.start, run.end - run.start,
+					run.bold ? bold : italic, false);
+		}
+
+		doc.setParagraphAttributes(start, plain.length() + 1, paraStyle,
+				true);
+	}
+
+	/**
+	 * Remove the <tt>*bold*</tt> and <tt>_italic_</tt> decorations from the
+	 * text, and list where they were.
+	 * <p>
+	 * Same rules as the HTML version: a decoration starts after a space (or at
+	 * the start) and ends before a non-space; unclosed decorations are kept as
+	 * is.
+	 * 
+	 * @param text
+	 *            the decorated text
+	 * @param runs
+	 *            the list to fill with the decorated parts
+	 * 
+	 * @return the text without decorations
+	 */
+	private String undecorate(String text, List<Run> runs) {
+		StringBuilder builder = new StringBuilder(text.length());
+		int boldStart = -1;
+		int italicStart = -1;
+		char prev = '\0';
+
+		for (char car : text.toCharArray()) {
+			boolean decoration = car == '*' || car == '_';
+			int start = car == '*' ? boldStart : italicStart;
+
+			if (decoration && start >= 0 && !Character.isWhitespace(prev)) {
+				Run run = new Run();
+				run.start = start;
+				run.end = builder.length();
+				run.bold = car == '*';
+				runs.add(run);
+				start = -1;
+			} else if (decoration && start < 0
+					&& (prev == '\0' || Character.isWhitespace(prev))) {
+				start = builder.length();
+			} else {
+				builder.append(car);
+			}
+
+			if (car == '*') {
+				boldStart = start;
+			} else if (car == '_') {
+				italicStart = start;
+			}
+
+			prev = car;
+		}
+
+		// Unclosed decorations are normal text
+		if (boldStart >= 0) {
+			reinsert(builder, runs, boldStart, '*');
+		}
+		if (italicStart >= 0) {
+			reinsert(builder, runs, italicStart, '_');
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Put back a decoration character that was not closed.
+	 * 
+	 * @param builder
+	 *            the text
+	 * @param runs
+	 *            the decorated parts of the text, moved if needed
+	 * @param pos
+	 *            the position of the character
+	 * @param car
+	 *            the character
+	 */
+	private void reinsert(StringBuilder builder, List<Run> runs, int pos,
+			char car) {
+		builder.insert(pos, car);
+		for (Run run : runs) {
+			if (run.start >= pos) {
+				run.start++;
+			}
+			if (run.end > pos) {
+				run.end++;
+			}
+		}
+	}
+
+	/**
+	 * Compare the time needed to show a generated chapter through HTML (the
+	 * HTML3 text, then parsed back by an {@link HTMLEditorKit}) and through
+	 * this class (the document, then appended to a {@link SlicedDocument}).
+	 * 
+	 * @param args
+	 *            the number of paragraphs of the chapter (default: 2000) and
+	 *            the number of timed runs (default: 10)
+	 * 
+	 * @throws Exception
+	 *             in case of error
+	 */
+	static public void main(String[] args) throws Exception {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		Instance.init();
+
+		List<Paragraph> paras = new ArrayList<Paragraph>();
+		for (int i = 0; i < size; i++) {
+			if (i % 50 == 49) {
+				paras.add(new Paragraph(ParagraphType.BREAK, "", 0));
+			} else if (i % 7 == 3) {
+				paras.add(new Paragraph(ParagraphType.QUOTE,
+						"Do you *really* think so?", 5));
+			} else {
+				paras.add(new Paragraph(ParagraphType.NORMAL, "Paragraph " + i
+						+ " is a _somewhat_ long paragraph of text, with a"
+						+ " *bold* word and some more text after it so it"
+						+ " takes a few lines on the screen.", 30));
+			}
+		}
+
+		Chapter chap = new Chapter(1, "Benchmark");
+		chap.setParagraphs(paras);
+
+		TextOutput html = new TextOutput(true);
+		HTMLEditorKit kit = new HTMLEditorKit();
+		StyledTextOutput styled = new StyledTextOutput();
+
+		long htmlTime = 0;
+		long styledTime = 0;
+		// The first run is only there to warm up
+		for (int run = 0; run <= runs; run++) {
+			long start = System.nanoTime();
+			Document doc = kit.createDefaultDocument();
+			kit.read(new StringReader(html.convert(chap, true)), doc, 0);
+			long htmlRun = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			append(new SlicedDocument(), styled.convert(chap, true));
+			long styledRun = System.nanoTime() - start;
+
+			if (run > 0) {
+				htmlTime += htmlRun;
+				styledTime += styledRun;
+			}
+		}
+
+		System.out.println(String.format(
+				"%d paragraphs, %d runs: HTML %d ms, styled %d ms",
+				size, runs, htmlTime / runs / 1000000,
+				styledTime / runs / 1000000));
+	}
+}
@@ -15,8 +15,6 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 import javax.swing.Box;
@@ -25,24 +23,25 @@ import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JScrollPane;
+import javax.swing.JToggleButton;
 import javax.swing.JToolBar;
 import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import javax.swing.UIManager;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import be.nikiroo.fanfix.Instance;
 import be.nikiroo.fanfix.bundles.StringIdGui;
-import be.nikiroo.fanfix.data.Chapter;
-import be.nikiroo.fanfix.data.Paragraph;
 import be.nikiroo.fanfix.data.Story;
 import be.nikiroo.fanfix_swing.Main;
+import be.nikiroo.fanfix_swing.gui.viewer.PagePrefetcher.Rendition;
+import be.nikiroo.fanfix_swing.gui.viewer.PagePrefetcher.RenditionKey;
 import be.nikiroo.fanfix_swing.gui.utils.UiHelper;
 import be.nikiroo.fanfix_swing.images.IconGenerator;
 import be.nikiroo.fanfix_swing.images.IconGenerator.Icon;
 import be.nikiroo.fanfix_swing.images.IconGenerator.Size;
-import be.nikiroo.utils.Image;
 import be.nikiroo.utils.ui.DelayWorker;
-import be.nikiroo.utils.ui.ImageUtilsAwt;
 import be.nikiroo.utils.ui.ImageUtilsAwt.Rotation;
 import be.nikiroo.utils.ui.NavBar;
 import be.nikiroo.utils.ui.UIUtils;
@@ -58,14 +57,32 @@ import be.nikiroo.utils.ui.ZoomBox;
 public class ViewerImages extends JFrame {
 	private static final long serialVersionUID = 1L;
 
-	private List<Image> images;
+	/** The number of decoded pages kept before and after the current one. */
+	static private final int PAGE_WINDOW = 2;
+	/** The number of pages prepared after the current one. */
+	static private final int PREFETCH_AHEAD = 3;
+	/** The number of pages prepared before the current one. */
+	static private final int PREFETCH_BEHIND = 1;
+	/** The maximum memory used by the rendered pages (prepared or not). */
+	static private final long PREFETCH_BUDGET = 64 * 1024 * 1024;
+	/**
+	 * Zoomed pages bigger than this number of times the visible area are shown
+	 * by tiles instead of being scaled as a whole.
+	 */
+	static private final int TILED_RATIO = 2;
+
+	private ImagePageSource pages;
+	private PagePrefetcher prefetcher;
 	private int index;
 
 	private Dimension currentImageSize;
 
 	private Rotation rotation = Rotation.NONE;
 	private Point zoomCenterOffset;
-	private JLabel area;
+	private PageArea area;
+	private WebtoonStrip strip;
+	private boolean webtoon;
+	private boolean syncingNavbar;
 
 	/** The navigation bar. */
 	protected NavBar navbar;
@@ -89,18 +106,9 @@ public class ViewerImages extends JFrame {
 
 		setSize(800, 600);
 
-		images = new ArrayList<Image>();
-		if (!story.getMeta().isFakeCover()) {
-			images.add(story.getMeta().getCover());
-		}
-		for (Chapter chap : story) {
-			for (Paragraph para : chap) {
-				Image img = para.getContentImage();
-				if (img != null) {
-					images.add(img);
-				}
-			}
-		}
+		pages = new ImagePageSource(story, PAGE_WINDOW);
+		prefetcher = new PagePrefetcher(pages, PREFETCH_AHEAD, PREFETCH_BEHIND,
+				PREFETCH_BUDGET);
 
 		worker = new DelayWorker(100);
 		worker.start();
@@ -116,7 +124,8 @@ public class ViewerImages extends JFrame {
 			}
 		});
 
-		UiHelper.setFrameIcon(this, images.isEmpty() ? null : images.get(0));
+		UiHelper.setFrameIcon(this,
+				pages.size() == 0 ? null : pages.getImage(0));
 		setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 	}
 
@@ -132,11 +141,13 @@ public class ViewerImages extends JFrame {
 			this.add(toolbar, BorderLayout.NORTH);
 		}
 
-		area = new JLabel();
+		area = new PageArea();
 		area.setHorizontalAlignment(JLabel.CENTER);
 		area.setOpaque(false);
 		area.setFocusable(true);
 
+		strip = new WebtoonStrip(pages);
+
 		scroll = UIUtils.scroll(area, true);
 		this.add(scroll, BorderLayout.CENTER);
 
@@ -154,7 +165,7 @@ public class ViewerImages extends JFrame {
 		final JToolBar toolbar = new JToolBar();
 
 		// Page navigation
-		navbar = new NavBar(1, images.size());
+		navbar = new NavBar(1, pages.size());
 		navbar.setIcons( //
 				IconGenerator.get(Icon.arrow_double_left, Size.x32), //
 				IconGenerator.get(Icon.arrow_left, Size.x32), //
@@ -223,6 +234,20 @@ public class ViewerImages extends JFrame {
 			}
 		});
 
+		// Continuous vertical scroll
+		final JToggleButton continuous = new JToggleButton(
+				IconGenerator.get(Icon.arrow_double_down, Size.x32));
+		continuous.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				boolean webtoon = continuous.isSelected();
+				left.setEnabled(!webtoon);
+				right.setEnabled(!webtoon);
+				zoombox.setEnabled(!webtoon);
+				setWebtoon(webtoon);
+			}
+		});
+
 		// Add to toolbar
 
 		toolbar.add(navbar);
@@ -231,6 +256,8 @@ public class ViewerImages extends JFrame {
 		toolbar.add(right);
 		toolbar.add(Box.createRigidArea(new Dimension(10, 10)));
 		toolbar.add(zoombox);
+		toolbar.add(Box.createRigidArea(new Dimension(10, 10)));
+		toolbar.add(continuous);
 
 		toolbar.addComponentListener(new ComponentAdapter() {
 			@Override
@@ -247,6 +274,73 @@ public class ViewerImages extends JFrame {
 		return toolbar;
 	}
 
+	/**
+	 * Replace the {@link Story} shown by its complete version (same meta
+	 * data, but with its chapters), for instance when the viewer was opened
+	 * before the story was fully loaded.
+	 * <p>
+	 * The current page is kept.
+	 * <p>
+	 * Must be called in the UI thread.
+	 * 
+	 * @param story
+	 *            the complete {@link Story}
+	 */
+	public void setStory(Story story) {
+		pages.setStory(story);
+		prefetcher.clear();
+		strip.reset();
+
+		navbar.setMax(pages.size());
+		UiHelper.setFrameIcon(this,
+				pages.size() == 0 ? null : pages.getImage(0));
+
+		if (webtoon) {
+			strip.load();
+			strip.scrollToPage(index);
+		} else {
+			display(index, rotation, false);
+		}
+	}
+
+	@Override
+	public void dispose() {
+		super.dispose();
+		strip.release();
+		prefetcher.clear();
+		pages.clear();
+	}
+
+	/**
+	 * Show all the pages one below the other at the width of the viewer
+	 * ("webtoon" mode), or one page at a time.
+	 * 
+	 * @param webtoon
+	 *            TRUE for the continuous vertical mode
+	 */
+	private void setWebtoon(boolean webtoon) {
+		if (this.webtoon == webtoon) {
+			return;
+		}
+
+		this.webtoon = webtoon;
+		if (webtoon) {
+			area.setIcon(null);
+			scroll.setHorizontalScrollBarPolicy(
+					JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+			scroll.setVerticalScrollBarPolicy(
+					JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
+			scroll.setViewportView(strip);
+			strip.load();
+			strip.scrollToPage(index);
+			strip.requestFocus();
+		} else {
+			scroll.setViewportView(area);
+			strip.release();
+			display(index, rotation, true);
+		}
+	}
+
 	private synchronized void display(int index, Rotation rotation,
 			boolean resetScroll) {
 		display(index, rotation, resetScroll, null);
@@ -254,7 +348,7 @@ public class ViewerImages extends JFrame {
 
 	private synchronized void display(int index, final Rotation rotation,
 			final boolean resetScroll, final Point zoomCenterOffset) {
-		if (images.isEmpty()) {
+		if (pages.size() == 0 || webtoon) {
 			return;
 		}
 
@@ -263,7 +357,9 @@ public class ViewerImages extends JFrame {
 
 		this.rotation = rotation;
 
-		final Image img = images.get(index);
+		final int page = index;
+		pages.setCurrent(page);
+
 		// TODO why 0?
 		final int sz = UIManager.getInt("ScrollBar.width") == 0 ? 16
 				: UIManager.getInt("ScrollBar.width");
@@ -275,43 +371,65 @@ public class ViewerImages extends JFrame {
 		worker.delay("display:" + resetScroll,
 				new SwingWorker<ImageIcon, Void>() {
 					private Rectangle scrollTo;
+					private RenditionKey key;
+					private BufferedImage tiled;
+					private Rotation rotation;
 
 					@Override
 					protected ImageIcon doInBackground() throws Exception {
-						Rotation rotation = ViewerImages.this.rotation;
+						rotation = ViewerImages.this.rotation;
 						boolean turn = (rotation == Rotation.LEFT
 								|| rotation == Rotation.RIGHT);
 
-						BufferedImage image = ImageUtilsAwt.fromImage(img,
-								rotation);
-
-						// If scrollbar needed, reserve space for it
-						Dimension resizedArea = ImageUtilsAwt.scaleSize(
-								new Dimension(image.getWidth(),
-										image.getHeight()),
-								areaSize, zoombox.getZoom(),
-								zoombox.getSnapMode());
-						// TODO: why +3 seems to work?
-						if (resizedArea.width > areaSize.width) {
-							areaSize.height -= sz + 3;
-						}
-						if (resizedArea.height > areaSize.height) {
-							areaSize.width -= sz + 3;
-							// Not needed locally, but needed remote..
-						}
-						//
+						// Big zoomed pages are shown by tiles, not scaled
+						if (zoombox.getSnapMode() == null) {
+							BufferedImage image = pages.getDecoded(page,
+									rotation);
+							if (image == null) {
+								return null;
+							}
 
-						BufferedImage resizedImage = ImageUtilsAwt.scaleImage(
-								image, areaSize, zoombox.getZoom(),
-								zoombox.getSnapMode());
+							double zoom = zoombox.getZoom();
+							if (zoom * zoom * image.getWidth()
+									* image.getHeight() > TILED_RATIO
+											* areaSize.width
+											* areaSize.height) {
+								tiled = image;
+							}
+						}
 
+						ImageIcon icon = null;
 						Dimension previousImageSize = currentImageSize;
-						currentImageSize = new Dimension(
-								resizedImage.getWidth(),
-								resizedImage.getHeight());
+						if (tiled != null) {
+							currentImageSize = new Dimension(
+									(int) Math.round(tiled.getWidth()
+											* zoombox.getZoom()),
+									(int) Math.round(tiled.getHeight()
+											* zoombox.getZoom()));
+						} else {
+							key = new RenditionKey(rotation, zoombox.getZoom(),
+									zoombox.getSnapMode(), areaSize, sz);
+							Rendition rendition = prefetcher.get(page, key);
+							if (rendition == null) {
+								return null;
+							}
 
-						zoombox.setZoom((1.0 * (turn ? resizedImage.getHeight()
-								: resizedImage.getWidth())) / image.getWidth());
+							BufferedImage resizedImage = rendition.getImage();
+							currentImageSize = new Dimension(
+									resizedImage.getWidth(),
+									resizedImage.getHeight());
+
+							// Only show the resulting zoom when snapping: the
+							// zoom chosen by the user must stay exactly the
+							// same, since it is part of the rendition key
+							if (zoombox.getSnapMode() != null) {
+								zoombox.setZoom((1.0 * (turn
+										? resizedImage.getHeight()
+										: resizedImage.getWidth()))
+										/ rendition.getSourceWidth());
+							}
+							icon = new ImageIcon(resizedImage);
+						}
 
 						if (previousZoom != zoombox.getZoom()
 								&& previousImageSize != null) {
@@ -346,13 +464,19 @@ public class ViewerImages extends JFrame {
 						}
 
 						previousZoom = zoombox.getZoom();
-						return new ImageIcon(resizedImage);
+						return icon;
 					}
 
 					@Override
 					protected void done() {
 						try {
 							ImageIcon img = get();
+							if (key != null) {
+								prefetcher.prefetch(page, key);
+							} else if (tiled != null) {
+								// Shown by tiles: only decode the next pages
+								prefetcher.prefetchDecoded(page, rotation);
+							}
 
 							if (zoombox.getSnapMode() == null) {
 								scroll.setHorizontalScrollBarPolicy(
@@ -372,7 +496,11 @@ public class ViewerImages extends JFrame {
 							}
 
 							area.setSize(scroll.getViewport().getSize());
-							area.setIcon(img);
+							if (tiled != null) {
+								area.setTiled(tiled, zoombox.getZoom());
+							} else {
+								area.setIcon(img);
+							}
 							if (resetScroll) {
 								area.scrollRectToVisible(new Rectangle());
 							} else if (scrollTo != null) {
@@ -391,11 +519,34 @@ public class ViewerImages extends JFrame {
 		navbar.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
+				if (syncingNavbar) {
+					return;
+				}
+
 				index = navbar.getIndex() - 1;
-				display(index, Rotation.NONE, true);
+				if (webtoon) {
+					strip.scrollToPage(index);
+				} else {
+					display(index, Rotation.NONE, true);
+				}
 			}
 		});
-		area.addKeyListener(new KeyAdapter() {
+		scroll.getViewport().addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				// In webtoon mode, the current page follows the scroll
+				if (webtoon && strip.getPage() != index) {
+					index = strip.getPage();
+					syncingNavbar = true;
+					try {
+						navbar.setIndex(index + 1);
+					} finally {
+						syncingNavbar = false;
+					}
+				}
+			}
+		});
+		KeyAdapter keys = new KeyAdapter() {
 			@Override
 			public void keyPressed(KeyEvent e) {
 				boolean consume = true;
@@ -451,9 +602,12 @@ public class ViewerImages extends JFrame {
 					e.consume();
 				}
 			}
-		});
+		};
+		area.addKeyListener(keys);
+		strip.addKeyListener(keys);
 		final MouseWheelListener wheeling = scroll.getMouseWheelListeners()[0];
 		scroll.removeMouseWheelListener(wheeling);
+		strip.addMouseWheelListener(wheeling);
 		area.addMouseWheelListener(new MouseAdapter() {
 			@Override
 			public void mouseWheelMoved(MouseWheelEvent e) {
@@ -523,7 +677,11 @@ public class ViewerImages extends JFrame {
 		target.x += deltaX;
 		target.y += deltaY;
 
-		area.scrollRectToVisible(target);
+		if (webtoon) {
+			strip.scrollRectToVisible(target);
+		} else {
+			area.scrollRectToVisible(target);
+		}
 
 		return !scroll.getViewport().getViewRect().equals(before);
 	}
@@ -6,27 +6,36 @@ import java.awt.Font;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
-import javax.swing.JEditorPane;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
+import javax.swing.JTextPane;
 import javax.swing.JToolBar;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.text.StyledDocument;
 
 import be.nikiroo.fanfix.Instance;
 import be.nikiroo.fanfix.bundles.StringIdGui;
+import be.nikiroo.fanfix.data.Chapter;
 import be.nikiroo.fanfix.data.MetaData;
+import be.nikiroo.fanfix.data.Paragraph;
 import be.nikiroo.fanfix.data.Story;
 import be.nikiroo.fanfix.library.BasicLibrary;
-import be.nikiroo.fanfix.reader.TextOutput;
 import be.nikiroo.fanfix_swing.gui.PropertiesPanel;
 import be.nikiroo.fanfix_swing.gui.utils.UiHelper;
+import be.nikiroo.fanfix_swing.gui.viewer.ChapterCache.Sizer;
+import be.nikiroo.fanfix_swing.gui.viewer.StyledTextOutput.SlicedDocument;
 import be.nikiroo.fanfix_swing.images.IconGenerator;
 import be.nikiroo.fanfix_swing.images.IconGenerator.Icon;
 import be.nikiroo.fanfix_swing.images.IconGenerator.Size;
@@ -39,15 +48,38 @@ import be.nikiroo.utils.ui.UIUtils;
  * <p>
  * Works on both text and image document (see {@link MetaData#isImageDocument()}
  * ).
+ * <p>
+ * The chapters are rendered by slices of paragraphs: only the first slice is
+ * rendered when the chapter is opened, the next ones are added to the end of
+ * the text when the user scrolls near it.
+ * <p>
+ * The rendered slices are cached, and the start of the next chapter is
+ * rendered in the background while the user reads the current one.
+ * <p>
+ * The text is rendered directly as a {@link StyledDocument} (see
+ * {@link StyledTextOutput}), not as HTML.
  * 
  * @author niki
  */
 public class ViewerNonImages extends JFrame {
 	private static final long serialVersionUID = 1L;
 
+	/** The number of paragraphs rendered at once. */
+	static private final int SLICE_SIZE = 100;
+	/**
+	 * Render the next slice when less than this number of screens of text are
+	 * left below the visible area.
+	 */
+	static private final int READ_AHEAD = 2;
+	/**
+	 * The maximum size of the rendered slices kept, in bytes (see
+	 * {@link StyledTextOutput#getMemorySize(StyledDocument)}).
+	 */
+	static private final long CACHE_BUDGET = 16 * 1024 * 1024;
+
 	private BasicLibrary lib;
-	private Story story;
-	private TextOutput html;
+	private volatile Story story;
+	private StyledTextOutput output;
 
 	/** The navigation bar. */
 	protected NavBar navbar;
@@ -56,10 +88,18 @@ public class ViewerNonImages extends JFrame {
 	/** The main element of this viewer: the scrolled text. */
 	protected JScrollPane scroll;
 
-	private JEditorPane area;
+	private JTextPane area;
 	private JPanel descPane;
 
 	private DelayWorker worker;
+	private ChapterCache<StyledDocument> cache;
+
+	// UI thread only
+	private int chapter;
+	private List<Chapter> slices;
+	private int nextSlice;
+	private boolean appending;
+	private int generation;
 
 	/**
 	 * Create a new {@link Story} viewer.
@@ -80,7 +120,14 @@ public class ViewerNonImages extends JFrame {
 
 		this.setSize(800, 600);
 
-		html = new TextOutput(true);
+		output = new StyledTextOutput();
+		cache = new ChapterCache<StyledDocument>(CACHE_BUDGET,
+				new Sizer<StyledDocument>() {
+					@Override
+					public long getSize(StyledDocument slice) {
+						return StyledTextOutput.getMemorySize(slice);
+					}
+				});
 		worker = new DelayWorker(100);
 		worker.start();
 
@@ -91,6 +138,24 @@ public class ViewerNonImages extends JFrame {
 		setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 	}
 
+	/**
+	 * Replace the {@link Story} shown by its complete version (same
+	 * {@link MetaData}, but with its chapters), for instance when the viewer
+	 * was opened before the story was fully loaded.
+	 * <p>
+	 * The current chapter is kept.
+	 * <p>
+	 * Must be called in the UI thread.
+	 * 
+	 * @param story
+	 *            the complete {@link Story}
+	 */
+	public void setStory(Story story) {
+		this.story = story;
+		navbar.setMax(story.getChapters().size());
+		prefetch(chapter + 1, generation);
+	}
+
 	/**
 	 * Initialise the GUI (after this call, all the graphical elements are in
 	 * place).
@@ -110,7 +175,7 @@ public class ViewerNonImages extends JFrame {
 			toolbarTitle.add(title);
 		}
 
-		area = new JEditorPane("text/html", "");
+		area = new JTextPane();
 		area.setEditable(false);
 		area.setAlignmentY(TOP_ALIGNMENT);
 		area.setOpaque(true);
@@ -142,6 +207,12 @@ public class ViewerNonImages extends JFrame {
 				setChapter(navbar.getIndex());
 			}
 		});
+		scroll.getViewport().addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				appendIfNeeded();
+			}
+		});
 	}
 
 	/**
@@ -196,20 +267,35 @@ public class ViewerNonImages extends JFrame {
 	 *            the chapter number to set
 	 */
 	private void setChapter(final int chapter) {
-		worker.delay("update chapter", new SwingWorker<String, Void>() {
+		final int generation = ++this.generation;
+		worker.delay("update chapter", new SwingWorker<StyledDocument, Void>() {
+			private List<Chapter> chapterSlices;
+
 			@Override
-			protected String doInBackground() throws Exception {
-				if (chapter <= 0) {
-					return html.convert(story.getMeta().getResume(), false);
+			protected StyledDocument doInBackground() throws Exception {
+				SlicedDocument doc = new SlicedDocument();
+				chapterSlices = split(getChapter(chapter));
+				if (!chapterSlices.isEmpty()) {
+					StyledTextOutput.append(doc,
+							convert(chapter, chapterSlices, 0));
 				}
 
-				return html.convert(story.getChapters().get(chapter - 1), true);
+				return doc;
 			}
 
 			@Override
 			protected void done() {
+				if (generation != ViewerNonImages.this.generation) {
+					return;
+				}
+
 				try {
-					String text = get();
+					StyledDocument doc = get();
+					ViewerNonImages.this.chapter = chapter;
+					slices = chapterSlices;
+					nextSlice = 1;
+					appending = false;
+
 					if (descPane != null) {
 						if (chapter <= 0) {
 							descPane.setVisible(true);
@@ -218,7 +304,7 @@ public class ViewerNonImages extends JFrame {
 						}
 					}
 
-					area.setText(text);
+					area.setStyledDocument(doc);
 					area.setSize(scroll.getViewport().getSize());
 					area.setCaretPosition(0);
 					area.scrollRectToVisible(new Rectangle());
@@ -232,10 +318,179 @@ public class ViewerNonImages extends JFrame {
 					// So we can use the keyboard navigation even after a
 					// toolbar click
 					area.requestFocus();
+
+					// The first slice may not fill the screen
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							appendIfNeeded();
+						}
+					});
+
+					prefetch(chapter + 1, generation);
 				} catch (InterruptedException e) {
 				} catch (ExecutionException e) {
 				}
 			}
 		});
 	}
+
+	/**
+	 * Render the next slice of the current chapter in the background and add
+	 * it to the end of the text, if the user is near the end of the text.
+	 * <p>
+	 * Must be called in the UI thread.
+	 */
+	private void appendIfNeeded() {
+		if (appending || slices == null || nextSlice >= slices.size()) {
+			return;
+		}
+
+		Rectangle view = scroll.getViewport().getViewRect();
+		int below = scroll.getViewport().getViewSize().height
+				- (view.y + view.height);
+		if (below > READ_AHEAD * view.height) {
+			return;
+		}
+
+		appending = true;
+		final int chapter = this.chapter;
+		final List<Chapter> slices = this.slices;
+		final int slice = nextSlice++;
+		final int generation = this.generation;
+		new SwingWorker<StyledDocument, Void>() {
+			@Override
+			protected StyledDocument doInBackground() throws Exception {
+				return convert(chapter, slices, slice);
+			}
+
+			@Override
+			protected void done() {
+				if (generation != ViewerNonImages.this.generation) {
+					return;
+				}
+
+				try {
+					StyledTextOutput.append(
+							(SlicedDocument) area.getStyledDocument(), get());
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					Instance.getInstance().getTraceHandler().error(e);
+				}
+
+				appending = false;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						appendIfNeeded();
+					}
+				});
+			}
+		}.execute();
+	}
+
+	/**
+	 * Render the first slices of the given chapter in the background, so they
+	 * are in the cache when the user opens it.
+	 * 
+	 * @param chapter
+	 *            the chapter (0 for the description)
+	 * @param generation
+	 *            the current generation (nothing is done if the user moved to
+	 *            another chapter in the meantime)
+	 */
+	private void prefetch(final int chapter, final int generation) {
+		if (chapter > story.getChapters().size()) {
+			return;
+		}
+
+		new SwingWorker<Void, Void>() {
+			@Override
+			protected Void doInBackground() throws Exception {
+				List<Chapter> slices = split(getChapter(chapter));
+				for (int i = 0; i < Math.min(READ_AHEAD, slices.size()); i++) {
+					if (generation != ViewerNonImages.this.generation) {
+						break;
+					}
+
+					convert(chapter, slices, i);
+				}
+
+				return null;
+			}
+		}.execute();
+	}
+
+	/**
+	 * Render the given slice of the given chapter, or take it from the cache.
+	 * <p>
+	 * Do <b>NOT</b> use this method from the UI thread.
+	 * 
+	 * @param chapter
+	 *            the chapter (0 for the description)
+	 * @param slices
+	 *            the slices of this chapter
+	 * @param slice
+	 *            the slice to render
+	 * 
+	 * @return the rendered slice (must not be modified, it is shared with the
+	 *         cache)
+	 */
+	private StyledDocument convert(int chapter, List<Chapter> slices,
+			int slice) {
+		StyledDocument doc = cache.get(chapter, slice);
+		if (doc == null) {
+			doc = output.convert(slices.get(slice), chapter > 0 && slice == 0);
+			cache.put(chapter, slice, doc);
+		}
+
+		return doc;
+	}
+
+	/**
+	 * The given chapter.
+	 * 
+	 * @param chapter
+	 *            the chapter, 1-based (0 for the description)
+	 * 
+	 * @return the chapter, or NULL if there is no description
+	 */
+	private Chapter getChapter(int chapter) {
+		if (chapter <= 0) {
+			return story.getMeta().getResume();
+		}
+
+		return story.getChapters().get(chapter - 1);
+	}
+
+	/**
+	 * Split the given chapter into slices of {@link #SLICE_SIZE} paragraphs.
+	 * 
+	 * @param chap
+	 *            the chapter (can be NULL)
+	 * 
+	 * @return the slices, with the same number and name as the chapter (empty
+	 *         if the chapter is NULL)
+	 */
+	static private List<Chapter> split(Chapter chap) {
+		List<Chapter> slices = new ArrayList<Chapter>();
+		if (chap == null) {
+			return slices;
+		}
+
+		List<Paragraph> paras = chap.getParagraphs();
+		if (paras.size() <= SLICE_SIZE) {
+			slices.add(chap);
+			return slices;
+		}
+
+		for (int i = 0; i < paras.size(); i += SLICE_SIZE) {
+			Chapter slice = new Chapter(chap.getNumber(), chap.getName());
+			slice.setParagraphs(new ArrayList<Paragraph>(paras.subList(i,
+					Math.min(paras.size(), i + SLICE_SIZE))));
+			slices.add(slice);
+		}
+
+		return slices;
+	}
 }
@@ -0,0 +1,553 @@
+package be.nikiroo.fanfix_swing.gui.viewer;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JComponent;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+import be.nikiroo.fanfix.Instance;
+import be.nikiroo.utils.ui.ImageUtilsAwt.Rotation;
+
+/**
+ * All the pages of an images document one below the other, at the width of
+ * the viewer, for continuous vertical scrolling ("webtoon" mode).
+ * <p>
+ * The strip is virtual: it is laid out from the size of the pages only (see
+ * {@link ImagePageSource#getSize(int)}), and only the pages near the visible
+ * area are decoded and scaled in the background (the visible ones first); the
+ * pages which are no longer near the visible area are not decoded anymore, and
+ * their buffers are recycled for the next ones.
+ * <p>
+ * Must be used from the UI thread.
+ * 
+ * @author niki
+ */
+public class WebtoonStrip extends JComponent implements Scrollable {
+	private static final long serialVersionUID = 1L;
+
+	/** The number of pages kept decoded above and below the visible ones. */
+	static private final int MARGIN = 2;
+	/** The maximum number of buffers kept for recycling. */
+	static private final int MAX_RECYCLED = 4;
+
+	private ImagePageSource pages;
+	private ThreadPoolExecutor executor;
+
+	private Dimension[] sizes;
+	private boolean sizesLoading;
+	private int pagesGeneration;
+	private int pendingPage = -1;
+
+	private int layoutWidth = -1;
+	private int[] offsets;
+
+	private int generation;
+	private Map<Integer, BufferedImage> buffers = new HashMap<Integer, BufferedImage>();
+	private Map<Integer, Future<?>> loading = new HashMap<Integer, Future<?>>();
+	private List<BufferedImage> recycled = new ArrayList<BufferedImage>();
+
+	/**
+	 * Create a new {@link WebtoonStrip}.
+	 * 
+	 * @param pages
+	 *            the pages to show
+	 */
+	public WebtoonStrip(ImagePageSource pages) {
+		this.pages = pages;
+
+		executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Webtoon strip");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+
+		setOpaque(false);
+		setFocusable(true);
+
+		addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				if (getWidth() != layoutWidth && sizes != null) {
+					int page = getPage();
+					layout(getWidth());
+					revalidate();
+					scrollToPage(page);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Read the size of all the pages in the background (only once), then lay
+	 * them out.
+	 * <p>
+	 * If the pages change in the meantime (see {@link WebtoonStrip#reset()}),
+	 * their sizes are read again as long as the strip is displayed.
+	 */
+	public void load() {
+		if (sizes != null || sizesLoading) {
+			return;
+		}
+
+		sizesLoading = true;
+		final int pagesGeneration = this.pagesGeneration;
+		new SwingWorker<Dimension[], Void>() {
+			@Override
+			protected Dimension[] doInBackground() throws Exception {
+				Dimension[] sizes = new Dimension[pages.size()];
+				for (int i = 0; i < sizes.length; i++) {
+					sizes[i] = pages.getSize(i);
+				}
+
+				return sizes;
+			}
+
+			@Override
+			protected void done() {
+				sizesLoading = false;
+
+				// The pages changed in the meantime
+				if (pagesGeneration != WebtoonStrip.this.pagesGeneration) {
+					if (isDisplayable()) {
+						load();
+					}
+					return;
+				}
+
+				try {
+					sizes = get();
+					layoutWidth = -1;
+					revalidate();
+					repaint();
+				} catch (InterruptedException e) {
+					Instance.getInstance().getTraceHandler().error(e);
+				} catch (ExecutionException e) {
+					Instance.getInstance().getTraceHandler().error(e);
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	 * Release all the decoded pages (they will be decoded again when needed).
+	 */
+	public void release() {
+		generation++;
+		buffers.clear();
+		for (Future<?> task : loading.values()) {
+			task.cancel(false);
+		}
+		loading.clear();
+		executor.purge();
+		recycled.clear();
+	}
+
+	/**
+	 * The pages changed: forget their sizes and layout, and release all the
+	 * decoded pages.
+	 * <p>
+	 * {@link WebtoonStrip#load()} must be called again before the pages can be
+	 * shown.
+	 */
+	public void reset() {
+		pagesGeneration++;
+		release();
+		sizes = null;
+		offsets = null;
+		layoutWidth = -1;
+		revalidate();
+		repaint();
+	}
+
+	/**
+	 * The page at the middle of the visible area.
+	 * 
+	 * @return the page (0 if the pages are not yet laid out)
+	 */
+	public int getPage() {
+		if (offsets == null) {
+			return 0;
+		}
+
+		Rectangle visible = getVisibleRect();
+		return pageAt(visible.y + visible.height / 2);
+	}
+
+	/**
+	 * Scroll so the top of the given page is at the top of the visible area.
+	 * 
+	 * @param page
+	 *            the page
+	 */
+	public void scrollToPage(int page) {
+		if (!ensureLayout()) {
+			pendingPage = page;
+			return;
+		}
+
+		page = Math.max(0, Math.min(page, pages.size() - 1));
+		Rectangle visible = getVisibleRect();
+		scrollRectToVisible(new Rectangle(0, offsets[page], 1,
+				Math.max(1, visible.height)));
+	}
+
+	@Override
+	public Dimension getPreferredSize() {
+		int width = getParent() == null ? 0 : getParent().getWidth();
+		if (!ensureLayout(width)) {
+			return new Dimension(width, 0);
+		}
+
+		return new Dimension(width, offsets[offsets.length - 1]);
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		if (!ensureLayout()) {
+			return;
+		}
+
+		// A page was asked before we could lay the pages out
+		if (pendingPage >= 0) {
+			final int page = pendingPage;
+			pendingPage = -1;
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					scrollToPage(page);
+				}
+			});
+		}
+
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(getSize());
+		}
+
+		int from = pageAt(clip.y);
+		int to = pageAt(clip.y + clip.height - 1);
+		for (int page = from; page <= to; page++) {
+			int height = offsets[page + 1] - offsets[page];
+			BufferedImage buffer = buffers.get(page);
+			if (buffer != null) {
+				g.drawImage(buffer, 0, offsets[page], null);
+			} else if (height > 0) {
+				g.setColor(Color.GRAY);
+				g.drawRect(0, offsets[page], layoutWidth - 1, height - 1);
+			}
+		}
+
+		Rectangle visible = getVisibleRect();
+		int first = pageAt(visible.y);
+		int last = pageAt(visible.y + visible.height - 1);
+		pages.setCurrent((first + last) / 2);
+		request(first, last);
+	}
+
+	@Override
+	public Dimension getPreferredScrollableViewportSize() {
+		return getPreferredSize();
+	}
+
+	@Override
+	public int getScrollableUnitIncrement(Rectangle visibleRect,
+			int orientation, int direction) {
+		return orientation == SwingConstants.VERTICAL
+				? Math.max(1, visibleRect.height / 10)
+				: Math.max(1, visibleRect.width / 10);
+	}
+
+	@Override
+	public int getScrollableBlockIncrement(Rectangle visibleRect,
+			int orientation, int direction) {
+		return orientation == SwingConstants.VERTICAL
+				? Math.max(1, visibleRect.height - 20)
+				: Math.max(1, visibleRect.width - 20);
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportWidth() {
+		return true;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportHeight() {
+		return false;
+	}
+
+	/**
+	 * Keep the given pages and the {@link WebtoonStrip#MARGIN} pages around
+	 * them decoded (decode them if needed, the visible ones first), and
+	 * recycle the buffers of the other pages.
+	 * <p>
+	 * The pages still waiting to be decoded which are not needed anymore are
+	 * cancelled, so the queue never holds more than the pages around the
+	 * visible ones.
+	 * 
+	 * @param first
+	 *            the first visible page
+	 * @param last
+	 *            the last visible page (included)
+	 */
+	private void request(int first, int last) {
+		int from = Math.max(0, first - MARGIN);
+		int to = Math.min(pages.size() - 1, last + MARGIN);
+
+		for (Iterator<Integer> it = buffers.keySet().iterator(); it
+				.hasNext();) {
+			int page = it.next();
+			if (page < from || page > to) {
+				recycle(buffers.get(page));
+				it.remove();
+			}
+		}
+
+		boolean cancelled = false;
+		for (Iterator<Map.Entry<Integer, Future<?>>> it = loading.entrySet()
+				.iterator(); it.hasNext();) {
+			Map.Entry<Integer, Future<?>> entry = it.next();
+			if (entry.getKey() < from || entry.getKey() > to) {
+				entry.getValue().cancel(false);
+				it.remove();
+				cancelled = true;
+			}
+		}
+
+		if (cancelled) {
+			executor.purge();
+		}
+
+		for (int page = first; page <= last; page++) {
+			need(page);
+		}
+		for (int i = 1; i <= MARGIN; i++) {
+			need(last + i);
+			need(first - i);
+		}
+	}
+
+	/**
+	 * Decode this page if it is not already decoded or being decoded.
+	 * 
+	 * @param page
+	 *            the page (can be out of bounds, in which case nothing is
+	 *            done)
+	 */
+	private void need(int page) {
+		if (page < 0 || page >= pages.size()) {
+			return;
+		}
+
+		int height = offsets[page + 1] - offsets[page];
+		if (height > 0 && !buffers.containsKey(page)
+				&& !loading.containsKey(page)) {
+			loading.put(page, decode(page, obtain(layoutWidth, height)));
+		}
+	}
+
+	/**
+	 * Decode and scale the given page into the given buffer in the background.
+	 * 
+	 * @param page
+	 *            the page
+	 * @param buffer
+	 *            the buffer, at the size the page is shown
+	 * 
+	 * @return the task, which can be cancelled if the page is not needed
+	 *         anymore
+	 */
+	private Future<?> decode(final int page, final BufferedImage buffer) {
+		final int generation = this.generation;
+		return executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				boolean ok = false;
+				try {
+					BufferedImage image = pages.getDecoded(page,
+							Rotation.NONE);
+					if (image != null) {
+						Graphics2D g = buffer.createGraphics();
+						try {
+							g.setComposite(AlphaComposite.Src);
+							g.setRenderingHint(
+									RenderingHints.KEY_INTERPOLATION,
+									RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+							g.drawImage(image, 0, 0, buffer.getWidth(),
+									buffer.getHeight(), null);
+						} finally {
+							g.dispose();
+						}
+						ok = true;
+					}
+				} catch (Exception e) {
+					Instance.getInstance().getTraceHandler().error(e);
+				}
+
+				final boolean decoded = ok;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (generation != WebtoonStrip.this.generation) {
+							return;
+						}
+
+						// Cancelled, but too late
+						if (!loading.containsKey(page)) {
+							recycle(buffer);
+							return;
+						}
+
+						loading.remove(page);
+						if (decoded && buffer.getWidth() == layoutWidth) {
+							buffers.put(page, buffer);
+							repaint(0, offsets[page], layoutWidth,
+									offsets[page + 1] - offsets[page]);
+						} else {
+							recycle(buffer);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * A buffer of the given size, recycled if possible.
+	 * 
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * 
+	 * @return the buffer
+	 */
+	private BufferedImage obtain(int width, int height) {
+		for (Iterator<BufferedImage> it = recycled.iterator(); it.hasNext();) {
+			BufferedImage buffer = it.next();
+			if (buffer.getWidth() == width && buffer.getHeight() == height) {
+				it.remove();
+				return buffer;
+			}
+		}
+
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	/**
+	 * Keep this buffer for a next page, if we do not already keep too many.
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 */
+	private void recycle(BufferedImage buffer) {
+		if (recycled.size() >= MAX_RECYCLED) {
+			recycled.remove(0);
+		}
+		recycled.add(buffer);
+	}
+
+	/**
+	 * The page at this vertical position.
+	 * 
+	 * @param y
+	 *            the position
+	 * 
+	 * @return the page
+	 */
+	private int pageAt(int y) {
+		int low = 0;
+		int high = offsets.length - 2;
+		while (low < high) {
+			int middle = (low + high + 1) / 2;
+			if (offsets[middle] <= y) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		return Math.max(0, low);
+	}
+
+	/**
+	 * Lay the pages out for the current width if needed.
+	 * 
+	 * @return TRUE if the pages are laid out
+	 */
+	private boolean ensureLayout() {
+		return ensureLayout(getWidth());
+	}
+
+	/**
+	 * Lay the pages out for the given width if needed.
+	 * 
+	 * @param width
+	 *            the width
+	 * 
+	 * @return TRUE if the pages are laid out
+	 */
+	private boolean ensureLayout(int width) {
+		if (sizes == null || sizes.length == 0 || width <= 0) {
+			return false;
+		}
+
+		if (width != layoutWidth) {
+			layout(width);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Lay the pages out for the given width: all the pages are scaled to this
+	 * width.
+	 * <p>
+	 * The decoded pages are dropped since they do not have the right size
+	 * anymore.
+	 * 
+	 * @param width
+	 *            the width
+	 */
+	private void layout(int width) {
+		offsets = new int[sizes.length + 1];
+		for (int i = 0; i < sizes.length; i++) {
+			int height = 0;
+			if (sizes[i].width > 0) {
+				height = (int) Math.round(
+						(double) sizes[i].height * width / sizes[i].width);
+			}
+			offsets[i + 1] = offsets[i] + height;
+		}
+
+		layoutWidth = width;
+		release();
+	}
+}
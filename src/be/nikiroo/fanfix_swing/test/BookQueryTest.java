@@ -0,0 +1,217 @@
+package be.nikiroo.fanfix_swing.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nikiroo.fanfix.data.MetaData;
+import be.nikiroo.fanfix_swing.gui.book.BookInfo;
+import be.nikiroo.fanfix_swing.gui.utils.BookQuery;
+import be.nikiroo.fanfix_swing.gui.utils.BookSearchIndex;
+import be.nikiroo.utils.test.TestCase;
+import be.nikiroo.utils.test.TestLauncher;
+
+class BookQueryTest extends TestLauncher {
+	public BookQueryTest(String[] args) {
+		super("BookQuery", args);
+
+		addTest(new TestCase("Free text") {
+			@Override
+			public void test() throws Exception {
+				BookQuery query = BookQuery.parse("  Élan  Vital ");
+				assertEquals("elan vital", query.getText());
+				assertEquals(false, query.isEmpty());
+				assertEquals(true, BookQuery.parse(null).isEmpty());
+				assertEquals(true, BookQuery.parse("   ").isEmpty());
+			}
+		});
+
+		addTest(new TestCase("Fields and quotes") {
+			@Override
+			public void test() throws Exception {
+				BookQuery query = BookQuery
+						.parse("author:\"Jane Doe\" dragon tag:fantasy");
+				assertEquals("dragon", query.getText());
+				assertEquals(true, query.test(meta("The Dragon", "Jane Doe",
+						"web", 10, "2020-01-01", "fantasy"), true));
+				assertEquals(false, query.test(meta("The Dragon", "John Doe",
+						"web", 10, "2020-01-01", "fantasy"), true));
+			}
+		});
+
+		addTest(new TestCase("Invalid terms are text") {
+			@Override
+			public void test() throws Exception {
+				assertEquals("words>many foo:bar",
+						BookQuery.parse("words>many foo:bar").getText());
+				assertEquals("author:", BookQuery.parse("author:").getText());
+			}
+		});
+
+		addTest(new TestCase("Comparisons") {
+			@Override
+			public void test() throws Exception {
+				MetaData meta = meta("Title", "A", "web", 1000, "2019-05-10");
+				assertEquals(true, BookQuery.parse("words>999").test(meta,
+						false));
+				assertEquals(false, BookQuery.parse("words>1000").test(meta,
+						false));
+				assertEquals(true, BookQuery.parse("words<1001").test(meta,
+						false));
+				assertEquals(true, BookQuery.parse("date>2019").test(meta,
+						false));
+				assertEquals(false, BookQuery.parse("date<2019").test(meta,
+						false));
+				assertEquals(true, BookQuery.parse("cached:yes").test(meta,
+						true));
+				assertEquals(false, BookQuery.parse("cached:yes").test(meta,
+						false));
+			}
+		});
+
+		addTest(new TestCase("Negation") {
+			@Override
+			public void test() throws Exception {
+				MetaData meta = meta("The Dragon", "Jane", "web", 10, null,
+						"fantasy");
+				assertEquals(false, BookQuery.parse("-tag:fantasy").test(meta,
+						false));
+				assertEquals(true, BookQuery.parse("-tag:horror").test(meta,
+						false));
+
+				BookQuery query = BookQuery.parse("the -dragon");
+				assertEquals("the", query.getText());
+				assertEquals(false, query.test(meta, false));
+				assertEquals(true, query.test(
+						meta("The Knight", "Jane", "web", 10, null), false));
+				assertEquals(false, query.test("The Dragon", "web"));
+			}
+		});
+
+		addTest(new TestCase("Narrowing") {
+			@Override
+			public void test() throws Exception {
+				BookQuery previous = BookQuery.parse("tag:a dra");
+				assertEquals(true,
+						BookQuery.parse("tag:a drag").isNarrowing(previous));
+				assertEquals(false,
+						BookQuery.parse("tag:b drag").isNarrowing(previous));
+				assertEquals(false,
+						BookQuery.parse("tag:a dr").isNarrowing(previous));
+				assertEquals(false,
+						BookQuery.parse("dragon").isNarrowing(null));
+			}
+		});
+
+		addTest(new TestCase("Index: titles") {
+			@Override
+			public void test() throws Exception {
+				BookSearchIndex index = index();
+				assertEquals(4, index.size());
+				assertEquals(bits(0, 1), index.search("dragon", null));
+				assertEquals(bits(1), index.search("dragons", null));
+				assertEquals(bits(1), index.search("dragons", bits(0, 1)));
+				assertEquals(bits(0, 1, 2, 3), index.search("", null));
+				// Shorter than a trigram
+				assertEquals(bits(0, 3), index.search("e", null));
+				assertEquals(bits(), index.search("zzz", null));
+			}
+		});
+
+		addTest(new TestCase("Index: fields") {
+			@Override
+			public void test() throws Exception {
+				BookSearchIndex index = index();
+				assertEquals(bits(0, 2), index.findAuthor("jane"));
+				assertEquals(bits(0, 1, 2, 3), index.findAuthor("doe"));
+				assertEquals(bits(1, 3), index.findTag("horror"));
+				assertEquals(bits(3), index.findSource("book"));
+				assertEquals(bits(2, 3), index.findWords(500, Long.MAX_VALUE));
+				assertEquals(bits(0, 1), index.findDates("2018", "2020"));
+				assertEquals(bits(), index.findImages());
+			}
+		});
+
+		addTest(new TestCase("Index: books about to be updated") {
+			@Override
+			public void test() throws Exception {
+				List<BookInfo> books = new ArrayList<BookInfo>();
+				books.add(BookInfo.fromMeta(null, meta("The Dragon", "Jane",
+						"web", 100, null, "fantasy")));
+				BookInfo update = BookInfo.fromMeta(null, meta("The Knight",
+						"John", "web", 100, null, "horror"));
+
+				Map<BookInfo, BookInfo> updates =
+						new HashMap<BookInfo, BookInfo>();
+				updates.put(books.get(0), update);
+				BookSearchIndex index = new BookSearchIndex(books, updates);
+
+				assertEquals(bits(), index.search("dragon", null));
+				assertEquals(bits(0), index.search("knight", null));
+				assertEquals(bits(0), index.findAuthor("john"));
+				assertEquals(bits(0), index.findTag("horror"));
+				assertEquals(true, books.get(0) == index.get(0));
+			}
+		});
+
+		addTest(new TestCase("Index: same results as the books") {
+			@Override
+			public void test() throws Exception {
+				BookSearchIndex index = index();
+				for (String text : Arrays.asList("dragon", "-dragon",
+						"author:jane -tag:horror", "words<500 e",
+						"-date>2019 source:web", "\"the dr\"")) {
+					BookQuery query = BookQuery.parse(text);
+					BitSet expected = new BitSet();
+					for (int i = 0; i < index.size(); i++) {
+						if (query.test(index.get(i).getMeta(), false)) {
+							expected.set(i);
+						}
+					}
+
+					assertEquals("Query: " + text, expected,
+							query.evaluate(index, null));
+				}
+			}
+		});
+	}
+
+	static private BookSearchIndex index() {
+		List<BookInfo> books = new ArrayList<BookInfo>();
+		books.add(BookInfo.fromMeta(null, meta("The Dragon", "Jane Doe",
+				"web", 100, "2018-03-01", "fantasy")));
+		books.add(BookInfo.fromMeta(null, meta("Dragons", "John Doe", "web",
+				200, "2019-12-31", "horror", "fantasy")));
+		books.add(BookInfo.fromMeta(null, meta("Knight", "Jane Doe", "web",
+				500, "2020-01-01")));
+		books.add(BookInfo.fromMeta(null, meta("Élégie", "Max Doe", "book",
+				1000, "2021-06-15", "horror")));
+
+		return new BookSearchIndex(books);
+	}
+
+	static private MetaData meta(String title, String author, String source,
+			long words, String date, String... tags) {
+		MetaData meta = new MetaData();
+		meta.setLuid(title);
+		meta.setTitle(title);
+		meta.setAuthor(author);
+		meta.setSource(source);
+		meta.setWords(words);
+		meta.setDate(date);
+		meta.setTags(new ArrayList<String>(Arrays.asList(tags)));
+		return meta;
+	}
+
+	static private BitSet bits(int... positions) {
+		BitSet bits = new BitSet();
+		for (int position : positions) {
+			bits.set(position);
+		}
+
+		return bits;
+	}
+}
@@ -0,0 +1,160 @@
+package be.nikiroo.fanfix_swing.test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import be.nikiroo.fanfix_swing.gui.utils.CoverCache;
+import be.nikiroo.utils.IOUtils;
+import be.nikiroo.utils.test.TestCase;
+import be.nikiroo.utils.test.TestLauncher;
+
+class CoverCacheTest extends TestLauncher {
+	private File dir;
+
+	public CoverCacheTest(String[] args) {
+		super("CoverCache", args);
+
+		addTest(new TestCase("Memory tier") {
+			@Override
+			public void test() throws Exception {
+				CoverCache cache = new CoverCache(null, 1024 * 1024, 0);
+				BufferedImage image = image(4, 3);
+				cache.put("id", image);
+				assertEquals(true, image == cache.get("id"));
+				assertEquals(null, cache.get("other"));
+				assertEquals(1, cache.getMemoryHits());
+				assertEquals(1, cache.getMisses());
+			}
+		});
+
+		addTest(new TestCase("Disk tier: same pixels") {
+			@Override
+			public void test() throws Exception {
+				BufferedImage image = image(5, 7);
+				new CoverCache(dir, 1024 * 1024, 1024 * 1024).put("id", image);
+
+				// A new cache, so nothing is in memory
+				CoverCache cache = new CoverCache(dir, 1024 * 1024,
+						1024 * 1024);
+				BufferedImage read = cache.get("id");
+				assertNotNull("Thumbnail not found on disk", read);
+				assertEquals(1, cache.getDiskHits());
+				assertEquals(5, read.getWidth());
+				assertEquals(7, read.getHeight());
+				for (int x = 0; x < 5; x++) {
+					for (int y = 0; y < 7; y++) {
+						assertEquals(image.getRGB(x, y), read.getRGB(x, y));
+					}
+				}
+			}
+		});
+
+		addTest(new TestCase("Disk tier: truncated file") {
+			@Override
+			public void test() throws Exception {
+				new CoverCache(dir, 0, 1024 * 1024).put("id", image(5, 7));
+				File file = getFile();
+				setLength(file, file.length() - 1);
+
+				CoverCache cache = new CoverCache(dir, 0, 1024 * 1024);
+				assertEquals(null, cache.get("id"));
+				assertEquals(1, cache.getMisses());
+				assertEquals("The corrupted file was not deleted", false,
+						file.exists());
+			}
+		});
+
+		addTest(new TestCase("Disk tier: corrupted header") {
+			@Override
+			public void test() throws Exception {
+				for (int value : new int[] { -1, Integer.MAX_VALUE }) {
+					for (int offset : new int[] { 4, 8 + 2, 8 + 2 + 4 }) {
+						new CoverCache(dir, 0, 1024 * 1024).put("id",
+								image(5, 7));
+						File file = getFile();
+						RandomAccessFile out = new RandomAccessFile(file,
+								"rw");
+						try {
+							out.seek(offset);
+							out.writeInt(value);
+						} finally {
+							out.close();
+						}
+
+						CoverCache cache = new CoverCache(dir, 0, 1024 * 1024);
+						assertEquals("Offset " + offset + ", value " + value,
+								null, cache.get("id"));
+						assertEquals(false, file.exists());
+					}
+				}
+			}
+		});
+
+		addTest(new TestCase("Disk tier: header only") {
+			@Override
+			public void test() throws Exception {
+				new CoverCache(dir, 0, 1024 * 1024).put("id", image(5, 7));
+				File file = getFile();
+				// Magic, ID length, ID ("id")
+				setLength(file, 4 + 4 + 2);
+
+				assertEquals(null,
+						new CoverCache(dir, 0, 1024 * 1024).get("id"));
+			}
+		});
+
+		addTest(new TestCase("Remove") {
+			@Override
+			public void test() throws Exception {
+				CoverCache cache = new CoverCache(dir, 1024 * 1024,
+						1024 * 1024);
+				cache.put("id", image(2, 2));
+				cache.remove("id");
+				assertEquals(null, cache.get("id"));
+				assertEquals("The file was not deleted", true,
+						getFile() == null);
+			}
+		});
+	}
+
+	@Override
+	protected void start() throws Exception {
+		dir = File.createTempFile("fanfix-swing-covers", ".test");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@Override
+	protected void stop() throws Exception {
+		IOUtils.deltree(dir);
+	}
+
+	// The only thumbnail file of the cache directory, or NULL
+	private File getFile() {
+		File[] files = dir.listFiles();
+		return files == null || files.length == 0 ? null : files[0];
+	}
+
+	static private void setLength(File file, long length) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.setLength(length);
+		} finally {
+			out.close();
+		}
+	}
+
+	static private BufferedImage image(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_ARGB);
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				image.setRGB(x, y, 0xFF000000 | (x * 40) << 16 | y * 30);
+			}
+		}
+
+		return image;
+	}
+}
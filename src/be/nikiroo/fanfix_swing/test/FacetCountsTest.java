@@ -0,0 +1,130 @@
+package be.nikiroo.fanfix_swing.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import be.nikiroo.fanfix.data.MetaData;
+import be.nikiroo.fanfix_swing.gui.book.BookInfo.Type;
+import be.nikiroo.fanfix_swing.gui.utils.FacetCounts;
+import be.nikiroo.utils.test.TestCase;
+import be.nikiroo.utils.test.TestLauncher;
+
+class FacetCountsTest extends TestLauncher {
+	public FacetCountsTest(String[] args) {
+		super("FacetCounts", args);
+
+		addTest(new TestCase("Initial counts") {
+			@Override
+			public void test() throws Exception {
+				FacetCounts counts = counts();
+				assertEquals(3, counts.getTotal());
+				assertEquals(3, counts.getSourceCount(null));
+				assertEquals(1, counts.getSourceCount("web"));
+				assertEquals(1, counts.getSourceCount("web/ao3"));
+				assertEquals(2, counts.getSourceCount("web/"));
+				assertEquals(1, counts.getSourceCount("web/ao3/"));
+				assertEquals(0, counts.getSourceCount("book/"));
+				assertEquals(2, counts.getAuthorCount("Jane"));
+				assertEquals(2, counts.getTagCount("fantasy"));
+				assertEquals(1, counts.getTagCount("horror"));
+				assertEquals(0, counts.getTagCount("unknown"));
+				assertEquals(2, counts.getCount(Type.AUTHOR, "Jane"));
+			}
+		});
+
+		addTest(new TestCase("Add and remove") {
+			@Override
+			public void test() throws Exception {
+				FacetCounts counts = counts();
+				counts.add(meta("4", "book", "Jane", "horror"));
+				assertEquals(4, counts.getTotal());
+				assertEquals(3, counts.getAuthorCount("Jane"));
+				assertEquals(2, counts.getTagCount("horror"));
+
+				counts.remove(meta("4", "book", "Jane", "horror"));
+				assertEquals(3, counts.getTotal());
+				assertEquals(2, counts.getAuthorCount("Jane"));
+				assertEquals(0, counts.getSourceCount("book"));
+			}
+		});
+
+		addTest(new TestCase("Import again the same story") {
+			@Override
+			public void test() throws Exception {
+				FacetCounts counts = counts();
+				// Re-download of story 1, with a new tag
+				counts.add(meta("1", "web", "Jane", "fantasy", "romance"));
+				assertEquals(3, counts.getTotal());
+				assertEquals(1, counts.getSourceCount("web"));
+				assertEquals(2, counts.getAuthorCount("Jane"));
+				assertEquals(2, counts.getTagCount("fantasy"));
+				assertEquals(1, counts.getTagCount("romance"));
+			}
+		});
+
+		addTest(new TestCase("Remove an unknown story") {
+			@Override
+			public void test() throws Exception {
+				FacetCounts counts = counts();
+				counts.remove(meta("42", "web", "Jane", "fantasy"));
+				assertEquals(3, counts.getTotal());
+				assertEquals(2, counts.getAuthorCount("Jane"));
+			}
+		});
+
+		addTest(new TestCase("Move") {
+			@Override
+			public void test() throws Exception {
+				FacetCounts counts = counts();
+				counts.move(meta("1", "web", "Jane"), Type.SOURCE, "book");
+				assertEquals(0, counts.getSourceCount("web"));
+				assertEquals(1, counts.getSourceCount("web/"));
+				assertEquals(1, counts.getSourceCount("book"));
+
+				counts.move(meta("1", "book", "Jane"), Type.AUTHOR, "John");
+				assertEquals(1, counts.getAuthorCount("Jane"));
+				assertEquals(2, counts.getAuthorCount("John"));
+
+				// The counts follow the move
+				counts.remove(meta("1", "web", "Jane"));
+				assertEquals(0, counts.getSourceCount("book"));
+				assertEquals(1, counts.getSourceCount("web/"));
+				assertEquals(1, counts.getAuthorCount("John"));
+				assertEquals(1, counts.getAuthorCount("Jane"));
+			}
+		});
+
+		addTest(new TestCase("Move an unknown story") {
+			@Override
+			public void test() throws Exception {
+				FacetCounts counts = counts();
+				counts.move(meta("42", "local", "John"), Type.SOURCE, "web");
+				counts.move(meta("42", "local", "John"), Type.AUTHOR, "Jane");
+				assertEquals(3, counts.getTotal());
+				assertEquals(1, counts.getSourceCount("local"));
+				assertEquals(1, counts.getSourceCount("web"));
+				assertEquals(1, counts.getAuthorCount("John"));
+				assertEquals(2, counts.getAuthorCount("Jane"));
+			}
+		});
+	}
+
+	static private FacetCounts counts() {
+		List<MetaData> metas = new ArrayList<MetaData>();
+		metas.add(meta("1", "web", "Jane", "fantasy"));
+		metas.add(meta("2", "web/ao3", "Jane", "fantasy", "horror"));
+		metas.add(meta("3", "local", "John"));
+		return new FacetCounts(metas);
+	}
+
+	static private MetaData meta(String luid, String source, String author,
+			String... tags) {
+		MetaData meta = new MetaData();
+		meta.setLuid(luid);
+		meta.setSource(source);
+		meta.setAuthor(author);
+		meta.setTags(new ArrayList<String>(Arrays.asList(tags)));
+		return meta;
+	}
+}
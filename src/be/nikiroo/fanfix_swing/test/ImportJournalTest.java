@@ -0,0 +1,141 @@
+package be.nikiroo.fanfix_swing.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import be.nikiroo.fanfix_swing.gui.importer.ImportJournal;
+import be.nikiroo.fanfix_swing.gui.importer.ImportJournal.Entry;
+import be.nikiroo.fanfix_swing.gui.importer.ImportJournal.State;
+import be.nikiroo.utils.IOUtils;
+import be.nikiroo.utils.test.TestCase;
+import be.nikiroo.utils.test.TestLauncher;
+
+class ImportJournalTest extends TestLauncher {
+	private File dir;
+
+	public ImportJournalTest(String[] args) {
+		super("ImportJournal", args);
+
+		addTest(new TestCase("Replay: only the pending imports") {
+			@Override
+			public void test() throws Exception {
+				File file = new File(dir, "pending");
+				ImportJournal journal = new ImportJournal(file);
+				List<Entry> entries = journal.add(Arrays.asList("done",
+						"failed", "running", "queued"), 0);
+				for (Entry entry : entries) {
+					journal.started(entry);
+				}
+				journal.finished(entries.get(0), State.DONE, null);
+				journal.finished(entries.get(1), State.FAILED, "404");
+				journal.finished(entries.get(3), State.QUEUED, "503");
+				// Also waits for the changes to be written
+				assertEquals(0, journal.replay().size());
+
+				List<Entry> pending = new ImportJournal(file).replay();
+				assertEquals(2, pending.size());
+				assertEquals("running", pending.get(0).getUrl());
+				assertEquals(State.QUEUED, pending.get(0).getState());
+				assertEquals(1, pending.get(0).getAttempts());
+				assertEquals("queued", pending.get(1).getUrl());
+				assertEquals("503", pending.get(1).getLastError());
+			}
+		});
+
+		addTest(new TestCase("Replay: compaction") {
+			@Override
+			public void test() throws Exception {
+				File file = new File(dir, "compaction");
+				ImportJournal journal = new ImportJournal(file);
+				Entry done = journal.add("done");
+				journal.add("queued");
+				journal.started(done);
+				journal.finished(done, State.DONE, null);
+				journal.replay();
+
+				assertEquals(1, new ImportJournal(file).replay().size());
+				assertEquals("Only the pending import is kept", 1,
+						IOUtils.readSmallFile(file).split("\n").length);
+			}
+		});
+
+		addTest(new TestCase("Replay: truncated last line") {
+			@Override
+			public void test() throws Exception {
+				File file = new File(dir, "truncated");
+				ImportJournal journal = new ImportJournal(file);
+				journal.add("complete");
+				journal.replay();
+
+				FileOutputStream out = new FileOutputStream(file, true);
+				try {
+					out.write("id-2\tQUEUED\t0\tincomplete\t"
+							.getBytes("UTF-8"));
+				} finally {
+					out.close();
+				}
+
+				List<Entry> pending = new ImportJournal(file).replay();
+				assertEquals(1, pending.size());
+				assertEquals("complete", pending.get(0).getUrl());
+			}
+		});
+
+		addTest(new TestCase("Replay: imports added in the meantime") {
+			@Override
+			public void test() throws Exception {
+				File file = new File(dir, "meantime");
+				ImportJournal journal = new ImportJournal(file);
+				journal.add("old");
+				journal.replay();
+
+				journal = new ImportJournal(file);
+				Entry added = journal.add("new");
+				journal.started(added);
+				List<Entry> pending = journal.replay();
+				assertEquals("The new import is already known", 1,
+						pending.size());
+				assertEquals("old", pending.get(0).getUrl());
+
+				// But it is still recorded
+				journal.finished(added, State.QUEUED, "timeout");
+				journal.replay();
+				pending = new ImportJournal(file).replay();
+				assertEquals(2, pending.size());
+				assertEquals("new", pending.get(1).getUrl());
+				assertEquals("timeout", pending.get(1).getLastError());
+			}
+		});
+
+		addTest(new TestCase("Replay: priority") {
+			@Override
+			public void test() throws Exception {
+				File file = new File(dir, "priority");
+				ImportJournal journal = new ImportJournal(file);
+				journal.add("normal");
+				journal.add(Arrays.asList("bulk"), -1);
+				journal.replay();
+
+				List<Entry> pending = new ImportJournal(file).replay();
+				assertEquals(2, pending.size());
+				assertEquals(0, pending.get(0).getPriority());
+				assertEquals("bulk", pending.get(1).getUrl());
+				assertEquals(-1, pending.get(1).getPriority());
+			}
+		});
+	}
+
+	@Override
+	protected void start() throws Exception {
+		dir = File.createTempFile("fanfix-swing-journal", ".test");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@Override
+	protected void stop() throws Exception {
+		IOUtils.deltree(dir);
+	}
+}
@@ -0,0 +1,315 @@
+package be.nikiroo.fanfix_swing.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import be.nikiroo.fanfix.data.MetaData;
+import be.nikiroo.fanfix_swing.gui.importer.ImportFailure;
+import be.nikiroo.fanfix_swing.gui.importer.Importer;
+import be.nikiroo.fanfix_swing.gui.importer.RetryPolicy;
+import be.nikiroo.utils.Progress;
+import be.nikiroo.utils.test.TestCase;
+import be.nikiroo.utils.test.TestLauncher;
+
+/**
+ * Test the classification of the import errors and the {@link RetryPolicy}
+ * against a local HTTP server which answers what it is told to: the path of
+ * the request is the list of the HTTP status codes to return for the
+ * successive requests on this path (the last one is then kept), for instance
+ * <tt>/503/503/200</tt>; a status code of 0 means to wait longer than the
+ * time-out of the {@link Importer}.
+ * 
+ * @author niki
+ */
+class ImportRetryTest extends TestLauncher {
+	/** The read time-out of the {@link Importer}, in milliseconds. */
+	static private final int TIMEOUT = 200;
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private List<String> requests = new ArrayList<String>();
+
+	public ImportRetryTest(String[] args) {
+		super("Import retries", args);
+
+		addTest(new TestCase("Classify the HTTP errors") {
+			@Override
+			public void test() throws Exception {
+				assertEquals(ImportFailure.TRANSIENT, classify("/500"));
+				assertEquals(ImportFailure.TRANSIENT, classify("/503"));
+				assertEquals(ImportFailure.TRANSIENT, classify("/408"));
+				assertEquals(ImportFailure.TRANSIENT, classify("/429"));
+				assertEquals(ImportFailure.REJECTED, classify("/403"));
+				assertEquals(ImportFailure.REJECTED, classify("/404"));
+				assertEquals(ImportFailure.REJECTED, classify("/410"));
+				assertEquals(ImportFailure.PARSE, classify("/200"));
+			}
+		});
+
+		addTest(new TestCase("Classify the connection errors") {
+			@Override
+			public void test() throws Exception {
+				assertEquals("Time-out", ImportFailure.TRANSIENT,
+						classify("/0"));
+
+				ServerSocket socket = new ServerSocket(0);
+				int port = socket.getLocalPort();
+				socket.close();
+				assertEquals("Connection refused", ImportFailure.TRANSIENT,
+						classify("http://127.0.0.1:" + port + "/200", false));
+			}
+		});
+
+		addTest(new TestCase("Attempts: transient errors") {
+			@Override
+			public void test() throws Exception {
+				RetryPolicy policy = new RetryPolicy(4, 10, 100, null);
+				assertEquals(4, importWithRetries(policy, "/cap/503"));
+				assertEquals(4, count("/cap/503"));
+			}
+		});
+
+		addTest(new TestCase("Attempts: permanent errors") {
+			@Override
+			public void test() throws Exception {
+				RetryPolicy policy = new RetryPolicy(4, 10, 100, null);
+				assertEquals(1, importWithRetries(policy, "/perm/404"));
+				assertEquals(1, importWithRetries(policy, "/perm/200"));
+			}
+		});
+
+		addTest(new TestCase("Attempts: success after a retry") {
+			@Override
+			public void test() throws Exception {
+				RetryPolicy policy = new RetryPolicy(4, 10, 100, null);
+				assertEquals(-3,
+						importWithRetries(policy, "/ok/503/0/story"));
+			}
+		});
+
+		addTest(new TestCase("Backoff bounds") {
+			@Override
+			public void test() throws Exception {
+				RetryPolicy policy = new RetryPolicy(10, 1000, 8000,
+						new Random(42));
+				for (int attempts = 1; attempts <= 10; attempts++) {
+					long max = Math.min(1000L << (attempts - 1), 8000);
+					for (int i = 0; i < 100; i++) {
+						long delay = policy.getDelay(attempts);
+						assertEquals("Too short: " + delay + " for attempt "
+								+ attempts, true, delay >= max / 2);
+						assertEquals("Too long: " + delay + " for attempt "
+								+ attempts, true, delay <= max);
+					}
+				}
+			}
+		});
+	}
+
+	@Override
+	protected void start() throws Exception {
+		executor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				answer(exchange);
+			}
+		});
+		server.start();
+	}
+
+	@Override
+	protected void stop() throws Exception {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Answer a request as scripted by its path (see {@link ImportRetryTest}).
+	 * 
+	 * @param exchange
+	 *            the request
+	 * 
+	 * @throws IOException
+	 *             in case of I/O error
+	 */
+	private void answer(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		int index;
+		synchronized (requests) {
+			index = count(path);
+			requests.add(path);
+		}
+
+		List<String> script = new ArrayList<String>();
+		for (String step : path.split("/")) {
+			if (step.matches("[0-9]+|story")) {
+				script.add(step);
+			}
+		}
+
+		String step = script.get(Math.min(index, script.size() - 1));
+		if (step.equals("0")) {
+			try {
+				Thread.sleep(TIMEOUT * 5);
+			} catch (InterruptedException e) {
+				// Stopped
+			}
+			step = "200";
+		}
+
+		int code = step.equals("story") ? 200 : Integer.parseInt(step);
+		byte[] body = step.getBytes("UTF-8");
+		exchange.sendResponseHeaders(code, body.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(body);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * The number of requests already made on this path.
+	 * 
+	 * @param path
+	 *            the path
+	 * 
+	 * @return the number of requests
+	 */
+	private int count(String path) {
+		synchronized (requests) {
+			int count = 0;
+			for (String request : requests) {
+				if (request.equals(path)) {
+					count++;
+				}
+			}
+
+			return count;
+		}
+	}
+
+	/**
+	 * Import this path of the local server, and classify the error.
+	 * 
+	 * @param path
+	 *            the path
+	 * 
+	 * @return the kind of error, or NULL if the import worked
+	 */
+	private ImportFailure classify(String path) {
+		return classify(path, true);
+	}
+
+	/**
+	 * Import this URL, and classify the error.
+	 * 
+	 * @param url
+	 *            the URL, or the path on the local server
+	 * @param local
+	 *            the URL is a path on the local server
+	 * 
+	 * @return the kind of error, or NULL if the import worked
+	 */
+	private ImportFailure classify(String url, boolean local) {
+		if (local) {
+			url = getUrl(url);
+		}
+
+		try {
+			new HttpImporter().imprt(url, null);
+			return null;
+		} catch (IOException e) {
+			return ImportFailure.classify(url, e);
+		}
+	}
+
+	/**
+	 * Import this path of the local server, tried again as told by the
+	 * {@link RetryPolicy} (without waiting).
+	 * 
+	 * @param policy
+	 *            the policy
+	 * @param path
+	 *            the path
+	 * 
+	 * @return the number of attempts, negative if the import worked
+	 */
+	private int importWithRetries(RetryPolicy policy, String path) {
+		String url = getUrl(path);
+		Importer importer = new HttpImporter();
+		for (int attempts = 1;; attempts++) {
+			try {
+				importer.imprt(url, null);
+				return -attempts;
+			} catch (IOException e) {
+				if (!policy.shouldRetry(ImportFailure.classify(url, e),
+						attempts)) {
+					return attempts;
+				}
+			}
+		}
+	}
+
+	private String getUrl(String path) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+	}
+
+	/**
+	 * An {@link Importer} which downloads the story with a
+	 * {@link HttpURLConnection} (as the real ones do), and only accepts
+	 * "story" as a story.
+	 * 
+	 * @author niki
+	 */
+	static private class HttpImporter implements Importer {
+		@Override
+		public MetaData imprt(String url, Progress pg) throws IOException {
+			try {
+				HttpURLConnection conn = (HttpURLConnection) new URL(url)
+						.openConnection();
+				conn.setConnectTimeout(TIMEOUT);
+				conn.setReadTimeout(TIMEOUT);
+
+				InputStream in = conn.getInputStream();
+				StringBuilder builder = new StringBuilder();
+				try {
+					for (int car = in.read(); car >= 0; car = in.read()) {
+						builder.append((char) car);
+					}
+				} finally {
+					in.close();
+				}
+
+				if (!builder.toString().equals("story")) {
+					throw new IOException("Cannot parse the story: " + url);
+				}
+
+				MetaData meta = new MetaData();
+				meta.setTitle(url);
+				return meta;
+			} finally {
+				if (pg != null) {
+					pg.done();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package be.nikiroo.fanfix_swing.test;
+
+import be.nikiroo.fanfix.Instance;
+import be.nikiroo.utils.test.TestLauncher;
+
+/**
+ * Tests for Fanfix-Swing.
+ * 
+ * @author niki
+ */
+public class Test extends TestLauncher {
+	/**
+	 * Create the Fanfix-Swing {@link TestLauncher}.
+	 * 
+	 * @param args
+	 *            the arguments to configure the number of columns and the ok/ko
+	 *            {@link String}s
+	 */
+	public Test(String[] args) {
+		super("Fanfix-Swing", args);
+
+		addSeries(new BookQueryTest(args));
+		addSeries(new CoverCacheTest(args));
+		addSeries(new FacetCountsTest(args));
+		addSeries(new ImportJournalTest(args));
+		addSeries(new ImportRetryTest(args));
+	}
+
+	/**
+	 * Main entry point of the program.
+	 * 
+	 * @param args
+	 *            the arguments passed to the {@link TestLauncher}s.
+	 */
+	static public void main(String[] args) {
+		Instance.init();
+		System.exit(new Test(args).launch());
+	}
+}